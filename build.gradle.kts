@@ -2,6 +2,7 @@ plugins {
     java
     id("org.springframework.boot") version "3.3.2"
     id("io.spring.dependency-management") version "1.1.6"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "AroundTheEurope"
@@ -25,15 +26,61 @@ dependencies {
     testImplementation("org.springframework.boot:spring-boot-starter-test")
     implementation("jakarta.validation:jakarta.validation-api:3.1.0")
     testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+    testImplementation("org.testcontainers:junit-jupiter")
+    jmh("org.springframework:spring-test")
     // RabbitMQ
     implementation("org.springframework.amqp:spring-rabbit:3.1.6")
     implementation("org.springframework.boot:spring-boot-starter-amqp")
     // Redis
     implementation("org.springframework.boot:spring-boot-starter-data-redis:3.3.0")
+    implementation("org.apache.commons:commons-pool2")
+    // Pooled HTTP client for upstream calls
+    implementation("org.apache.httpcomponents.client5:httpclient5")
+    // Metrics
+    implementation("org.springframework.boot:spring-boot-starter-actuator")
+    // Jackson accelerated property access
+    implementation("com.fasterxml.jackson.module:jackson-module-blackbird")
+    // In-process caches
+    implementation("com.github.ben-manes.caffeine:caffeine")
+    // Upstream circuit breakers and bulkheads
+    implementation("io.github.resilience4j:resilience4j-circuitbreaker:2.2.0")
+    implementation("io.github.resilience4j:resilience4j-bulkhead:2.2.0")
+    implementation("io.github.resilience4j:resilience4j-micrometer:2.2.0")
     // Dotenv
     implementation("io.github.cdimascio:dotenv-java:3.0.0")
 }
 
+jmh {
+    resultFormat = "JSON"
+    resultsFile = layout.buildDirectory.file("reports/jmh/results.json")
+}
+
 tasks.withType<Test> {
     useJUnitPlatform()
 }
+
+tasks.test {
+    useJUnitPlatform {
+        excludeTags("load", "simulation")
+    }
+}
+
+tasks.register<Test>("loadTest") {
+    description = "Runs the gateway load tests comparing thread-per-request and virtual thread execution."
+    group = "verification"
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = sourceSets.test.get().runtimeClasspath
+    useJUnitPlatform {
+        includeTags("load")
+    }
+}
+
+tasks.register<Test>("schedulingSimulation") {
+    description = "Simulates the trip request queue under each scheduling policy and compares the waiting times."
+    group = "verification"
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = sourceSets.test.get().runtimeClasspath
+    useJUnitPlatform {
+        includeTags("simulation")
+    }
+}
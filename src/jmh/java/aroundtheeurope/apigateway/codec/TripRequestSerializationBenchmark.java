@@ -0,0 +1,62 @@
+package aroundtheeurope.apigateway.codec;
+
+import aroundtheeurope.apigateway.configuration.ObjectMapperConfig;
+import aroundtheeurope.apigateway.dto.ForwardedTripRequestDTO;
+import aroundtheeurope.apigateway.dto.TripRequestDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares ForwardedTripRequestDTO round-trips through the pretty-printing mapper
+ * with the compact Blackbird mapper and the binary queue codec.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TripRequestSerializationBenchmark {
+
+    private ObjectMapper prettyMapper;
+    private JsonTripRequestCodec compactCodec;
+    private BinaryTripRequestCodec binaryCodec;
+    private ForwardedTripRequestDTO request;
+
+    @Setup
+    public void setUp() {
+        ObjectMapperConfig config = new ObjectMapperConfig();
+        prettyMapper = config.objectMapper();
+        compactCodec = new JsonTripRequestCodec(config.internalObjectMapper());
+        binaryCodec = new BinaryTripRequestCodec();
+
+        TripRequestDTO tripRequestDTO = new TripRequestDTO();
+        tripRequestDTO.setOrigin("BTS");
+        tripRequestDTO.setDestination("VIE");
+        tripRequestDTO.setDepartureAt("2024-10-10T00:00:00");
+        tripRequestDTO.setReturnBefore("2024-10-20T00:00:00");
+        tripRequestDTO.setBudget(300);
+        tripRequestDTO.setExcludedAirports(List.of("BUD", "PRG", "KRK"));
+        request = new ForwardedTripRequestDTO(tripRequestDTO, "5f0c1c0e-8c4e-4d0a-9a43-2f6a0d8f4b1e");
+    }
+
+    @Benchmark
+    public ForwardedTripRequestDTO prettyMapperRoundTrip() throws IOException {
+        String json = prettyMapper.writeValueAsString(request);
+        return prettyMapper.readValue(json, ForwardedTripRequestDTO.class);
+    }
+
+    @Benchmark
+    public ForwardedTripRequestDTO compactCodecRoundTrip() throws IOException {
+        return compactCodec.decode(compactCodec.encode(request));
+    }
+
+    @Benchmark
+    public ForwardedTripRequestDTO binaryCodecRoundTrip() throws IOException {
+        return binaryCodec.decode(binaryCodec.encode(request));
+    }
+}
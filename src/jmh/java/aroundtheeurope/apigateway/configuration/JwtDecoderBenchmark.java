@@ -0,0 +1,102 @@
+package aroundtheeurope.apigateway.configuration;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.openjdk.jmh.annotations.*;
+import aroundtheeurope.apigateway.security.RevokedTokenValidator;
+import aroundtheeurope.apigateway.security.TokenRevocationService;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.security.oauth2.core.OAuth2TokenValidatorResult;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-request authentication cost of decoding a reused bearer token with the
+ * caching decoder built by SecurityConfig.jwtDecoder(), compared with verifying it on every call.
+ * The revocation check is measured against a list of half a million revoked tokens.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtDecoderBenchmark {
+
+    static final String SIGNING_KEY = "benchmark_secret_key_minimum_32_characters####";
+    private static final int REVOKED_TOKENS = 500_000;
+
+    private JwtDecoder jwtDecoder;
+    private JwtDecoder uncachedJwtDecoder;
+    private JwtDecoder revocationCheckingJwtDecoder;
+    private String token;
+
+    @Setup
+    public void setUp() throws JOSEException {
+        SecurityConfig securityConfig = new SecurityConfig();
+        ReflectionTestUtils.setField(securityConfig, "signingKey", SIGNING_KEY);
+        ReflectionTestUtils.setField(securityConfig, "jwtCacheMaxEntries", 10_000L);
+        jwtDecoder = securityConfig.jwtDecoder(jwt -> OAuth2TokenValidatorResult.success());
+        uncachedJwtDecoder = NimbusJwtDecoder
+                .withSecretKey(new SecretKeySpec(SIGNING_KEY.getBytes(), "HmacSHA256"))
+                .build();
+        token = signToken(SIGNING_KEY, "5f0c1c0e-8c4e-4d0a-9a43-2f6a0d8f4b1e");
+
+        // The listener container is never started, revocations are loaded straight into memory
+        TokenRevocationService tokenRevocationService = new TokenRevocationService(
+                new StringRedisTemplate(), new RedisMessageListenerContainer(), REVOKED_TOKENS, 0.01);
+        long expiresAt = Instant.now().plus(1, ChronoUnit.HOURS).toEpochMilli();
+        for (int i = 0; i < REVOKED_TOKENS; i++) {
+            ReflectionTestUtils.invokeMethod(tokenRevocationService, "addLocal", "revoked-" + i, expiresAt);
+        }
+        revocationCheckingJwtDecoder = securityConfig.jwtDecoder(new RevokedTokenValidator(tokenRevocationService));
+    }
+
+    @Benchmark
+    public Jwt decode() {
+        return jwtDecoder.decode(token);
+    }
+
+    @Benchmark
+    public Jwt decodeWithRevocationCheck() {
+        return revocationCheckingJwtDecoder.decode(token);
+    }
+
+    @Benchmark
+    public Jwt decodeUncached() {
+        return uncachedJwtDecoder.decode(token);
+    }
+
+    /**
+     * Creates an HMAC-SHA256 signed token valid for one hour, as issued by the identity service.
+     *
+     * @param signingKey the shared signing key
+     * @param subject the user ID
+     * @return the serialized token
+     * @throws JOSEException if signing fails
+     */
+    static String signToken(String signingKey, String subject) throws JOSEException {
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+                .subject(subject)
+                .issueTime(new Date())
+                .expirationTime(Date.from(Instant.now().plus(1, ChronoUnit.HOURS)))
+                .build();
+        SignedJWT jwt = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), claims);
+        jwt.sign(new MACSigner(signingKey.getBytes(StandardCharsets.UTF_8)));
+        return jwt.serialize();
+    }
+}
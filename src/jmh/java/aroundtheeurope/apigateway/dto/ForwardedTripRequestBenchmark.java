@@ -0,0 +1,51 @@
+package aroundtheeurope.apigateway.dto;
+
+import aroundtheeurope.apigateway.configuration.ObjectMapperConfig;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building a ForwardedTripRequestDTO from the validated TripRequestDTO
+ * and serialising it to JSON as done on the enqueue path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ForwardedTripRequestBenchmark {
+
+    private static final String USER_ID = "5f0c1c0e-8c4e-4d0a-9a43-2f6a0d8f4b1e";
+
+    private TripRequestDTO tripRequestDTO;
+    private ForwardedTripRequestDTO forwardedTripRequestDTO;
+    private ObjectWriter writer;
+
+    @Setup
+    public void setUp() {
+        tripRequestDTO = new TripRequestDTO();
+        tripRequestDTO.setOrigin("BTS");
+        tripRequestDTO.setDestination("VIE");
+        tripRequestDTO.setDepartureAt("2024-10-10T00:00:00");
+        tripRequestDTO.setReturnBefore("2024-10-20T00:00:00");
+        tripRequestDTO.setBudget(300);
+        tripRequestDTO.setExcludedAirports(List.of("BUD", "PRG", "KRK"));
+        forwardedTripRequestDTO = new ForwardedTripRequestDTO(tripRequestDTO, USER_ID);
+        writer = new ObjectMapperConfig().internalObjectMapper().writerFor(ForwardedTripRequestDTO.class);
+    }
+
+    @Benchmark
+    public ForwardedTripRequestDTO copyConstruct() {
+        return new ForwardedTripRequestDTO(tripRequestDTO, USER_ID);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws JsonProcessingException {
+        return writer.writeValueAsBytes(forwardedTripRequestDTO);
+    }
+}
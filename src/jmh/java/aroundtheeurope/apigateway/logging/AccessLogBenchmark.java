@@ -0,0 +1,97 @@
+package aroundtheeurope.apigateway.logging;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.FileAppender;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-request cost of writing an access log line from many request threads at once,
+ * comparing the asynchronous appender set up in logback-spring.xml with a synchronous, autoflushing
+ * PrintStream like System.out, which the forwarder used to print to.
+ * Both write to a temporary file, so the console does not skew the results.
+ * Like in production, the asynchronous appender drops lines while its queue is full instead of blocking.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class AccessLogBenchmark {
+
+    private Path directory;
+    private PrintStream printStream;
+    private LoggerContext loggerContext;
+    private Logger asyncLogger;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("access-log-benchmark");
+        printStream = new PrintStream(new FileOutputStream(directory.resolve("stdout.log").toFile()), true);
+
+        loggerContext = new LoggerContext();
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(loggerContext);
+        encoder.setPattern("%msg%n");
+        encoder.start();
+
+        FileAppender<ILoggingEvent> fileAppender = new FileAppender<>();
+        fileAppender.setContext(loggerContext);
+        fileAppender.setFile(directory.resolve("access.log").toString());
+        fileAppender.setImmediateFlush(false);
+        fileAppender.setEncoder(encoder);
+        fileAppender.start();
+
+        AsyncAppender asyncAppender = new AsyncAppender();
+        asyncAppender.setContext(loggerContext);
+        asyncAppender.setQueueSize(8192);
+        asyncAppender.setDiscardingThreshold(0);
+        asyncAppender.setNeverBlock(true);
+        asyncAppender.addAppender(fileAppender);
+        asyncAppender.start();
+
+        asyncLogger = loggerContext.getLogger("gateway.access");
+        asyncLogger.setAdditive(false);
+        asyncLogger.addAppender(asyncAppender);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        loggerContext.stop();
+        printStream.close();
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public void synchronousPrint() {
+        printStream.println("Forwarded request: http://localhost:60001/api/v1/trips?userId=5f0c1c0e-8c4e-4d0a-9a43-2f6a0d8f4b1e");
+    }
+
+    @Benchmark
+    public void asyncAccessLog() {
+        asyncLogger.info(line());
+    }
+
+    private static String line() {
+        return AccessLogger.format(Instant.now(), "trips", "GET", "/gateway/api/v1/trips", 200, 18_342,
+                "localhost:60001", 12_345_678, 13_456_789, "9f86d081884c7d65");
+    }
+}
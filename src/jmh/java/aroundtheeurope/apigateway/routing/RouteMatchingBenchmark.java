@@ -0,0 +1,92 @@
+package aroundtheeurope.apigateway.routing;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.server.PathContainer;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of finding the route of a request in a table of a few hundred routes,
+ * comparing the compiled RouteTable with a linear scan over Spring's PathPatterns.
+ * The looked-up paths sit at the end of the table, the worst case for the scan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteMatchingBenchmark {
+
+    private static final String UPSTREAM_URL = "http://localhost:60001";
+
+    @Param({"10", "100", "300"})
+    private int routeCount;
+
+    private RouteTable routeTable;
+    private List<PathPattern> pathPatterns;
+    private String literalPath;
+    private String variablePath;
+
+    @Setup
+    public void setUp() {
+        List<RouteDefinition> routes = new ArrayList<>(routeCount);
+        for (int i = 0; i < routeCount / 2; i++) {
+            routes.add(route("items-" + i, "/gateway/api/v1/service" + i + "/items", "/api/v1/items"));
+            routes.add(route("item-" + i, "/gateway/api/v1/service" + i + "/items/{itemId}", "/api/v1/items/{itemId}"));
+        }
+        routeTable = new RouteTable(routes, upstream -> UPSTREAM_URL);
+
+        PathPatternParser parser = new PathPatternParser();
+        pathPatterns = new ArrayList<>(routes.size());
+        for (RouteDefinition route : routes) {
+            pathPatterns.add(parser.parse(route.path()));
+        }
+
+        int last = routeCount / 2 - 1;
+        literalPath = "/gateway/api/v1/service" + last + "/items";
+        variablePath = "/gateway/api/v1/service" + last + "/items/5f0c1c0e-8c4e-4d0a-9a43-2f6a0d8f4b1e";
+    }
+
+    @Benchmark
+    public RouteMatch routeTableLiteral() {
+        return routeTable.match("GET", literalPath);
+    }
+
+    @Benchmark
+    public RouteMatch routeTableVariable() {
+        return routeTable.match("GET", variablePath);
+    }
+
+    @Benchmark
+    public PathPattern.PathMatchInfo linearScanLiteral() {
+        return scan(literalPath);
+    }
+
+    @Benchmark
+    public PathPattern.PathMatchInfo linearScanVariable() {
+        return scan(variablePath);
+    }
+
+    /**
+     * Helper method to find the first matching pattern the way a list of handler mappings would.
+     */
+    private PathPattern.PathMatchInfo scan(String path) {
+        PathContainer pathContainer = PathContainer.parsePath(path);
+        for (PathPattern pattern : pathPatterns) {
+            PathPattern.PathMatchInfo matchInfo = pattern.matchAndExtract(pathContainer);
+            if (matchInfo != null) {
+                return matchInfo;
+            }
+        }
+        return null;
+    }
+
+    private static RouteDefinition route(String id, String path, String rewrite) {
+        return new RouteDefinition(id, "GET", path, "trip-service", rewrite, false, true, null, null, null);
+    }
+}
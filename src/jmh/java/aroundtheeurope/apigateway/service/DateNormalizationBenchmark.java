@@ -0,0 +1,46 @@
+package aroundtheeurope.apigateway.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the hand-rolled date normalisation in TripRequestValidator with the previous
+ * implementation, which parsed with LocalDateTime and used a caught exception to detect date-only input.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateNormalizationBenchmark {
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+
+    @Param({"2024-10-10", "2024-10-10T08:30:00", "2024-13-45"})
+    public String date;
+
+    @Benchmark
+    public String handRolled() {
+        return TripRequestValidator.normalizeDate(date);
+    }
+
+    @Benchmark
+    public String exceptionDriven() {
+        try {
+            LocalDateTime.parse(date, DATE_TIME_FORMATTER);
+        } catch (DateTimeParseException e) {
+            try {
+                LocalDateTime.parse(date + "T00:00:00", DATE_TIME_FORMATTER);
+                return date + "T00:00:00";
+            } catch (DateTimeParseException e2) {
+                return null;
+            }
+        }
+        return date;
+    }
+}
@@ -0,0 +1,52 @@
+package aroundtheeurope.apigateway.service;
+
+import aroundtheeurope.apigateway.dto.TripRequestDTO;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures TripRequestValidator.validateAndSetDefaults for date-only input (the common case
+ * from our clients) and for input that already carries a time component.
+ * The validator normalises the DTO in place, so every call first restores the raw input, which takes a few
+ * field writes; resetOnly measures that part alone. A per-invocation setup would cost more than the call measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TripRequestValidatorBenchmark {
+
+    @Param({"2024-10-10", "2024-10-10T08:30:00"})
+    public String departureAt;
+
+    private TripRequestValidator validator;
+    private TripRequestDTO request;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        validator = new TripRequestValidator();
+        request = new TripRequestDTO();
+    }
+
+    @Benchmark
+    public TripRequestDTO validateAndSetDefaults() {
+        return validator.validateAndSetDefaults(resetRequest());
+    }
+
+    @Benchmark
+    public TripRequestDTO resetOnly() {
+        return resetRequest();
+    }
+
+    private TripRequestDTO resetRequest() {
+        request.setOrigin("BTS");
+        request.setDestination(null);
+        request.setDepartureAt(departureAt);
+        request.setReturnBefore("2024-10-20");
+        request.setBudget(300);
+        return request;
+    }
+}
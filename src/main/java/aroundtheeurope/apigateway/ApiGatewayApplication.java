@@ -3,12 +3,14 @@ package aroundtheeurope.apigateway;
 import aroundtheeurope.apigateway.sideFunctions.EnvPropertyLoader;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * The main class for the API Gateway application.
  * This class serves as the entry point for the Spring Boot application and handles the initialization process.
  */
 @SpringBootApplication
+@EnableScheduling
 public class ApiGatewayApplication {
 
     // Static block that loads environment-specific properties before the application starts.
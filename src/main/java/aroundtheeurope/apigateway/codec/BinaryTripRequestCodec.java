@@ -0,0 +1,122 @@
+package aroundtheeurope.apigateway.codec;
+
+import aroundtheeurope.apigateway.dto.ForwardedTripRequestDTO;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary trip request codec.
+ * Fields are written in a fixed order after a version byte: strings as a presence flag
+ * followed by modified UTF-8, numbers in their fixed-width big-endian form
+ * and the excluded airports as a count followed by the codes.
+ */
+@Component
+public class BinaryTripRequestCodec implements TripRequestCodec {
+
+    public static final String CONTENT_TYPE = "application/x-trip-request";
+
+    private static final byte VERSION = 1;
+
+    @Override
+    public String contentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public byte[] encode(ForwardedTripRequestDTO request) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeByte(VERSION);
+        writeString(out, request.getUserId());
+        writeString(out, request.getOrigin());
+        writeString(out, request.getDestination());
+        writeString(out, request.getDepartureAt());
+        writeString(out, request.getReturnBefore());
+        out.writeDouble(request.getBudget());
+        out.writeInt(request.getMaxStay());
+        out.writeInt(request.getMinStay());
+        out.writeBoolean(request.isSchengenOnly());
+        out.writeInt(request.getTimeLimitSeconds());
+
+        List<String> excludedAirports = request.getExcludedAirports();
+        if (excludedAirports == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(excludedAirports.size());
+            for (String airport : excludedAirports) {
+                writeString(out, airport);
+            }
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public ForwardedTripRequestDTO decode(byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported trip request encoding version " + version);
+        }
+
+        ForwardedTripRequestDTO request = new ForwardedTripRequestDTO();
+        request.setUserId(readString(in));
+        request.setOrigin(readString(in));
+        request.setDestination(readString(in));
+        request.setDepartureAt(readString(in));
+        request.setReturnBefore(readString(in));
+        request.setBudget(in.readDouble());
+        request.setMaxStay(in.readInt());
+        request.setMinStay(in.readInt());
+        request.setSchengenOnly(in.readBoolean());
+        request.setTimeLimitSeconds(in.readInt());
+
+        int excludedCount = in.readInt();
+        if (excludedCount < 0) {
+            request.setExcludedAirports(null);
+        } else {
+            List<String> excludedAirports = new ArrayList<>(excludedCount);
+            for (int i = 0; i < excludedCount; i++) {
+                excludedAirports.add(readString(in));
+            }
+            request.setExcludedAirports(excludedAirports);
+        }
+
+        return request;
+    }
+
+    /**
+     * Helper method to write a nullable string.
+     *
+     * @param out the stream to write to
+     * @param value the string to write (can be null)
+     * @throws IOException if writing fails
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    /**
+     * Helper method to read a nullable string.
+     *
+     * @param in the stream to read from
+     * @return the string read, or null if it was absent
+     * @throws IOException if reading fails
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,50 @@
+package aroundtheeurope.apigateway.codec;
+
+import aroundtheeurope.apigateway.dto.ForwardedTripRequestDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * JSON trip request codec.
+ * Kept as the fallback format so messages from and to older gateway versions stay readable.
+ * The reader and writer are bound to ForwardedTripRequestDTO once, so no type lookup happens per message.
+ */
+@Component
+public class JsonTripRequestCodec implements TripRequestCodec {
+
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+
+    /**
+     * Constructor for JsonTripRequestCodec, autowiring the internal ObjectMapper.
+     *
+     * @param objectMapper the ObjectMapper for serializing and deserializing JSON data
+     */
+    @Autowired
+    public JsonTripRequestCodec(@Qualifier("internalObjectMapper") ObjectMapper objectMapper) {
+        this.reader = objectMapper.readerFor(ForwardedTripRequestDTO.class);
+        this.writer = objectMapper.writerFor(ForwardedTripRequestDTO.class);
+    }
+
+    @Override
+    public String contentType() {
+        return MediaType.APPLICATION_JSON_VALUE;
+    }
+
+    @Override
+    public byte[] encode(ForwardedTripRequestDTO request) throws IOException {
+        return writer.writeValueAsBytes(request);
+    }
+
+    @Override
+    public ForwardedTripRequestDTO decode(byte[] body) throws IOException {
+        return reader.readValue(body);
+    }
+}
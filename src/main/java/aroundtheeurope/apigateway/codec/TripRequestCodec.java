@@ -0,0 +1,36 @@
+package aroundtheeurope.apigateway.codec;
+
+import aroundtheeurope.apigateway.dto.ForwardedTripRequestDTO;
+
+import java.io.IOException;
+
+/**
+ * Wire format of trip requests travelling through the "tripRequestQueue".
+ * Each codec is identified by the content type it writes into the message properties,
+ * so consumers can decode messages produced by any gateway version.
+ */
+public interface TripRequestCodec {
+
+    /**
+     * @return the content type written into and matched against the message properties
+     */
+    String contentType();
+
+    /**
+     * Encodes the trip request into a message body.
+     *
+     * @param request the trip request to encode
+     * @return the encoded message body
+     * @throws IOException if the request cannot be encoded
+     */
+    byte[] encode(ForwardedTripRequestDTO request) throws IOException;
+
+    /**
+     * Decodes a message body into a trip request.
+     *
+     * @param body the encoded message body
+     * @return the decoded trip request
+     * @throws IOException if the body is not a valid encoding
+     */
+    ForwardedTripRequestDTO decode(byte[] body) throws IOException;
+}
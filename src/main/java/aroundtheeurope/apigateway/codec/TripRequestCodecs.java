@@ -0,0 +1,68 @@
+package aroundtheeurope.apigateway.codec;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the available trip request codecs.
+ * Producers encode with the codec selected by "gateway.trip-queue.codec",
+ * consumers pick the codec matching the message content type and fall back to JSON.
+ * New messages are JSON by default, so consumers that only read JSON keep working during a rolling deploy;
+ * the binary codec is enabled once every consumer reads both.
+ */
+@Component
+public class TripRequestCodecs {
+
+    private final Map<String, TripRequestCodec> codecsByContentType = new HashMap<>();
+    private final TripRequestCodec encoder;
+    private final TripRequestCodec fallback;
+
+    /**
+     * Constructor for TripRequestCodecs, autowiring all codec beans.
+     *
+     * @param codecs all available codecs
+     * @param jsonCodec the JSON codec used as the fallback decoder
+     * @param encoding the codec used for new messages, either "binary" or "json"
+     */
+    @Autowired
+    public TripRequestCodecs(
+            List<TripRequestCodec> codecs,
+            JsonTripRequestCodec jsonCodec,
+            @Value("${gateway.trip-queue.codec:json}") String encoding
+    ) {
+        for (TripRequestCodec codec : codecs) {
+            codecsByContentType.put(codec.contentType(), codec);
+        }
+        this.fallback = jsonCodec;
+        this.encoder = "binary".equalsIgnoreCase(encoding) ? codecsByContentType.get(BinaryTripRequestCodec.CONTENT_TYPE) : jsonCodec;
+    }
+
+    /**
+     * @return the codec used to encode new messages
+     */
+    public TripRequestCodec encoder() {
+        return encoder;
+    }
+
+    /**
+     * Resolves the codec for a received message.
+     *
+     * @param contentType the content type from the message properties (can be null)
+     * @return the matching codec, or the JSON codec if none matches
+     */
+    public TripRequestCodec decoderFor(String contentType) {
+        if (contentType == null) {
+            return fallback;
+        }
+        // Ignore content type parameters such as the charset
+        int parametersStart = contentType.indexOf(';');
+        String mimeType = parametersStart >= 0 ? contentType.substring(0, parametersStart) : contentType;
+        TripRequestCodec codec = codecsByContentType.get(mimeType.trim());
+        return codec != null ? codec : fallback;
+    }
+}
@@ -2,40 +2,37 @@ package aroundtheeurope.apigateway.configuration;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.web.servlet.config.annotation.CorsRegistry;
-import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.cors.CorsConfiguration;
+import org.springframework.web.cors.CorsConfigurationSource;
+import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
+
+import java.util.List;
 
 /**
  * Configuration class to set up CORS (Cross-Origin Resource Sharing) for the application.
  * This configuration ensures that the API can be accessed from specified origins with the specified methods, headers, and credentials.
+ * The rules are applied by the security filter chain, so they cover controllers and routed requests alike.
  */
 @Configuration
 public class CorsConfig {
 
     /**
      * Bean to configure global CORS settings. This applies to all endpoints in the application.
+     * It sets up CORS for all paths ("/**") and allows requests from a specific origin,
+     * with specified methods, headers, and credentials.
      *
-     * @return a WebMvcConfigurer with custom CORS mappings
+     * @return the CORS configuration source picked up by the security filter chain
      */
     @Bean
-    public WebMvcConfigurer corsConfigurer() {
-        return new WebMvcConfigurer() {
+    public CorsConfigurationSource corsConfigurationSource() {
+        CorsConfiguration configuration = new CorsConfiguration();
+        configuration.setAllowedOrigins(List.of("http://localhost:4200"));
+        configuration.setAllowedMethods(List.of("GET", "POST", "PUT", "DELETE", "OPTIONS"));
+        configuration.setAllowedHeaders(List.of("*"));
+        configuration.setAllowCredentials(true);
 
-            /**
-             * Override the addCorsMappings method to define CORS rules.
-             * This method sets up CORS for all paths ("/**") and allows requests from a specific origin,
-             * with specified methods, headers, and credentials.
-             *
-             * @param registry the CorsRegistry to add CORS mappings to
-             */
-            @Override
-            public void addCorsMappings(CorsRegistry registry) {
-                registry.addMapping("/**")
-                        .allowedOrigins("http://localhost:4200")
-                        .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")
-                        .allowedHeaders("*")
-                        .allowCredentials(true);
-            }
-        };
+        UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
+        source.registerCorsConfiguration("/**", configuration);
+        return source;
     }
 }
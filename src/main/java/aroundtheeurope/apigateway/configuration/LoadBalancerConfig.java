@@ -0,0 +1,87 @@
+package aroundtheeurope.apigateway.configuration;
+
+import aroundtheeurope.apigateway.loadbalancer.LoadBalancingStrategy;
+import aroundtheeurope.apigateway.loadbalancer.UpstreamLoadBalancer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Configuration class for client-side load balancing over upstream instances.
+ * An upstream lists its instances in "<upstream>.instances"; without it, its single URL is the only instance.
+ * The upstream's own URL stays the logical address controllers build their target URLs from.
+ */
+@Configuration
+public class LoadBalancerConfig {
+
+    @Value("${trip-service.url}")
+    private String tripServiceUrl;
+    @Value("${identity-service.url}")
+    private String identityServiceUrl;
+
+    /**
+     * Creates the load balancer for the identity and trip services.
+     *
+     * @param environment the environment holding the per-upstream settings
+     * @return the load balancer bean
+     */
+    @Bean
+    public UpstreamLoadBalancer upstreamLoadBalancer(Environment environment) {
+        UpstreamLoadBalancer upstreamLoadBalancer = new UpstreamLoadBalancer();
+        register(upstreamLoadBalancer, environment, ResilienceConfig.IDENTITY_SERVICE, identityServiceUrl);
+        register(upstreamLoadBalancer, environment, ResilienceConfig.TRIP_SERVICE, tripServiceUrl);
+        // Searches run for minutes, so they are balanced separately and do not skew the latency of other calls
+        upstreamLoadBalancer.register(
+                ResilienceConfig.TRIP_SEARCH,
+                null,
+                instanceUrls(environment, ResilienceConfig.TRIP_SERVICE, tripServiceUrl),
+                LoadBalancingStrategy.of(environment.getProperty(
+                        ResilienceConfig.TRIP_SEARCH + ".load-balancing.strategy", "least-outstanding")),
+                environment.getProperty(ResilienceConfig.TRIP_SEARCH + ".load-balancing.ejection.consecutive-failures", Integer.class, 5),
+                environment.getProperty(ResilienceConfig.TRIP_SEARCH + ".load-balancing.ejection.duration", Duration.class, Duration.ofSeconds(30)),
+                environment.getProperty(ResilienceConfig.TRIP_SERVICE + ".load-balancing.health-check.path", ""),
+                environment.getProperty(ResilienceConfig.TRIP_SERVICE + ".load-balancing.health-check.interval", Duration.class, Duration.ofSeconds(10))
+        );
+        return upstreamLoadBalancer;
+    }
+
+    /**
+     * Lists the instance URLs of an upstream, falling back to its single URL.
+     * Shared with RestTemplateConfig, which sizes the connection pool per instance.
+     *
+     * @param environment the environment holding the settings
+     * @param upstream the upstream name, used as the property prefix
+     * @param url the upstream's own URL
+     * @return the instance URLs
+     */
+    static List<String> instanceUrls(Environment environment, String upstream, String url) {
+        String[] instances = environment.getProperty(upstream + ".instances", String[].class);
+        return instances == null || instances.length == 0 ? List.of(url) : List.of(instances);
+    }
+
+    /**
+     * Helper method to register an upstream with its configured instances and balancing settings.
+     *
+     * @param loadBalancer the load balancer
+     * @param environment the environment holding the settings
+     * @param upstream the upstream name, used as the property prefix
+     * @param url the upstream's logical URL
+     */
+    private static void register(UpstreamLoadBalancer loadBalancer, Environment environment, String upstream, String url) {
+        String prefix = upstream + ".load-balancing.";
+        loadBalancer.register(
+                upstream,
+                url,
+                instanceUrls(environment, upstream, url),
+                LoadBalancingStrategy.of(environment.getProperty(prefix + "strategy", "power-of-two-choices")),
+                environment.getProperty(prefix + "ejection.consecutive-failures", Integer.class, 5),
+                environment.getProperty(prefix + "ejection.duration", Duration.class, Duration.ofSeconds(30)),
+                environment.getProperty(prefix + "health-check.path", ""),
+                environment.getProperty(prefix + "health-check.interval", Duration.class, Duration.ofSeconds(10))
+        );
+    }
+}
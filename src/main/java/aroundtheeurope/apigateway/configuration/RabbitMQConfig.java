@@ -1,32 +1,116 @@
 package aroundtheeurope.apigateway.configuration;
 
-import aroundtheeurope.apigateway.dto.ForwardedTripRequestDTO;
+import aroundtheeurope.apigateway.listener.TripRequestListener;
+import aroundtheeurope.apigateway.queue.QueueShards;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.Declarables;
 import org.springframework.amqp.core.Queue;
-import org.springframework.amqp.support.converter.ClassMapper;
-import org.springframework.amqp.support.converter.DefaultClassMapper;
-import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
-import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareMessageListener;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Configuration class for RabbitMQ setup.
- * This configuration defines the queue used for trip request forwarding.
+ * This configuration defines the queues used for trip request forwarding, one per queue shard,
+ * and the listener containers that drain them.
  */
 @Configuration
 public class RabbitMQConfig {
 
     /**
-     * Declares a persistent queue named "tripRequestQueue".
-     * This queue is used to store and forward trip requests.
+     * The queue trip request messages are moved to when they cannot be processed, for inspection and replay.
+     * The listener moves them itself, so the shard queues keep their declaration arguments.
+     */
+    public static final String DEAD_LETTER_QUEUE = "tripRequestQueue.dead";
+
+    @Value("${gateway.trip-listener.concurrency:4}")
+    private int concurrentConsumers;
+    @Value("${gateway.trip-listener.max-concurrency:16}")
+    private int maxConcurrentConsumers;
+    @Value("${gateway.trip-listener.prefetch:2}")
+    private int prefetchCount;
+
+    /**
+     * Declares a persistent queue for every queue shard: "tripRequestQueue", "tripRequestQueue.1", and so on.
+     * These queues are used to store and forward trip requests. Each shard also gets a delay queue without
+     * consumers ("tripRequestQueue.delay", ...), whose messages are dead-lettered back into the shard's queue
+     * once their expiration has passed, so failed requests are retried later without blocking a consumer.
+     * The dead letter queue is declared with them.
+     *
+     * @param queueShards the shards of the trip request queue
+     * @return the queue declarations bean
+     */
+    @Bean
+    public Declarables tripRequestQueues(QueueShards queueShards) {
+        List<Queue> queues = new ArrayList<>();
+        for (int shard = 0; shard < queueShards.count(); shard++) {
+            queues.add(new Queue(queueShards.rabbitQueue(shard), true));
+            queues.add(QueueBuilder.durable(queueShards.delayQueue(shard))
+                    .deadLetterExchange("")
+                    .deadLetterRoutingKey(queueShards.rabbitQueue(shard))
+                    .build());
+        }
+        queues.add(new Queue(DEAD_LETTER_QUEUE, true));
+        return new Declarables(queues);
+    }
+
+    /**
+     * Registers a listener container per queue shard, so the shards are consumed independently.
+     * All containers hand their messages to the same TripRequestListener.
+     *
+     * @param queueShards the shards of the trip request queue
+     * @param tripRequestListener processes the trip requests
+     * @param tripRequestListenerContainerFactory creates the containers
+     * @return the listener configurer bean
+     */
+    @Bean
+    public RabbitListenerConfigurer tripRequestListenerConfigurer(
+            QueueShards queueShards,
+            TripRequestListener tripRequestListener,
+            SimpleRabbitListenerContainerFactory tripRequestListenerContainerFactory
+    ) {
+        return registrar -> {
+            for (int shard = 0; shard < queueShards.count(); shard++) {
+                SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+                endpoint.setId("tripRequestListener-" + shard);
+                endpoint.setQueueNames(queueShards.rabbitQueue(shard));
+                endpoint.setMessageListener((ChannelAwareMessageListener) tripRequestListener::processTripRequest);
+                registrar.registerEndpoint(endpoint, tripRequestListenerContainerFactory);
+            }
+        };
+    }
+
+    /**
+     * Configures the listener container factory used for the trip request queues.
+     * Consumers of each shard scale between the configured concurrency bounds, each holds at most
+     * the prefetch count of unacknowledged messages, and messages are acknowledged manually
+     * once the trip service has accepted the request.
      *
-     * @return the queue bean
+     * @param configurer applies the Spring Boot defaults (virtual threads, retry, converters)
+     * @param connectionFactory the RabbitMQ connection factory
+     * @return the listener container factory bean
      */
     @Bean
-    public Queue tripRequestQueue() {
-        return new Queue("tripRequestQueue", true);
+    public SimpleRabbitListenerContainerFactory tripRequestListenerContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory
+    ) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setConcurrentConsumers(concurrentConsumers);
+        factory.setMaxConcurrentConsumers(maxConcurrentConsumers);
+        factory.setPrefetchCount(prefetchCount);
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        return factory;
     }
 }
@@ -1,11 +1,21 @@
 package aroundtheeurope.apigateway.configuration;
 
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnection;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettucePoolingClientConfiguration;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.time.Duration;
 
 /**
  * Configuration class for Redis setup.
@@ -14,19 +24,60 @@ import org.springframework.data.redis.listener.ChannelTopic;
 @Configuration
 public class RedisConfig {
 
+    @Value("${spring.data.redis.host:localhost}")
+    private String host;
+    @Value("${spring.data.redis.port:6379}")
+    private int port;
+    @Value("${spring.data.redis.password:}")
+    private String password;
+    @Value("${spring.data.redis.timeout:2s}")
+    private Duration commandTimeout;
+    @Value("${spring.data.redis.lettuce.pool.max-active:16}")
+    private int poolMaxActive;
+    @Value("${spring.data.redis.lettuce.pool.max-idle:16}")
+    private int poolMaxIdle;
+    @Value("${spring.data.redis.lettuce.pool.min-idle:2}")
+    private int poolMinIdle;
+    @Value("${spring.data.redis.lettuce.pool.max-wait:1s}")
+    private Duration poolMaxWait;
+
     /**
      * Creates a LettuceConnectionFactory for connecting to the Redis server.
+     * Plain commands from all threads share one native connection, which Lettuce multiplexes.
+     * Pipelines, transactions and blocking commands need a connection of their own
+     * and borrow it from a pool instead of opening a new one each time.
+     * Pipelined commands are flushed to the socket together when the pipeline is closed.
      *
      * @return the Redis connection factory bean
      */
     @Bean
     public RedisConnectionFactory redisConnectionFactory() {
-        return new LettuceConnectionFactory();
+        RedisStandaloneConfiguration server = new RedisStandaloneConfiguration(host, port);
+        if (!password.isEmpty()) {
+            server.setPassword(password);
+        }
+
+        GenericObjectPoolConfig<?> poolConfig = new GenericObjectPoolConfig<>();
+        poolConfig.setMaxTotal(poolMaxActive);
+        poolConfig.setMaxIdle(poolMaxIdle);
+        poolConfig.setMinIdle(poolMinIdle);
+        poolConfig.setMaxWait(poolMaxWait);
+
+        LettucePoolingClientConfiguration clientConfig = LettucePoolingClientConfiguration.builder()
+                .commandTimeout(commandTimeout)
+                .poolConfig(poolConfig)
+                .build();
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(server, clientConfig);
+        connectionFactory.setShareNativeConnection(true);
+        connectionFactory.setPipeliningFlushPolicy(LettuceConnection.PipeliningFlushPolicy.flushOnClose());
+        return connectionFactory;
     }
 
     /**
      * Configures a RedisTemplate for interacting with Redis.
      * This template is used to perform Redis operations.
+     * Keys and values are stored as plain UTF-8 strings, so other services can read them
+     * (see RedisKeyMigration for keys written before).
      *
      * @param redisConnectionFactory the connection factory to be used by the template
      * @return the Redis template bean
@@ -35,9 +86,45 @@ public class RedisConfig {
     public RedisTemplate<String, String> redisTemplate(RedisConnectionFactory redisConnectionFactory) {
         RedisTemplate<String, String> redisTemplate = new RedisTemplate<>();
         redisTemplate.setConnectionFactory(redisConnectionFactory);
+        redisTemplate.setKeySerializer(StringRedisSerializer.UTF_8);
+        redisTemplate.setValueSerializer(StringRedisSerializer.UTF_8);
+        redisTemplate.setHashKeySerializer(StringRedisSerializer.UTF_8);
+        redisTemplate.setHashValueSerializer(StringRedisSerializer.UTF_8);
         return redisTemplate;
     }
 
+    /**
+     * Configures a StringRedisTemplate for gateway state shared between nodes.
+     * Keys and values are stored as plain UTF-8 strings.
+     *
+     * @param redisConnectionFactory the connection factory to be used by the template
+     * @return the string Redis template bean
+     */
+    @Bean
+    public StringRedisTemplate stringRedisTemplate(RedisConnectionFactory redisConnectionFactory) {
+        return new StringRedisTemplate(redisConnectionFactory);
+    }
+
+    /**
+     * Creates the container that dispatches Redis pub/sub messages to the gateway's listeners.
+     * Listeners register their channels themselves. The container does not start with the context, so the gateway
+     * starts without Redis; RedisSubscriptionStarter subscribes once the application is ready.
+     *
+     * @param redisConnectionFactory the connection factory to be used by the container
+     * @return the message listener container bean
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory redisConnectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer() {
+            @Override
+            public boolean isAutoStartup() {
+                return false;
+            }
+        };
+        container.setConnectionFactory(redisConnectionFactory);
+        return container;
+    }
+
     /**
      * Defines a Redis topic named "tripRequestQueue".
      * This topic is used to publish and subscribe to messages related to trip requests.
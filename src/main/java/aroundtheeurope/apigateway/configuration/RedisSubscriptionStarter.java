@@ -0,0 +1,72 @@
+package aroundtheeurope.apigateway.configuration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Component starting the Redis pub/sub listener container once the application is ready.
+ * Subscribing during context startup would fail the whole gateway when Redis is down, so the subscription is
+ * retried in the background instead; messages published before it succeeds are not received.
+ * Once subscribed, the container recovers lost connections itself.
+ */
+@Component
+public class RedisSubscriptionStarter {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisSubscriptionStarter.class);
+
+    private final RedisMessageListenerContainer redisMessageListenerContainer;
+    private boolean failing;
+
+    /**
+     * Constructor for RedisSubscriptionStarter, autowiring necessary components.
+     *
+     * @param redisMessageListenerContainer the container holding the gateway's pub/sub listeners
+     */
+    @Autowired
+    public RedisSubscriptionStarter(RedisMessageListenerContainer redisMessageListenerContainer) {
+        this.redisMessageListenerContainer = redisMessageListenerContainer;
+    }
+
+    /**
+     * Subscribes the registered listeners when the application is ready.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        subscribe();
+    }
+
+    /**
+     * Subscribes the registered listeners unless they are already listening.
+     * A failed attempt stops the container again, so the next attempt starts it from scratch.
+     */
+    @Scheduled(
+            initialDelayString = "${gateway.redis.subscribe-retry-ms:10000}",
+            fixedDelayString = "${gateway.redis.subscribe-retry-ms:10000}"
+    )
+    public synchronized void subscribe() {
+        if (redisMessageListenerContainer.isListening()) {
+            return;
+        }
+        try {
+            redisMessageListenerContainer.start();
+            if (failing) {
+                log.info("Subscribed to Redis pub/sub");
+            }
+            failing = false;
+        } catch (RuntimeException e) {
+            redisMessageListenerContainer.stop();
+            if (!failing) {
+                log.warn("Could not subscribe to Redis pub/sub, retrying in the background: {}", e.getMessage());
+            } else {
+                log.debug("Could not subscribe to Redis pub/sub", e);
+            }
+            failing = true;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package aroundtheeurope.apigateway.configuration;
+
+import aroundtheeurope.apigateway.resilience.UpstreamGuard;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.time.Duration;
+
+/**
+ * Configuration class for the circuit breakers and bulkheads guarding upstream calls.
+ * Every upstream is configured under its own property prefix, e.g. "trip-service.circuit-breaker.*"
+ * and "trip-service.bulkhead.*". Queued trip searches get a guard of their own, because they are
+ * expected to run far longer than the trip service's other calls.
+ */
+@Configuration
+public class ResilienceConfig {
+
+    public static final String IDENTITY_SERVICE = "identity-service";
+    public static final String TRIP_SERVICE = "trip-service";
+    public static final String TRIP_SEARCH = "trip-service.search";
+
+    @Value("${trip-service.url}")
+    private String tripServiceUrl;
+    @Value("${identity-service.url}")
+    private String identityServiceUrl;
+
+    /**
+     * Creates the guard with a circuit breaker and a bulkhead for every upstream.
+     *
+     * @param environment the environment holding the per-upstream settings
+     * @return the upstream guard bean
+     */
+    @Bean
+    public UpstreamGuard upstreamGuard(Environment environment) {
+        UpstreamGuard upstreamGuard = new UpstreamGuard();
+        upstreamGuard.register(IDENTITY_SERVICE, identityServiceUrl,
+                circuitBreakerConfig(environment, IDENTITY_SERVICE), bulkheadConfig(environment, IDENTITY_SERVICE));
+        upstreamGuard.register(TRIP_SERVICE, tripServiceUrl,
+                circuitBreakerConfig(environment, TRIP_SERVICE), bulkheadConfig(environment, TRIP_SERVICE));
+        // Only used explicitly by the trip request listener, so it is not matched by URL
+        upstreamGuard.register(TRIP_SEARCH, null,
+                circuitBreakerConfig(environment, TRIP_SEARCH), bulkheadConfig(environment, TRIP_SEARCH));
+        return upstreamGuard;
+    }
+
+    /**
+     * Exposes the circuit breaker state, failure and slow call rates as Micrometer meters.
+     *
+     * @param upstreamGuard the upstream guard
+     * @return the meter binder bean
+     */
+    @Bean
+    public MeterBinder circuitBreakerMetrics(UpstreamGuard upstreamGuard) {
+        return TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(upstreamGuard.getCircuitBreakers());
+    }
+
+    /**
+     * Exposes the available and maximum concurrent calls of the bulkheads as Micrometer gauges.
+     *
+     * @param upstreamGuard the upstream guard
+     * @return the meter binder bean
+     */
+    @Bean
+    public MeterBinder bulkheadMetrics(UpstreamGuard upstreamGuard) {
+        return TaggedBulkheadMetrics.ofBulkheadRegistry(upstreamGuard.getBulkheads());
+    }
+
+    /**
+     * Helper method to build the circuit breaker settings of an upstream.
+     *
+     * @param environment the environment holding the settings
+     * @param upstream the upstream name, used as the property prefix
+     * @return the circuit breaker config
+     */
+    private static CircuitBreakerConfig circuitBreakerConfig(Environment environment, String upstream) {
+        String prefix = upstream + ".circuit-breaker.";
+        return CircuitBreakerConfig.custom()
+                .slidingWindowType(CircuitBreakerConfig.SlidingWindowType.COUNT_BASED)
+                .slidingWindowSize(environment.getProperty(prefix + "sliding-window-size", Integer.class, 50))
+                .minimumNumberOfCalls(environment.getProperty(prefix + "minimum-number-of-calls", Integer.class, 20))
+                .failureRateThreshold(environment.getProperty(prefix + "failure-rate-threshold", Float.class, 50f))
+                .slowCallRateThreshold(environment.getProperty(prefix + "slow-call-rate-threshold", Float.class, 80f))
+                .slowCallDurationThreshold(environment.getProperty(prefix + "slow-call-duration", Duration.class, Duration.ofSeconds(5)))
+                .waitDurationInOpenState(environment.getProperty(prefix + "wait-in-open-state", Duration.class, Duration.ofSeconds(30)))
+                .permittedNumberOfCallsInHalfOpenState(environment.getProperty(prefix + "half-open-calls", Integer.class, 5))
+                .automaticTransitionFromOpenToHalfOpenEnabled(true)
+                .build();
+    }
+
+    /**
+     * Helper method to build the bulkhead settings of an upstream.
+     * Calls never wait for a free slot, a full bulkhead refuses them at once.
+     *
+     * @param environment the environment holding the settings
+     * @param upstream the upstream name, used as the property prefix
+     * @return the bulkhead config
+     */
+    private static BulkheadConfig bulkheadConfig(Environment environment, String upstream) {
+        return BulkheadConfig.custom()
+                .maxConcurrentCalls(environment.getProperty(upstream + ".bulkhead.max-concurrent-calls", Integer.class, 100))
+                .maxWaitDuration(Duration.ZERO)
+                .build();
+    }
+}
@@ -1,27 +1,206 @@
 package aroundtheeurope.apigateway.configuration;
 
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
+import java.net.URI;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
  * Configuration class for RestTemplate.
- * This configuration customizes RestTemplate with a custom error handler to pass through all HTTP responses.
+ * This configuration backs RestTemplate with a pooled, keep-alive Apache HttpClient
+ * and customizes it with a custom error handler to pass through all HTTP responses.
  */
 @Configuration
 public class RestTemplateConfig {
 
+    @Value("${trip-service.url}")
+    private String tripServiceUrl;
+    @Value("${identity-service.url}")
+    private String identityServiceUrl;
+
+    @Value("${gateway.http.max-connections:400}")
+    private int maxConnections;
+    @Value("${gateway.http.max-connections-per-route:50}")
+    private int maxConnectionsPerRoute;
+    @Value("${gateway.http.connection-request-timeout-ms:2000}")
+    private long connectionRequestTimeoutMs;
+    @Value("${gateway.http.connect-timeout-ms:2000}")
+    private long connectTimeoutMs;
+    @Value("${gateway.http.read-timeout-ms:30000}")
+    private long readTimeoutMs;
+    @Value("${gateway.http.keep-alive-seconds:60}")
+    private long keepAliveSeconds;
+    @Value("${gateway.http.idle-eviction-seconds:30}")
+    private long idleEvictionSeconds;
+
+    @Value("${trip-service.http.max-connections:200}")
+    private int tripServiceMaxConnections;
+    @Value("${trip-service.http.connect-timeout-ms:2000}")
+    private long tripServiceConnectTimeoutMs;
+    @Value("${trip-service.http.read-timeout-ms:600000}")
+    private long tripServiceReadTimeoutMs;
+
+    @Value("${identity-service.http.max-connections:100}")
+    private int identityServiceMaxConnections;
+    @Value("${identity-service.http.connect-timeout-ms:2000}")
+    private long identityServiceConnectTimeoutMs;
+    @Value("${identity-service.http.read-timeout-ms:10000}")
+    private long identityServiceReadTimeoutMs;
+
+    /**
+     * Creates the connection pool shared by all outgoing HTTP calls.
+     * Every instance of both upstream services gets the upstream's per-route limit and timeouts,
+     * any other host falls back to the default per-route limit.
+     *
+     * @param environment the environment listing the upstream instances
+     * @return the pooling connection manager bean
+     */
+    @Bean
+    public PoolingHttpClientConnectionManager httpConnectionManager(Environment environment) {
+        Set<HttpRoute> tripServiceRoutes = routesOf(
+                LoadBalancerConfig.instanceUrls(environment, ResilienceConfig.TRIP_SERVICE, tripServiceUrl));
+        Set<HttpRoute> identityServiceRoutes = routesOf(
+                LoadBalancerConfig.instanceUrls(environment, ResilienceConfig.IDENTITY_SERVICE, identityServiceUrl));
+
+        ConnectionConfig defaultConfig = connectionConfig(connectTimeoutMs, readTimeoutMs);
+        ConnectionConfig tripServiceConfig = connectionConfig(tripServiceConnectTimeoutMs, tripServiceReadTimeoutMs);
+        ConnectionConfig identityServiceConfig = connectionConfig(identityServiceConnectTimeoutMs, identityServiceReadTimeoutMs);
+
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .build();
+
+        // Per-upstream timeouts, resolved once per leased connection
+        connectionManager.setConnectionConfigResolver(route -> {
+            if (tripServiceRoutes.contains(route)) {
+                return tripServiceConfig;
+            }
+            if (identityServiceRoutes.contains(route)) {
+                return identityServiceConfig;
+            }
+            return defaultConfig;
+        });
+
+        // Per-upstream pool sizing
+        tripServiceRoutes.forEach(route -> connectionManager.setMaxPerRoute(route, tripServiceMaxConnections));
+        identityServiceRoutes.forEach(route -> connectionManager.setMaxPerRoute(route, identityServiceMaxConnections));
+
+        return connectionManager;
+    }
+
+    /**
+     * Creates the Apache HttpClient used by RestTemplate.
+     * Connections are kept alive between requests and idle or expired ones are evicted in the background.
+     * Content compression is disabled: the client neither asks for compressed bodies on its own nor decodes them,
+     * so an upstream body encoded for the client's Accept-Encoding is passed through as it is.
+     *
+     * @param httpConnectionManager the pooling connection manager
+     * @return the HTTP client bean
+     */
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient httpClient(PoolingHttpClientConnectionManager httpConnectionManager) {
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.ofMilliseconds(connectionRequestTimeoutMs))
+                .setConnectionKeepAlive(TimeValue.ofSeconds(keepAliveSeconds))
+                .build();
+
+        return HttpClients.custom()
+                .setConnectionManager(httpConnectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofSeconds(idleEvictionSeconds))
+                .disableContentCompression()
+                .build();
+    }
+
     /**
-     * Configures a RestTemplate bean with a custom error handler.
+     * Configures a RestTemplate bean with the pooled HTTP client and a custom error handler.
      * The error handler allows all HTTP responses to be treated as successful.
      *
+     * @param httpClient the pooled HTTP client
      * @return the RestTemplate bean
      */
     @Bean
-    public RestTemplate restTemplate() {
-        RestTemplate restTemplate = new RestTemplate();
+    public RestTemplate restTemplate(CloseableHttpClient httpClient) {
+        RestTemplate restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
         restTemplate.setErrorHandler(new PassThroughResponseErrorHandler());
         return restTemplate;
     }
-}
 
+    /**
+     * Exposes the connection pool state (leased, pending, available, max) as Micrometer gauges.
+     *
+     * @param httpConnectionManager the pooling connection manager
+     * @return the meter binder bean
+     */
+    @Bean
+    public MeterBinder httpConnectionPoolMetrics(PoolingHttpClientConnectionManager httpConnectionManager) {
+        return new PoolingHttpClientConnectionManagerMetricsBinder(httpConnectionManager, "upstream");
+    }
+
+    /**
+     * Helper method to build the pool routes of an upstream's instances.
+     *
+     * @param urls the instance base URLs
+     * @return the routes used as keys in the connection pool
+     */
+    private static Set<HttpRoute> routesOf(List<String> urls) {
+        Set<HttpRoute> routes = new HashSet<>();
+        for (String url : urls) {
+            routes.add(routeOf(url.trim()));
+        }
+        return routes;
+    }
+
+    /**
+     * Helper method to build the pool route of an upstream base URL.
+     * The port is resolved explicitly because the client normalizes routes the same way.
+     *
+     * @param url the upstream base URL
+     * @return the route used as a key in the connection pool
+     */
+    private static HttpRoute routeOf(String url) {
+        URI uri = URI.create(url);
+        int port = uri.getPort();
+        boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+        if (port == -1) {
+            port = secure ? 443 : 80;
+        }
+        return new HttpRoute(new HttpHost(uri.getScheme(), uri.getHost(), port), null, secure);
+    }
+
+    /**
+     * Helper method to build connection settings for an upstream.
+     *
+     * @param connectTimeoutMs the connect timeout in milliseconds
+     * @param readTimeoutMs the socket read timeout in milliseconds
+     * @return the connection config
+     */
+    private ConnectionConfig connectionConfig(long connectTimeoutMs, long readTimeoutMs) {
+        return ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                .setSocketTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                .build();
+    }
+}
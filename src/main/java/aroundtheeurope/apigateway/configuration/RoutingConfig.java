@@ -0,0 +1,39 @@
+package aroundtheeurope.apigateway.configuration;
+
+import aroundtheeurope.apigateway.routing.RouteDispatchFilter;
+import aroundtheeurope.apigateway.routing.RouteTableLoader;
+import aroundtheeurope.apigateway.service.RequestForwardingService;
+import aroundtheeurope.apigateway.service.ResponseCacheService;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configuration class for the declarative route table.
+ * Routes are read from the file at "gateway.routes.location" and dispatched by a servlet filter
+ * placed right behind the security filter chain.
+ */
+@Configuration
+public class RoutingConfig {
+
+    /**
+     * Registers the filter forwarding routed requests, ordered after the security filter chain.
+     *
+     * @param routeTableLoader keeps the current route table
+     * @param requestForwardingService forwards requests to the upstreams
+     * @param responseCacheService serves routes backed by the response cache
+     * @return the filter registration bean
+     */
+    @Bean
+    public FilterRegistrationBean<RouteDispatchFilter> routeDispatchFilter(
+            RouteTableLoader routeTableLoader,
+            RequestForwardingService requestForwardingService,
+            ResponseCacheService responseCacheService
+    ) {
+        FilterRegistrationBean<RouteDispatchFilter> registration = new FilterRegistrationBean<>(
+                new RouteDispatchFilter(routeTableLoader, requestForwardingService, responseCacheService));
+        registration.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER + 1);
+        return registration;
+    }
+}
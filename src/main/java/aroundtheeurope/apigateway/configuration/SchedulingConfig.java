@@ -0,0 +1,69 @@
+package aroundtheeurope.apigateway.configuration;
+
+import aroundtheeurope.apigateway.queue.PriorityClassPolicy;
+import aroundtheeurope.apigateway.queue.SchedulingPolicy;
+import aroundtheeurope.apigateway.queue.ShortestJobFirstPolicy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Configuration class for the policy ordering queued trip requests for dispatch.
+ * Several policies can be listed, their delays are added up; the sum is capped by the maximum delay.
+ */
+@Configuration
+public class SchedulingConfig {
+
+    @Value("${gateway.scheduler.policy:shortest-job-first}")
+    private List<String> policyNames;
+    @Value("${gateway.scheduler.max-delay:10m}")
+    private Duration maxDelay;
+    @Value("${gateway.scheduler.priority.weights:high=4,normal=2,low=1}")
+    private List<String> priorityWeights;
+    @Value("${gateway.scheduler.priority.default-class:normal}")
+    private String defaultPriorityClass;
+    @Value("${gateway.scheduler.priority.horizon:2m}")
+    private Duration priorityHorizon;
+    @Value("${gateway.scheduler.shortest-job-first.delay-per-second:2s}")
+    private Duration delayPerTimeLimitSecond;
+
+    /**
+     * Creates the configured scheduling policy.
+     *
+     * @return the scheduling policy bean
+     */
+    @Bean
+    public SchedulingPolicy schedulingPolicy() {
+        List<SchedulingPolicy> policies = new ArrayList<>();
+        for (String name : policyNames) {
+            policies.add(switch (name.trim()) {
+                case "fifo" -> SchedulingPolicy.FIFO;
+                case "priority" -> new PriorityClassPolicy(weights(), defaultPriorityClass, priorityHorizon);
+                case "shortest-job-first" -> new ShortestJobFirstPolicy(delayPerTimeLimitSecond);
+                default -> throw new IllegalArgumentException("Unknown scheduling policy: " + name);
+            });
+        }
+        return SchedulingPolicy.combine(policies).capped(maxDelay);
+    }
+
+    /**
+     * Helper method to parse the priority class weights, given as "class=weight" entries.
+     */
+    private Map<String, Double> weights() {
+        Map<String, Double> weights = new HashMap<>();
+        for (String priorityWeight : priorityWeights) {
+            int separator = priorityWeight.indexOf('=');
+            if (separator > 0) {
+                weights.put(priorityWeight.substring(0, separator).trim(),
+                        Double.parseDouble(priorityWeight.substring(separator + 1).trim()));
+            }
+        }
+        return weights;
+    }
+}
@@ -1,16 +1,29 @@
 package aroundtheeurope.apigateway.configuration;
 
+import aroundtheeurope.apigateway.logging.AccessLogFilter;
+import aroundtheeurope.apigateway.logging.AccessLogger;
+import aroundtheeurope.apigateway.routing.RouteTableLoader;
+import aroundtheeurope.apigateway.security.CachingJwtDecoder;
+import aroundtheeurope.apigateway.security.RateLimitFilter;
+import aroundtheeurope.apigateway.security.RateLimiterService;
+import jakarta.servlet.DispatcherType;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
+import org.springframework.boot.actuate.health.HealthEndpoint;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
-import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.core.OAuth2TokenValidator;
+import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+import org.springframework.security.oauth2.server.resource.web.authentication.BearerTokenAuthenticationFilter;
 import org.springframework.security.web.SecurityFilterChain;
 
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
+import java.time.Duration;
 
 /**
  * Security configuration class for the API Gateway.
@@ -21,23 +34,50 @@ public class SecurityConfig {
 
     @Value("${jwt.secret}")
     private String signingKey;
+    @Value("${gateway.jwt-cache.max-entries:10000}")
+    private long jwtCacheMaxEntries;
+    @Value("${gateway.jwt-cache.max-ttl:5m}")
+    private Duration jwtCacheMaxTtl;
+    @Value("${gateway.management.authority:SCOPE_gateway:admin}")
+    private String managementAuthority;
 
     /**
      * Configures the security filter chain for HTTP requests.
      * It disables CSRF protection and sets up authorization rules for different endpoints.
+     * Request rates are limited right after the bearer token is authenticated,
+     * and every request reaching bearer token authentication is written to the access log.
+     * Routes of the route table marked as not authenticated are open to everyone.
+     * Actuator endpoints other than health, which can read metrics and force circuit breakers open,
+     * need the management authority, also from localhost.
+     * CORS is applied here, so it also covers routed requests that never reach Spring MVC.
+     * Async dispatches, e.g. of server-sent event streams, were authorized when the stream was opened.
      *
      * @param http the HttpSecurity object used to configure security settings
+     * @param jwtDecoder the decoder verifying bearer tokens
+     * @param rateLimiterService the service limiting request rates per client
+     * @param routeTableLoader keeps the route table telling which routes are public
+     * @param accessLogger writes the access log
      * @return the SecurityFilterChain bean
      * @throws Exception if an error occurs during configuration
      */
     @Bean
-    public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain securityFilterChain(
+            HttpSecurity http,
+            CachingJwtDecoder jwtDecoder,
+            RateLimiterService rateLimiterService,
+            RouteTableLoader routeTableLoader,
+            AccessLogger accessLogger
+    ) throws Exception {
         http
                 .csrf(AbstractHttpConfigurer::disable)
+                .cors(Customizer.withDefaults())
                 .authorizeHttpRequests(authorizeRequests ->
                         authorizeRequests
-                                .requestMatchers("/gateway/api/v1/login").permitAll()
-                                .requestMatchers("/gateway/api/v1/register").permitAll()
+                                .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
+                                .requestMatchers(EndpointRequest.to(HealthEndpoint.class)).permitAll()
+                                .requestMatchers(EndpointRequest.toAnyEndpoint()).hasAuthority(managementAuthority)
+                                .requestMatchers(request -> routeTableLoader.getRouteTable()
+                                        .isPublic(request.getMethod(), request.getRequestURI())).permitAll()
                                 .requestMatchers(request -> {
                                     String remoteAddr = request.getRemoteAddr();
                                     return "127.0.0.1".equals(remoteAddr) || "::1".equals(remoteAddr);
@@ -45,20 +85,27 @@ public class SecurityConfig {
                                 .anyRequest().authenticated()
                 )
                 .oauth2ResourceServer(oauth2 -> oauth2.jwt(
-                        jwt -> jwt.decoder(jwtDecoder())
-                ));
+                        jwt -> jwt.decoder(jwtDecoder)
+                ))
+                .addFilterBefore(new AccessLogFilter(accessLogger), BearerTokenAuthenticationFilter.class)
+                .addFilterAfter(new RateLimitFilter(rateLimiterService), BearerTokenAuthenticationFilter.class);
         return http.build();
     }
 
     /**
      * Configures the JwtDecoder to decode JWT tokens using the HMAC SHA-256 algorithm.
      * The signing key is provided via configuration.
+     * Decoded tokens are cached until they expire, but no longer than the maximum TTL,
+     * so a reused token is verified only once in that time.
+     * Revoked tokens are rejected on every call, cached or not.
      *
+     * @param revokedTokenValidator the validator rejecting tokens revoked on logout
      * @return the JwtDecoder bean
      */
     @Bean
-    public JwtDecoder jwtDecoder(){
+    public CachingJwtDecoder jwtDecoder(OAuth2TokenValidator<Jwt> revokedTokenValidator){
         SecretKey key = new SecretKeySpec(signingKey.getBytes(), "HmacSHA256");
-        return NimbusJwtDecoder.withSecretKey(key).build();
+        return new CachingJwtDecoder(NimbusJwtDecoder.withSecretKey(key).build(), revokedTokenValidator,
+                jwtCacheMaxEntries, jwtCacheMaxTtl);
     }
 }
@@ -2,6 +2,8 @@ package aroundtheeurope.apigateway.controller;
 
 import aroundtheeurope.apigateway.dto.LogoutRequest;
 import aroundtheeurope.apigateway.dto.RefreshRequestDTO;
+import aroundtheeurope.apigateway.security.CachingJwtDecoder;
+import aroundtheeurope.apigateway.security.TokenRevocationService;
 import aroundtheeurope.apigateway.service.RequestForwardingService;
 import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,7 +16,8 @@ import org.springframework.web.bind.annotation.*;
 
 /**
  * Controller for handling identity-related requests.
- * This includes user registration, login, token refresh, and logout.
+ * This includes token refresh and logout; registration and login are plain
+ * forwards served by the route table (see routes.json).
  */
 @RestController
 @RequestMapping("/gateway/api/v1/")
@@ -24,39 +27,25 @@ public class IdentityServiceController {
     private String identityServiceUrl;
 
     private final RequestForwardingService requestForwardingService;
+    private final CachingJwtDecoder jwtDecoder;
+    private final TokenRevocationService tokenRevocationService;
 
     /**
      * Constructor for IdentityServiceController, autowiring the RequestForwardingService.
      *
      * @param requestForwardingService forwards requests to the identity service
+     * @param jwtDecoder the decoder whose cache has to forget tokens on logout
+     * @param tokenRevocationService revokes tokens on all gateway nodes on logout
      */
     @Autowired
-    public IdentityServiceController(RequestForwardingService requestForwardingService) {
+    public IdentityServiceController(
+            RequestForwardingService requestForwardingService,
+            CachingJwtDecoder jwtDecoder,
+            TokenRevocationService tokenRevocationService
+    ) {
         this.requestForwardingService = requestForwardingService;
-    }
-
-    /**
-     * Endpoint to forward registration requests to the identity service.
-     *
-     * @param request the HttpServletRequest object
-     * @return a ResponseEntity with the result of the registration
-     */
-    @PostMapping("/register")
-    public ResponseEntity<?> register(HttpServletRequest request) {
-        String targetUrl = identityServiceUrl + "/api/v1/register";
-        return requestForwardingService.forwardRequest(request, targetUrl, HttpMethod.POST, null);
-    }
-
-    /**
-     * Endpoint to forward login requests to the identity service.
-     *
-     * @param request the HttpServletRequest object
-     * @return a ResponseEntity with the result of the login
-     */
-    @PostMapping("/login")
-    public ResponseEntity<?> login(HttpServletRequest request) {
-        String targetUrl = identityServiceUrl + "/api/v1/login";
-        return requestForwardingService.forwardRequest(request, targetUrl, HttpMethod.POST, null);
+        this.jwtDecoder = jwtDecoder;
+        this.tokenRevocationService = tokenRevocationService;
     }
 
     /**
@@ -80,6 +69,7 @@ public class IdentityServiceController {
 
     /**
      * Endpoint to log out the user by invalidating the JWT token in the identity service.
+     * The token is also revoked on every gateway node and evicted from the decoded-token cache.
      *
      * @param jwt the JWT token to be invalidated
      * @param request the HttpServletRequest object
@@ -90,6 +80,8 @@ public class IdentityServiceController {
             @AuthenticationPrincipal Jwt jwt,
             HttpServletRequest request
     ) {
+        tokenRevocationService.revoke(jwt);
+        jwtDecoder.evict(jwt.getTokenValue());
         LogoutRequest logoutRequest = new LogoutRequest(jwt.getTokenValue());
         String targetUrl = identityServiceUrl + "/api/v1/logout";
         return requestForwardingService.forwardRequest(request, targetUrl, HttpMethod.POST, logoutRequest);
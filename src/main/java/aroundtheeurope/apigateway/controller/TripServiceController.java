@@ -2,52 +2,52 @@ package aroundtheeurope.apigateway.controller;
 
 import aroundtheeurope.apigateway.dto.ForwardedTripRequestDTO;
 import aroundtheeurope.apigateway.dto.TripRequestDTO;
-import aroundtheeurope.apigateway.service.RequestForwardingService;
+import aroundtheeurope.apigateway.service.PositionStreamService;
 import aroundtheeurope.apigateway.service.TripRequestService;
 import aroundtheeurope.apigateway.service.TripRequestValidator;
-import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.web.bind.annotation.*;
-
-import java.util.UUID;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 /**
  * Controller for handling trip-related requests.
- * This includes queuing, deleting, and retrieving trip requests.
+ * This includes queuing, deleting, and retrieving the queue position of trip requests.
+ * Plain reads forwarded to the trip service are served by the route table (see routes.json).
  */
 @RestController
 @RequestMapping("/gateway/api/v1/trips")
 public class TripServiceController {
 
-    @Value("${trip-service.url}")
-    private String tripServiceUrl;
+    @Value("${gateway.scheduler.priority.claim:priority}")
+    private String priorityClaim;
 
     private final TripRequestService tripRequestService;
-    private final RequestForwardingService requestForwardingService;
     private final TripRequestValidator tripRequestValidator;
+    private final PositionStreamService positionStreamService;
 
     /**
      * Constructor for TripServiceController, autowiring required services.
      *
      * @param tripRequestService handles trip-related operations like queuing and deleting requests
-     * @param requestForwardingService forwards requests to the trip service
      * @param tripRequestValidator validates trip requests and sets default values
+     * @param positionStreamService pushes queue position changes to subscribed users
      */
     @Autowired
     public TripServiceController(
             TripRequestService tripRequestService,
-            RequestForwardingService requestForwardingService,
-            TripRequestValidator tripRequestValidator
+            TripRequestValidator tripRequestValidator,
+            PositionStreamService positionStreamService
     ) {
         this.tripRequestService = tripRequestService;
-        this.requestForwardingService = requestForwardingService;
         this.tripRequestValidator = tripRequestValidator;
+        this.positionStreamService = positionStreamService;
     }
 
     /**
@@ -55,7 +55,7 @@ public class TripServiceController {
      * The request is validated and then sent to the queue for further processing.
      *
      * @param tripRequestDTO the trip request data transfer object
-     * @param jwt the JWT token used to extract the user ID
+     * @param jwt the JWT token used to extract the user ID and their priority class
      * @return a ResponseEntity indicating success or failure of the request
      */
     @PostMapping
@@ -68,7 +68,7 @@ public class TripServiceController {
         }
 
         ForwardedTripRequestDTO forwardedTripRequestDTO = new ForwardedTripRequestDTO(tripRequestDTO, userId);
-        return tripRequestService.queueTripRequest(forwardedTripRequestDTO, userId);
+        return tripRequestService.queueTripRequest(forwardedTripRequestDTO, userId, jwt.getClaimAsString(priorityClaim));
     }
 
     /**
@@ -96,73 +96,19 @@ public class TripServiceController {
     }
 
     /**
-     * Endpoint to retrieve all user's requests
+     * Endpoint to subscribe to the position of the authenticated user's trip request as server-sent events.
+     * A "position" event is sent whenever the position changes, and a final "dequeued" event
+     * once the request has left the queue.
      *
      * @param jwt the JWT token used to extract the user ID
-     * @param request the HttpServletRequest object
-     * @return ResponseEntity containing requests made by the user
+     * @return a ResponseEntity with the event stream, or 503 if this node has no room for another stream
      */
-    @GetMapping("/requests")
-    public ResponseEntity<String> getRequests(
-            @AuthenticationPrincipal Jwt jwt,
-            HttpServletRequest request
-    ){
-        String userId = jwt.getSubject();
-        String targetUrl = tripServiceUrl + "/api/v1/trips/requests" + "?userId=" + userId;
-
-        return requestForwardingService.forwardRequest(request, targetUrl, HttpMethod.GET, null);
-    }
-
-
-    /**
-     * Endpoint to retrieve the search results on specific request
-     *
-     * @param requestId unique identified of previous request
-     * @param request the HttpServletRequest object
-     * @return ResponseEntity containing results on the provided request
-     */
-    @GetMapping("/{requestId}")
-    public ResponseEntity<String> getTripsByRequestId(
-            @PathVariable UUID requestId,
-            HttpServletRequest request
-            ){
-        String targetUrl = tripServiceUrl + "/api/v1/trips/" + requestId;
-
-        return requestForwardingService.forwardRequest(request, targetUrl, HttpMethod.GET, null);
-    }
-
-    /**
-     * Endpoint to retrieve all trips associated with the authenticated user or a specific request ID.
-     *
-     * @param jwt the JWT token used to extract the user ID
-     * @param request the HttpServletRequest object
-     * @return a ResponseEntity with the trips data
-     */
-    @GetMapping
-    public ResponseEntity<String> getTripsByUserId(
-            @AuthenticationPrincipal Jwt jwt,
-            HttpServletRequest request
-    ) {
-        String userId = jwt.getSubject();
-        String targetUrl = tripServiceUrl + "/api/v1/trips" + "?userId=" + userId;
-
-        return requestForwardingService.forwardRequest(request, targetUrl, HttpMethod.GET, null);
-    }
-
-    /**
-     * Endpoint to retrieve a preview of trips associated with the authenticated user.
-     *
-     * @param jwt the JWT token used to extract the user ID
-     * @param request the HttpServletRequest object
-     * @return a ResponseEntity with the trips preview data
-     */
-    @GetMapping("/preview")
-    public ResponseEntity<?> getTripsPreviewByUserId(
-            @AuthenticationPrincipal Jwt jwt,
-            HttpServletRequest request
-    ) {
-        String userId = jwt.getSubject();
-        String targetUrl = tripServiceUrl + "/api/v1/trips/preview" + "?userId=" + userId;
-        return requestForwardingService.forwardRequest(request, targetUrl, HttpMethod.GET, null);
+    @GetMapping(value = "/position/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamTripPosition(@AuthenticationPrincipal Jwt jwt) {
+        SseEmitter emitter = positionStreamService.subscribe(jwt.getSubject());
+        if (emitter == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        return ResponseEntity.ok(emitter);
     }
 }
@@ -0,0 +1,28 @@
+package aroundtheeurope.apigateway.controller;
+
+import aroundtheeurope.apigateway.resilience.UpstreamUnavailableException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+/**
+ * Translates refused upstream calls into 503 Service Unavailable responses for all controllers.
+ */
+@RestControllerAdvice
+public class UpstreamExceptionHandler {
+
+    /**
+     * Answers a call refused by an upstream's circuit breaker or bulkhead.
+     *
+     * @param e the exception describing the refused call
+     * @return a 503 response with a Retry-After header
+     */
+    @ExceptionHandler(UpstreamUnavailableException.class)
+    public ResponseEntity<String> handleUpstreamUnavailable(UpstreamUnavailableException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString((e.getRetryAfterMillis() + 999) / 1000))
+                .body(e.getMessage());
+    }
+}
@@ -1,82 +1,331 @@
 package aroundtheeurope.apigateway.listener;
 
+import aroundtheeurope.apigateway.codec.TripRequestCodecs;
+import aroundtheeurope.apigateway.configuration.RabbitMQConfig;
+import aroundtheeurope.apigateway.configuration.ResilienceConfig;
 import aroundtheeurope.apigateway.dto.ForwardedTripRequestDTO;
+import aroundtheeurope.apigateway.loadbalancer.UpstreamLoadBalancer;
+import aroundtheeurope.apigateway.queue.QueueShards;
+import aroundtheeurope.apigateway.queue.TripRequestScheduler;
+import aroundtheeurope.apigateway.resilience.UpstreamGuard;
+import aroundtheeurope.apigateway.resilience.UpstreamUnavailableException;
 import aroundtheeurope.apigateway.service.NotificationService;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import aroundtheeurope.apigateway.service.QueueMembershipCache;
+import aroundtheeurope.apigateway.service.ResponseCacheService;
+import com.rabbitmq.client.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.dao.DataAccessException;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.function.Predicate;
+
 /**
  * Listener class for processing trip requests from the RabbitMQ queue.
- * The listener listens to the "tripRequestQueue", processes the requests, and interacts with external services.
+ * The listener consumes every shard of the trip request queue (see RabbitMQConfig), processes the requests,
+ * and interacts with external services.
  */
 @Service
 public class TripRequestListener {
 
+    private static final Logger log = LoggerFactory.getLogger(TripRequestListener.class);
+    private static final long MAX_BACKOFF_MS = 5000;
+    private static final String RETRY_HEADER = "x-retry";
+    private static final String FAILURE_HEADER = "x-failure";
+    private static final String SOURCE_QUEUE_HEADER = "x-source-queue";
+
     @Value("${trip-service.url}")
     private String baseUrl;
     @Value("${trip-service.trips.path}")
     private String tripsPath;
 
     private final RestTemplate restTemplate;
-    private final RedisTemplate<String, String> redisTemplate;
+    private final RabbitTemplate rabbitTemplate;
     private final NotificationService notificationService;
-    private final ObjectMapper objectMapper;
+    private final TripRequestCodecs tripRequestCodecs;
+    private final ResponseCacheService responseCacheService;
+    private final UpstreamGuard upstreamGuard;
+    private final UpstreamLoadBalancer upstreamLoadBalancer;
+    private final QueueMembershipCache queueMembershipCache;
+    private final TripRequestScheduler tripRequestScheduler;
+    private final QueueShards queueShards;
+    private final Semaphore inFlightRequests;
+    private final int maxRetries;
+    private final long retryDelayMillis;
 
     /**
      * Constructor for TripRequestListener, autowiring necessary services and components.
      *
      * @param restTemplate the RestTemplate for making HTTP requests to the trip service
-     * @param redisTemplate the RedisTemplate for interacting with Redis (to check the validity of requests)
+     * @param rabbitTemplate the RabbitTemplate moving failed messages to the delay and dead letter queues
      * @param notificationService the service used for notifying users about request processing status
-     * @param objectMapper the ObjectMapper for serializing and deserializing JSON data
+     * @param tripRequestCodecs the codecs for decoding trip request messages
+     * @param responseCacheService the response cache invalidated once a user's request is processed
+     * @param upstreamGuard the guard pausing consumption while the trip service is failing
+     * @param upstreamLoadBalancer the load balancer picking the trip service instance of each search
+     * @param queueMembershipCache the near-cache answering repeated checks that a request is still queued
+     * @param tripRequestScheduler the scheduler the processed requests are removed from
+     * @param queueShards the shards of the trip request queue, each with a delay queue for retries
+     * @param maxInFlightRequests the maximum number of concurrent calls to the trip service
+     * @param maxRetries how often a failing request is retried before it is given up
+     * @param retryDelay how long a failed request waits in the delay queue before it is retried
      */
     @Autowired
     public TripRequestListener(
             RestTemplate restTemplate,
-            RedisTemplate<String, String> redisTemplate,
+            RabbitTemplate rabbitTemplate,
             NotificationService notificationService,
-            ObjectMapper objectMapper
+            TripRequestCodecs tripRequestCodecs,
+            ResponseCacheService responseCacheService,
+            UpstreamGuard upstreamGuard,
+            UpstreamLoadBalancer upstreamLoadBalancer,
+            QueueMembershipCache queueMembershipCache,
+            TripRequestScheduler tripRequestScheduler,
+            QueueShards queueShards,
+            @Value("${gateway.trip-listener.max-in-flight:16}") int maxInFlightRequests,
+            @Value("${gateway.trip-listener.max-retries:1}") int maxRetries,
+            @Value("${gateway.trip-listener.retry-delay:2s}") Duration retryDelay
     ) {
         this.restTemplate = restTemplate;
-        this.redisTemplate = redisTemplate;
+        this.rabbitTemplate = rabbitTemplate;
         this.notificationService = notificationService;
-        this.objectMapper = objectMapper;
+        this.tripRequestCodecs = tripRequestCodecs;
+        this.responseCacheService = responseCacheService;
+        this.upstreamGuard = upstreamGuard;
+        this.upstreamLoadBalancer = upstreamLoadBalancer;
+        this.queueMembershipCache = queueMembershipCache;
+        this.tripRequestScheduler = tripRequestScheduler;
+        this.queueShards = queueShards;
+        this.inFlightRequests = new Semaphore(maxInFlightRequests);
+        this.maxRetries = maxRetries;
+        this.retryDelayMillis = retryDelay.toMillis();
     }
 
     /**
-     * Method that listens to the "tripRequestQueue" and processes incoming trip requests.
-     * The request is deserialized, validated against the Redis store, sent to the trip service,
-     * and finally, the request is removed from the Redis sorted set.
+     * Method that processes the trip requests of all queue shards.
+     * A request is checked against the current shard of its user, whichever queue delivered it, and copies of
+     * an earlier dispatch of the same queue entry are dropped, so a redispatched request is sent only once.
+     * The request is decoded with the codec matching the message content type, validated against the Redis store, sent to the trip service,
+     * and finally, the request is removed from the queue shard's sorted set.
+     * The message is acknowledged only after the trip service call has completed. A failed request is moved
+     * to its shard's delay queue, which hands it back after the retry delay, with its retry count in a header;
+     * once its retries are used up, it is moved to the dead letter queue together with its queue entry.
+     * While the trip service's circuit breaker is open, messages are not sent at all: they wait in the delay
+     * queue until the breaker may let calls through again, without using up a retry.
+     * The consumer thread never sleeps, so other shards and requests keep flowing meanwhile.
+     * Every message is settled whatever goes wrong: messages that cannot be decoded are moved to the dead
+     * letter queue at once, and failures for any other reason (Redis being unavailable, for one) are retried the same way.
      *
-     * @param serializedRequest the serialized JSON string representing the trip request
+     * @param message the received message carrying the encoded trip request
+     * @param channel the channel the message was delivered on, used for manual acknowledgement
+     * @throws IOException if the acknowledgement cannot be sent to the broker
      */
-    @RabbitListener(queues = "tripRequestQueue")
-    public void processTripRequest(String serializedRequest) {
+    public void processTripRequest(Message message, Channel channel) throws IOException {
+        MessageProperties properties = message.getMessageProperties();
+
         ForwardedTripRequestDTO request;
         try{
-             request = objectMapper.readValue(serializedRequest, ForwardedTripRequestDTO.class);
+             request = tripRequestCodecs.decoderFor(properties.getContentType()).decode(message.getBody());
         }
         catch (Exception e){
+            log.warn("Moving an undecodable trip request to {}", RabbitMQConfig.DEAD_LETTER_QUEUE, e);
+            deadLetter(message, null, e, channel);
             return;
         }
-        // Check if the request is still valid by checking its presence in the sorted set
-        if (redisTemplate.opsForZSet().score("tripRequestQueueSet", request.getUserId()) == null) {
+
+        try {
+            forwardTripRequest(request, message, channel);
+        } catch (RuntimeException e) {
+            retryOrGiveUp(message, request.getUserId(), e, channel);
+        }
+    }
+
+    /**
+     * Helper method to send a decoded request to the trip service and settle its message.
+     * Any runtime exception is thrown before the message is settled.
+     */
+    private void forwardTripRequest(ForwardedTripRequestDTO request, Message message, Channel channel) throws IOException {
+        long deliveryTag = message.getMessageProperties().getDeliveryTag();
+        // Check if the request is still valid by checking its presence in the sorted set,
+        // answered locally for requests coming back from the delay queue while the trip service was unavailable
+        if (!queueMembershipCache.isQueued(request.getUserId()) || !isLatestRelease(request.getUserId(), message)) {
+            channel.basicAck(deliveryTag, false);
             return;
         }
 
-        String targetURL = baseUrl + tripsPath;
-        restTemplate.postForEntity(targetURL, request, String.class);
+        URI targetURI = URI.create(baseUrl + tripsPath);
+        try {
+            // Limit the number of requests the trip service has to handle at once
+            inFlightRequests.acquire();
+            try {
+                Predicate<ResponseEntity<String>> isServerError = r -> r.getStatusCode().is5xxServerError();
+                ResponseEntity<String> response = upstreamGuard.call(ResilienceConfig.TRIP_SEARCH,
+                        () -> upstreamLoadBalancer.execute(ResilienceConfig.TRIP_SEARCH, targetURI,
+                                target -> restTemplate.postForEntity(target, request, String.class),
+                                isServerError),
+                        isServerError);
+                if (response.getStatusCode().is5xxServerError()) {
+                    throw new RestClientException("Trip service responded with " + response.getStatusCode());
+                }
+            } finally {
+                inFlightRequests.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            channel.basicNack(deliveryTag, false, true);
+            return;
+        } catch (UpstreamUnavailableException e) {
+            // Wait in the delay queue instead of spinning through the queue, the request keeps its retries
+            delay(message, request.getUserId(), retries(message), Math.min(e.getRetryAfterMillis(), MAX_BACKOFF_MS), channel);
+            return;
+        } catch (RestClientException e) {
+            retryOrGiveUp(message, request.getUserId(), e, channel);
+            return;
+        }
 
         // Remove the processed request from the sorted set
-        redisTemplate.opsForZSet().remove("tripRequestQueueSet", request.getUserId());
+        tripRequestScheduler.remove(request.getUserId());
+        queueMembershipCache.invalidate(request.getUserId());
+        channel.basicAck(deliveryTag, false);
+
+        // The user's trips and requests changed, drop their cached responses on all nodes
+        try {
+            responseCacheService.invalidateUser(request.getUserId());
+        } catch (DataAccessException e) {
+            log.warn("Failed to invalidate the cached responses of user {}", request.getUserId(), e);
+        }
 
 //        // Notify the user upon completion
 //        notificationService.notifyUser(request.getUserId(), "Request processed successfully for user "
 //                + request.getUserId());
     }
+
+    /**
+     * Helper method to tell whether a message is the copy of the latest release of its user's queue entry.
+     * The scheduler releases entries again if they stay in the queue too long, so an earlier copy may still be
+     * on its way; it carries an older score than the entry has now. A mismatch with the cached score is checked
+     * against Redis before the copy is dropped. Messages without the header, sent by older gateways, are accepted.
+     *
+     * @param userId the ID of the requesting user
+     * @param message the received message
+     * @return true unless the message is a copy of an earlier release
+     */
+    private boolean isLatestRelease(String userId, Message message) {
+        if (!(message.getMessageProperties().getHeader(TripRequestScheduler.RELEASED_SCORE_HEADER) instanceof Number releasedScore)) {
+            return true;
+        }
+        Double score = queueMembershipCache.score(userId);
+        if (score != null && score.longValue() == releasedScore.longValue()) {
+            return true;
+        }
+        queueMembershipCache.invalidate(userId);
+        score = queueMembershipCache.score(userId);
+        if (score != null && score.longValue() == releasedScore.longValue()) {
+            return true;
+        }
+        log.info("Dropping an earlier dispatched copy of the trip request of user {}", userId);
+        return false;
+    }
+
+    /**
+     * Helper method to retry a failed request after the retry delay, or to give up on it once its retries are used up.
+     *
+     * @param message the message of the failed request
+     * @param userId the ID of the requesting user
+     * @param failure the exception the request failed with
+     * @param channel the channel the message was delivered on
+     * @throws IOException if the acknowledgement cannot be sent to the broker
+     */
+    private void retryOrGiveUp(Message message, String userId, Exception failure, Channel channel) throws IOException {
+        int retries = retries(message);
+        if (retries < maxRetries) {
+            log.warn("Failed to process the trip request of user {}, retrying it in {} ms", userId, retryDelayMillis, failure);
+            delay(message, userId, retries + 1, retryDelayMillis, channel);
+            return;
+        }
+        // Give up on the request, so it does not come back forever
+        log.error("Failed to process the trip request of user {} after {} retries, moving it to {}",
+                userId, retries, RabbitMQConfig.DEAD_LETTER_QUEUE, failure);
+        deadLetter(message, userId, failure, channel);
+    }
+
+    /**
+     * Helper method to move a message to the delay queue of its user's shard and acknowledge it.
+     * The delay queue has no consumers; the message expires after the delay and RabbitMQ dead-letters it back
+     * into the shard's queue. If it cannot be moved, it is requeued instead.
+     *
+     * @param message the message to delay
+     * @param userId the ID of the requesting user
+     * @param retries the number of retries the message has used
+     * @param delayMillis how long the message waits
+     * @param channel the channel the message was delivered on
+     * @throws IOException if the acknowledgement cannot be sent to the broker
+     */
+    private void delay(Message message, String userId, int retries, long delayMillis, Channel channel) throws IOException {
+        MessageProperties properties = message.getMessageProperties();
+        long deliveryTag = properties.getDeliveryTag();
+        properties.setHeader(RETRY_HEADER, retries);
+        properties.setExpiration(Long.toString(Math.max(delayMillis, 1)));
+        try {
+            rabbitTemplate.send(queueShards.delayQueue(queueShards.shardOf(userId)), message);
+        } catch (AmqpException e) {
+            log.warn("Failed to delay the trip request of user {}, requeueing it", userId, e);
+            channel.basicNack(deliveryTag, false, true);
+            return;
+        }
+        channel.basicAck(deliveryTag, false);
+    }
+
+    private static int retries(Message message) {
+        return message.getMessageProperties().getHeader(RETRY_HEADER) instanceof Number retries ? retries.intValue() : 0;
+    }
+
+    /**
+     * Helper method to move a message to the dead letter queue, with the failure in its headers, and acknowledge it.
+     * The user's queue entry is removed as well, so the scheduler does not dispatch the request again.
+     * If the message cannot be sent to the dead letter queue, it is requeued instead.
+     *
+     * @param message the message that could not be processed
+     * @param userId the ID of the requesting user, or null if the message could not be decoded
+     * @param failure the exception the message failed with
+     * @param channel the channel the message was delivered on
+     * @throws IOException if the acknowledgement cannot be sent to the broker
+     */
+    private void deadLetter(Message message, String userId, Exception failure, Channel channel) throws IOException {
+        MessageProperties properties = message.getMessageProperties();
+        long deliveryTag = properties.getDeliveryTag();
+        properties.setHeader(FAILURE_HEADER, failure.toString());
+        properties.setHeader(SOURCE_QUEUE_HEADER, properties.getConsumerQueue());
+        properties.setExpiration(null);
+        try {
+            rabbitTemplate.send(RabbitMQConfig.DEAD_LETTER_QUEUE, message);
+        } catch (AmqpException e) {
+            log.warn("Failed to move a trip request to {}, requeueing it", RabbitMQConfig.DEAD_LETTER_QUEUE, e);
+            channel.basicNack(deliveryTag, false, true);
+            return;
+        }
+        channel.basicAck(deliveryTag, false);
+        if (userId != null) {
+            try {
+                tripRequestScheduler.remove(userId);
+                queueMembershipCache.invalidate(userId);
+            } catch (DataAccessException e) {
+                // The entry is dispatched again after the redispatch timeout and fails or succeeds then
+                log.warn("Failed to remove the dead lettered trip request of user {}", userId, e);
+            }
+        }
+    }
 }
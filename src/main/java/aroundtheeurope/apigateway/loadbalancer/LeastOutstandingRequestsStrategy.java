@@ -0,0 +1,25 @@
+package aroundtheeurope.apigateway.loadbalancer;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sends each request to the instance with the fewest requests in progress.
+ * Ties are broken starting from a random position, so idle instances share the load evenly.
+ */
+public class LeastOutstandingRequestsStrategy implements LoadBalancingStrategy {
+
+    @Override
+    public UpstreamInstance choose(List<UpstreamInstance> instances) {
+        int size = instances.size();
+        int offset = ThreadLocalRandom.current().nextInt(size);
+        UpstreamInstance best = null;
+        for (int i = 0; i < size; i++) {
+            UpstreamInstance candidate = instances.get((offset + i) % size);
+            if (best == null || candidate.getOutstandingRequests() < best.getOutstandingRequests()) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,32 @@
+package aroundtheeurope.apigateway.loadbalancer;
+
+import java.util.List;
+
+/**
+ * Strategy picking the instance of an upstream service that receives the next request.
+ */
+public interface LoadBalancingStrategy {
+
+    /**
+     * Picks an instance.
+     *
+     * @param instances the available instances, never empty
+     * @return the chosen instance
+     */
+    UpstreamInstance choose(List<UpstreamInstance> instances);
+
+    /**
+     * Creates a strategy from its configured name.
+     *
+     * @param name one of "round-robin", "least-outstanding" or "power-of-two-choices"
+     * @return a new strategy instance
+     */
+    static LoadBalancingStrategy of(String name) {
+        return switch (name) {
+            case "round-robin" -> new RoundRobinStrategy();
+            case "least-outstanding" -> new LeastOutstandingRequestsStrategy();
+            case "power-of-two-choices" -> new PowerOfTwoChoicesStrategy();
+            default -> throw new IllegalArgumentException("Unknown load balancing strategy: " + name);
+        };
+    }
+}
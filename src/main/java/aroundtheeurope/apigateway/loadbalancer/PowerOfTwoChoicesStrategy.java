@@ -0,0 +1,40 @@
+package aroundtheeurope.apigateway.loadbalancer;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks two distinct instances at random and sends the request to the one expected to answer sooner,
+ * i.e. with the lower observed latency times the requests already queued on it.
+ * Comparing only two random instances keeps the choice O(1) and avoids every node herding onto the same instance.
+ */
+public class PowerOfTwoChoicesStrategy implements LoadBalancingStrategy {
+
+    @Override
+    public UpstreamInstance choose(List<UpstreamInstance> instances) {
+        int size = instances.size();
+        if (size == 1) {
+            return instances.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        UpstreamInstance a = instances.get(first);
+        UpstreamInstance b = instances.get(second);
+        return cost(a) <= cost(b) ? a : b;
+    }
+
+    /**
+     * Helper method to estimate how long a new request to the instance would take.
+     * Instances without samples yet cost nothing, so they are tried early.
+     *
+     * @param instance the instance
+     * @return the expected latency in nanoseconds
+     */
+    private static double cost(UpstreamInstance instance) {
+        return instance.getLatencyNanos() * (instance.getOutstandingRequests() + 1);
+    }
+}
@@ -0,0 +1,17 @@
+package aroundtheeurope.apigateway.loadbalancer;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends requests to the instances in turn.
+ */
+public class RoundRobinStrategy implements LoadBalancingStrategy {
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Override
+    public UpstreamInstance choose(List<UpstreamInstance> instances) {
+        return instances.get(Math.floorMod(next.getAndIncrement(), instances.size()));
+    }
+}
@@ -0,0 +1,36 @@
+package aroundtheeurope.apigateway.loadbalancer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Periodically starts the active health checks of the upstreams that are due for one.
+ * Each upstream is checked at its own interval ("<upstream>.load-balancing.health-check.interval");
+ * the probes run asynchronously, so the shared scheduler thread is never blocked on them.
+ */
+@Component
+public class UpstreamHealthChecker {
+
+    private static final long TICK_MS = 1000;
+
+    private final UpstreamLoadBalancer upstreamLoadBalancer;
+
+    /**
+     * Constructor for UpstreamHealthChecker, autowiring the UpstreamLoadBalancer.
+     *
+     * @param upstreamLoadBalancer the load balancer whose instances are checked
+     */
+    @Autowired
+    public UpstreamHealthChecker(UpstreamLoadBalancer upstreamLoadBalancer) {
+        this.upstreamLoadBalancer = upstreamLoadBalancer;
+    }
+
+    /**
+     * Starts polling the health endpoints of the instances due for a check, without waiting for the answers.
+     */
+    @Scheduled(fixedDelay = TICK_MS)
+    public void checkHealth() {
+        upstreamLoadBalancer.checkHealth();
+    }
+}
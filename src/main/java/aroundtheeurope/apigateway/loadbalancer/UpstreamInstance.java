@@ -0,0 +1,117 @@
+package aroundtheeurope.apigateway.loadbalancer;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One instance of an upstream service, with the statistics load balancing strategies choose by:
+ * the number of outstanding requests and an exponentially weighted moving average of response latency.
+ * An instance is left out of the rotation while an active health check fails,
+ * or for a while after it failed several requests in a row.
+ */
+public class UpstreamInstance {
+
+    // Weight of the newest sample in the latency average
+    private static final double LATENCY_DECAY = 0.3;
+
+    private final URI baseUri;
+    private final AtomicInteger outstandingRequests = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile double latencyNanos;
+    private volatile boolean healthy = true;
+    private volatile long ejectedUntilNanos;
+
+    /**
+     * Constructs an UpstreamInstance.
+     *
+     * @param baseUri the base URI of the instance (scheme, host and port)
+     */
+    public UpstreamInstance(URI baseUri) {
+        this.baseUri = baseUri;
+        this.ejectedUntilNanos = System.nanoTime();
+    }
+
+    /**
+     * Rewrites a URI of the upstream service to point at this instance.
+     *
+     * @param uri the URI built from the upstream's logical base URL
+     * @return the same URI on this instance's scheme, host and port
+     */
+    public URI resolve(URI uri) {
+        StringBuilder target = new StringBuilder()
+                .append(baseUri.getScheme()).append("://").append(baseUri.getRawAuthority());
+        if (uri.getRawPath() != null) {
+            target.append(uri.getRawPath());
+        }
+        if (uri.getRawQuery() != null) {
+            target.append('?').append(uri.getRawQuery());
+        }
+        return URI.create(target.toString());
+    }
+
+    /**
+     * Records the start of a request to this instance.
+     */
+    void onStart() {
+        outstandingRequests.incrementAndGet();
+    }
+
+    /**
+     * Records the end of a request to this instance, ejecting it if it failed too often in a row.
+     *
+     * @param durationNanos how long the request took
+     * @param failed whether the request failed
+     * @param ejectAfterFailures the number of consecutive failures that eject the instance
+     * @param ejectionNanos how long an ejected instance stays out of the rotation
+     */
+    void onComplete(long durationNanos, boolean failed, int ejectAfterFailures, long ejectionNanos) {
+        outstandingRequests.decrementAndGet();
+        double previous = latencyNanos;
+        latencyNanos = previous == 0 ? durationNanos : previous + LATENCY_DECAY * (durationNanos - previous);
+
+        if (!failed) {
+            consecutiveFailures.set(0);
+        } else if (consecutiveFailures.incrementAndGet() >= ejectAfterFailures) {
+            consecutiveFailures.set(0);
+            ejectedUntilNanos = System.nanoTime() + ejectionNanos;
+        }
+    }
+
+    /**
+     * Records the end of a request to this instance that was cancelled before it completed.
+     * Neither its latency nor its outcome say anything about the instance.
+     */
+    void onCancel() {
+        outstandingRequests.decrementAndGet();
+    }
+
+    /**
+     * Tells whether the instance may receive requests.
+     *
+     * @param nowNanos the current System.nanoTime()
+     * @return true if the instance passes its health checks and is not ejected
+     */
+    boolean isAvailable(long nowNanos) {
+        return healthy && nowNanos - ejectedUntilNanos >= 0;
+    }
+
+    void setHealthy(boolean healthy) {
+        this.healthy = healthy;
+    }
+
+    public URI getBaseUri() {
+        return baseUri;
+    }
+
+    public int getOutstandingRequests() {
+        return outstandingRequests.get();
+    }
+
+    public double getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+}
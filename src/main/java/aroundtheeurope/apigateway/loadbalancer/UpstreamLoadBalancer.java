@@ -0,0 +1,234 @@
+package aroundtheeurope.apigateway.loadbalancer;
+
+import aroundtheeurope.apigateway.sideFunctions.UpstreamAuthority;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Client-side load balancer spreading calls to an upstream service over its instances.
+ * Callers keep building URIs from the upstream's logical base URL; each call is rewritten to the
+ * instance picked by the upstream's strategy. Instances failing several calls in a row are ejected
+ * for a while (passive health checking), and instances failing their health endpoint are left out
+ * until it recovers (active health checking). If no instance is available, all of them are used,
+ * so a wrong health signal cannot take the whole upstream out.
+ */
+public class UpstreamLoadBalancer implements MeterBinder {
+
+    private static final Duration HEALTH_CHECK_TIMEOUT = Duration.ofSeconds(2);
+
+    private final Map<String, Pool> poolsByName = new ConcurrentHashMap<>();
+    private final Map<String, Pool> poolsByAuthority = new ConcurrentHashMap<>();
+    private final HttpClient healthCheckClient = HttpClient.newBuilder()
+            .connectTimeout(HEALTH_CHECK_TIMEOUT)
+            .build();
+
+    /**
+     * Registers an upstream service and its instances.
+     *
+     * @param upstream the name of the upstream service
+     * @param logicalUrl the base URL callers build their URIs from, or null if calls name the upstream explicitly
+     * @param instanceUrls the base URLs of the instances serving the upstream
+     * @param strategy the strategy picking an instance per call
+     * @param ejectAfterFailures the number of consecutive failed calls that eject an instance
+     * @param ejectionDuration how long an ejected instance is left out
+     * @param healthCheckPath the path polled by active health checks, or an empty string to disable them
+     * @param healthCheckInterval how long to wait between the end of one health check and the start of the next
+     */
+    public void register(
+            String upstream,
+            String logicalUrl,
+            List<String> instanceUrls,
+            LoadBalancingStrategy strategy,
+            int ejectAfterFailures,
+            Duration ejectionDuration,
+            String healthCheckPath,
+            Duration healthCheckInterval
+    ) {
+        List<UpstreamInstance> instances = new ArrayList<>(instanceUrls.size());
+        for (String instanceUrl : instanceUrls) {
+            instances.add(new UpstreamInstance(URI.create(instanceUrl.trim())));
+        }
+        Pool pool = new Pool(upstream, List.copyOf(instances), strategy, ejectAfterFailures, ejectionDuration.toNanos(),
+                healthCheckPath, healthCheckInterval.toNanos(), new AtomicLong(System.nanoTime()), new AtomicBoolean());
+        poolsByName.put(upstream, pool);
+        if (logicalUrl != null) {
+            poolsByAuthority.put(UpstreamAuthority.of(URI.create(logicalUrl)), pool);
+        }
+    }
+
+    /**
+     * Runs a call on the instance picked for it.
+     * URIs of hosts that were not registered are called unchanged.
+     *
+     * @param uri the URI built from the upstream's logical base URL
+     * @param call the call to run against the rewritten URI
+     * @param isFailure tells which results count as failures, e.g. 5xx responses
+     * @param <T> the result type
+     * @return the result of the call
+     */
+    public <T> T execute(URI uri, Function<URI, T> call, Predicate<T> isFailure) {
+        return execute(poolsByAuthority.get(UpstreamAuthority.of(uri)), uri, call, isFailure);
+    }
+
+    /**
+     * Runs a call on an instance of the named upstream.
+     * Used where calls to the same service behave so differently that they are balanced separately.
+     *
+     * @param upstream the name of the upstream service
+     * @param uri the URI built from the upstream's logical base URL
+     * @param call the call to run against the rewritten URI
+     * @param isFailure tells which results count as failures, e.g. 5xx responses
+     * @param <T> the result type
+     * @return the result of the call
+     */
+    public <T> T execute(String upstream, URI uri, Function<URI, T> call, Predicate<T> isFailure) {
+        return execute(poolsByName.get(upstream), uri, call, isFailure);
+    }
+
+    private <T> T execute(Pool pool, URI uri, Function<URI, T> call, Predicate<T> isFailure) {
+        if (pool == null) {
+            return call.apply(uri);
+        }
+
+        UpstreamInstance instance = pool.choose();
+        instance.onStart();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = call.apply(instance.resolve(uri));
+            failed = isFailure.test(result);
+            return result;
+        } finally {
+            if (Thread.currentThread().isInterrupted()) {
+                // Cancelled by the caller, e.g. a hedged attempt that lost; says nothing about the instance
+                instance.onCancel();
+            } else {
+                instance.onComplete(System.nanoTime() - start, failed, pool.ejectAfterFailures(), pool.ejectionNanos());
+            }
+        }
+    }
+
+    /**
+     * Polls the health endpoint of every instance whose upstream is due for a check, in parallel, and updates their health.
+     * Any answer below 500 counts as healthy; errors, timeouts and 5xx answers do not.
+     * The probes run asynchronously, so the calling thread is not held up by slow instances; an upstream whose
+     * previous check has not finished yet is skipped.
+     *
+     * @return a future completing once all started probes have been answered or have timed out
+     */
+    public CompletableFuture<Void> checkHealth() {
+        long now = System.nanoTime();
+        List<CompletableFuture<?>> checks = new ArrayList<>();
+        for (Pool pool : poolsByName.values()) {
+            if (pool.healthCheckPath().isEmpty() || now - pool.nextHealthCheck().get() < 0
+                    || !pool.healthCheckRunning().compareAndSet(false, true)) {
+                continue;
+            }
+            List<CompletableFuture<?>> poolChecks = new ArrayList<>();
+            for (UpstreamInstance instance : pool.instances()) {
+                HttpRequest request = HttpRequest.newBuilder(instance.resolve(URI.create(pool.healthCheckPath())))
+                        .timeout(HEALTH_CHECK_TIMEOUT)
+                        .GET()
+                        .build();
+                poolChecks.add(healthCheckClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                        .handle((response, error) -> {
+                            instance.setHealthy(error == null && response.statusCode() < 500);
+                            return null;
+                        }));
+            }
+            checks.add(CompletableFuture.allOf(poolChecks.toArray(CompletableFuture[]::new))
+                    .whenComplete((result, error) -> {
+                        pool.nextHealthCheck().set(System.nanoTime() + pool.healthCheckIntervalNanos());
+                        pool.healthCheckRunning().set(false);
+                    }));
+        }
+        return CompletableFuture.allOf(checks.toArray(CompletableFuture[]::new));
+    }
+
+    /**
+     * Lists the instances of every upstream.
+     *
+     * @return the instances by upstream name
+     */
+    public Map<String, List<UpstreamInstance>> getInstances() {
+        Map<String, List<UpstreamInstance>> instances = new ConcurrentHashMap<>();
+        poolsByName.values().forEach(pool -> instances.put(pool.upstream(), pool.instances()));
+        return instances;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Pool pool : poolsByName.values()) {
+            for (UpstreamInstance instance : pool.instances()) {
+                String name = instance.getBaseUri().toString();
+                Gauge.builder("gateway.upstream.instance.outstanding", instance, UpstreamInstance::getOutstandingRequests)
+                        .tags("upstream", pool.upstream(), "instance", name)
+                        .register(registry);
+                Gauge.builder("gateway.upstream.instance.latency", instance, i -> i.getLatencyNanos() / 1_000_000)
+                        .tags("upstream", pool.upstream(), "instance", name)
+                        .baseUnit("milliseconds")
+                        .register(registry);
+                Gauge.builder("gateway.upstream.instance.available", instance, i -> i.isAvailable(System.nanoTime()) ? 1 : 0)
+                        .tags("upstream", pool.upstream(), "instance", name)
+                        .register(registry);
+            }
+        }
+    }
+
+    /**
+     * Instances of one upstream with their balancing settings and the state of their health checks.
+     */
+    private record Pool(
+            String upstream,
+            List<UpstreamInstance> instances,
+            LoadBalancingStrategy strategy,
+            int ejectAfterFailures,
+            long ejectionNanos,
+            String healthCheckPath,
+            long healthCheckIntervalNanos,
+            AtomicLong nextHealthCheck,
+            AtomicBoolean healthCheckRunning
+    ) {
+
+        /**
+         * Picks an instance among the available ones, or among all if none is available.
+         *
+         * @return the chosen instance
+         */
+        UpstreamInstance choose() {
+            long now = System.nanoTime();
+            int available = 0;
+            for (UpstreamInstance instance : instances) {
+                if (instance.isAvailable(now)) {
+                    available++;
+                }
+            }
+            if (available == instances.size() || available == 0) {
+                return strategy.choose(instances);
+            }
+            List<UpstreamInstance> candidates = new ArrayList<>(available);
+            for (UpstreamInstance instance : instances) {
+                if (instance.isAvailable(now)) {
+                    candidates.add(instance);
+                }
+            }
+            return strategy.choose(candidates);
+        }
+    }
+}
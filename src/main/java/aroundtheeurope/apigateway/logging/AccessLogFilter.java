@@ -0,0 +1,213 @@
+package aroundtheeurope.apigateway.logging;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Filter writing an access log entry for every request once it is answered.
+ * It runs in the security filter chain right before bearer token authentication, so it also covers requests
+ * with an invalid token and requests the rate limiter or the authorization rules reject; the caller is read
+ * once the rest of the chain has returned, when authentication has put it in the security context.
+ * Requests answered asynchronously, such as server-sent event streams, are logged when the stream completes,
+ * so their entry carries the final status, all bytes sent and the full duration.
+ * The route and upstream are recorded as request attributes by the components that handle the request.
+ * It is added to the security filter chain only, not registered as a servlet filter of its own.
+ */
+public class AccessLogFilter extends OncePerRequestFilter {
+
+    /**
+     * Request attribute holding the id of the route that served the request.
+     */
+    public static final String ROUTE_ATTRIBUTE = AccessLogFilter.class.getName() + ".route";
+
+    private static final String UPSTREAM_ATTRIBUTE = AccessLogFilter.class.getName() + ".upstream";
+    private static final String UPSTREAM_NANOS_ATTRIBUTE = AccessLogFilter.class.getName() + ".upstreamNanos";
+
+    private final AccessLogger accessLogger;
+
+    /**
+     * Constructs an AccessLogFilter.
+     *
+     * @param accessLogger the logger writing the entries
+     */
+    public AccessLogFilter(AccessLogger accessLogger) {
+        this.accessLogger = accessLogger;
+    }
+
+    /**
+     * Records an upstream call made for a request.
+     *
+     * @param request the request the call was made for
+     * @param uri the URI of the call
+     * @param nanos the time spent waiting for the upstream
+     */
+    public static void recordUpstream(HttpServletRequest request, URI uri, long nanos) {
+        request.setAttribute(UPSTREAM_ATTRIBUTE, uri.getAuthority());
+        request.setAttribute(UPSTREAM_NANOS_ATTRIBUTE, nanos);
+    }
+
+    @Override
+    protected void doFilterInternal(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            FilterChain filterChain
+    ) throws ServletException, IOException {
+        long start = System.nanoTime();
+        CountingResponse countingResponse = new CountingResponse(response);
+        try {
+            filterChain.doFilter(request, countingResponse);
+        } finally {
+            // The security context belongs to this thread, the caller is read before the request may go async
+            String userId = userIdOf();
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        log(request, response, countingResponse, start, userId);
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+            } else {
+                log(request, response, countingResponse, start, userId);
+            }
+        }
+    }
+
+    /**
+     * Helper method to write the entry of an answered request.
+     */
+    private void log(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            CountingResponse countingResponse,
+            long start,
+            String userId
+    ) {
+        Object upstreamNanos = request.getAttribute(UPSTREAM_NANOS_ATTRIBUTE);
+        accessLogger.log(
+                routeOf(request),
+                request.getMethod(),
+                request.getRequestURI(),
+                response.getStatus(),
+                countingResponse.bytesWritten(),
+                (String) request.getAttribute(UPSTREAM_ATTRIBUTE),
+                upstreamNanos instanceof Long nanos ? nanos : -1,
+                System.nanoTime() - start,
+                userId
+        );
+    }
+
+    /**
+     * Helper method to name what served a request: its route, its controller mapping, or nothing.
+     */
+    private static String routeOf(HttpServletRequest request) {
+        Object route = request.getAttribute(ROUTE_ATTRIBUTE);
+        if (route == null) {
+            route = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        }
+        return route != null ? route.toString() : null;
+    }
+
+    private static String userIdOf() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication instanceof JwtAuthenticationToken jwtAuthentication ? jwtAuthentication.getName() : null;
+    }
+
+    /**
+     * Response counting the body bytes written through its output stream.
+     * Bodies written through a writer are not counted; their declared Content-Length is used instead.
+     */
+    private static final class CountingResponse extends HttpServletResponseWrapper {
+
+        private CountingOutputStream outputStream;
+
+        CountingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                outputStream = new CountingOutputStream(super.getOutputStream());
+            }
+            return outputStream;
+        }
+
+        long bytesWritten() {
+            if (outputStream != null) {
+                return outputStream.count;
+            }
+            String contentLength = getHeader(HttpHeaders.CONTENT_LENGTH);
+            return contentLength != null ? Long.parseLong(contentLength) : 0;
+        }
+    }
+
+    private static final class CountingOutputStream extends ServletOutputStream {
+
+        private final ServletOutputStream delegate;
+        private long count;
+
+        CountingOutputStream(ServletOutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            delegate.setWriteListener(writeListener);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package aroundtheeurope.apigateway.logging;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes one JSON line per request to the "gateway.access" logger.
+ * The logger is backed by an asynchronous appender (see logback-spring.xml), so a request thread only
+ * formats its line and hands it over; it never waits on the file. High-volume routes can be sampled,
+ * while failed requests (status 400 and above) are always logged.
+ * Users are identified by a hash of their JWT subject rather than the subject itself.
+ */
+@Component
+public class AccessLogger {
+
+    private static final Logger accessLog = LoggerFactory.getLogger("gateway.access");
+
+    private final boolean enabled;
+    private final Map<String, Double> sampleRateByRoute = new HashMap<>();
+
+    /**
+     * Constructor for AccessLogger.
+     *
+     * @param enabled whether requests are logged at all
+     * @param sampleRates sample rates of high-volume routes as "route=rate" entries, e.g. "trips=0.1"
+     */
+    @Autowired
+    public AccessLogger(
+            @Value("${gateway.access-log.enabled:true}") boolean enabled,
+            @Value("${gateway.access-log.sample-rates:}") List<String> sampleRates
+    ) {
+        this.enabled = enabled;
+        for (String sampleRate : sampleRates) {
+            int separator = sampleRate.indexOf('=');
+            if (separator > 0) {
+                sampleRateByRoute.put(sampleRate.substring(0, separator).trim(),
+                        Double.parseDouble(sampleRate.substring(separator + 1).trim()));
+            }
+        }
+    }
+
+    /**
+     * Logs a finished request, unless it is sampled out.
+     *
+     * @param route the route or handler pattern that served the request
+     * @param method the HTTP method
+     * @param path the request path, without a query
+     * @param status the response status
+     * @param bytes the number of body bytes written, or -1 if unknown
+     * @param upstream the upstream host the request was forwarded to (can be null)
+     * @param upstreamNanos the time spent waiting for the upstream, or -1 if none was called
+     * @param totalNanos the time spent on the whole request
+     * @param userId the JWT subject of the caller (can be null)
+     */
+    public void log(
+            String route,
+            String method,
+            String path,
+            int status,
+            long bytes,
+            String upstream,
+            long upstreamNanos,
+            long totalNanos,
+            String userId
+    ) {
+        if (!enabled || !accessLog.isInfoEnabled()) {
+            return;
+        }
+        Double sampleRate = sampleRateByRoute.get(route);
+        if (sampleRate != null && status < 400 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        accessLog.info(format(Instant.now(), route, method, path, status, bytes, upstream, upstreamNanos, totalNanos,
+                userId != null ? hash(userId) : null));
+    }
+
+    /**
+     * Helper method to format a log line as JSON.
+     * Built by hand, so formatting costs a single StringBuilder.
+     *
+     * @return the JSON line, without a line break
+     */
+    static String format(
+            Instant timestamp,
+            String route,
+            String method,
+            String path,
+            int status,
+            long bytes,
+            String upstream,
+            long upstreamNanos,
+            long totalNanos,
+            String userHash
+    ) {
+        StringBuilder line = new StringBuilder(256);
+        line.append("{\"ts\":\"").append(timestamp).append('"');
+        appendString(line, "route", route);
+        appendString(line, "method", method);
+        appendString(line, "path", path);
+        line.append(",\"status\":").append(status);
+        line.append(",\"bytes\":").append(bytes);
+        appendString(line, "upstream", upstream);
+        appendMillis(line, "upstreamMs", upstreamNanos);
+        appendMillis(line, "totalMs", totalNanos);
+        appendString(line, "user", userHash);
+        return line.append('}').toString();
+    }
+
+    private static void appendString(StringBuilder line, String name, String value) {
+        line.append(",\"").append(name).append("\":");
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    private static void appendMillis(StringBuilder line, String name, long nanos) {
+        line.append(",\"").append(name).append("\":");
+        if (nanos < 0) {
+            line.append("null");
+            return;
+        }
+        // Microsecond precision without going through floating point formatting
+        long micros = nanos / 1000;
+        line.append(micros / 1000).append('.');
+        long fraction = micros % 1000;
+        if (fraction < 100) {
+            line.append('0');
+        }
+        if (fraction < 10) {
+            line.append('0');
+        }
+        line.append(fraction);
+    }
+
+    private static String hash(String userId) {
+        return DigestUtils.md5DigestAsHex(userId.getBytes(StandardCharsets.UTF_8)).substring(0, 16);
+    }
+}
@@ -0,0 +1,73 @@
+package aroundtheeurope.apigateway.queue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Consistent hash ring assigning keys to a fixed number of nodes.
+ * Every node owns many points on the ring, so keys spread evenly, and adding or removing a node
+ * only moves the keys of the ring segments it gains or loses (about 1/n of them).
+ * Immutable; lookups are a binary search over a sorted array.
+ */
+public class ConsistentHashRing {
+
+    private final long[] points;
+    private final int[] nodes;
+
+    /**
+     * Constructs a ConsistentHashRing.
+     *
+     * @param nodeCount the number of nodes
+     * @param pointsPerNode the number of points each node owns on the ring
+     */
+    public ConsistentHashRing(int nodeCount, int pointsPerNode) {
+        if (nodeCount < 1 || pointsPerNode < 1) {
+            throw new IllegalArgumentException("A hash ring needs at least one node and one point per node");
+        }
+        long[][] entries = new long[nodeCount * pointsPerNode][];
+        for (int node = 0; node < nodeCount; node++) {
+            for (int point = 0; point < pointsPerNode; point++) {
+                entries[node * pointsPerNode + point] = new long[] {hash("shard-" + node + "#" + point), node};
+            }
+        }
+        Arrays.sort(entries, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        points = new long[entries.length];
+        nodes = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            points[i] = entries[i][0];
+            nodes[i] = (int) entries[i][1];
+        }
+    }
+
+    /**
+     * Gives the node owning a key: the node of the first point at or after the key's hash.
+     *
+     * @param key the key
+     * @return the index of the owning node
+     */
+    public int nodeOf(String key) {
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return nodes[index == points.length ? 0 : index];
+    }
+
+    /**
+     * Helper method to hash a string: 64-bit FNV-1a over its UTF-8 bytes, finished with the MurmurHash3
+     * mixer so that similar keys such as sequential IDs land far apart.
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,48 @@
+package aroundtheeurope.apigateway.queue;
+
+import aroundtheeurope.apigateway.dto.ForwardedTripRequestDTO;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Scheduling policy favouring users of weighted priority classes.
+ * The classes with the highest weight get no delay, the others are delayed by the horizon times their
+ * shortfall from the highest weight: with weights 4, 2 and 1 and a two minute horizon, a class 2 request
+ * waits behind class 4 requests submitted up to one minute later, and a class 1 request up to 90 seconds.
+ * Users without a known class get the default class.
+ */
+public class PriorityClassPolicy implements SchedulingPolicy {
+
+    private final Map<String, Long> delayByClass;
+    private final long defaultDelay;
+
+    /**
+     * Constructs a PriorityClassPolicy.
+     *
+     * @param weights the weight of every priority class, all positive
+     * @param defaultClass the class of users without a known class, one of the weighted classes
+     * @param horizon the delay of a class whose weight is close to nothing
+     */
+    public PriorityClassPolicy(Map<String, Double> weights, String defaultClass, Duration horizon) {
+        if (!weights.containsKey(defaultClass)) {
+            throw new IllegalArgumentException("The default priority class " + defaultClass + " has no weight");
+        }
+        double maxWeight = weights.values().stream().mapToDouble(Double::doubleValue).max().orElseThrow();
+        Map<String, Long> delays = new HashMap<>();
+        weights.forEach((priorityClass, weight) -> {
+            if (weight <= 0) {
+                throw new IllegalArgumentException("The weight of priority class " + priorityClass + " must be positive");
+            }
+            delays.put(priorityClass, Math.round(horizon.toMillis() * (1 - weight / maxWeight)));
+        });
+        this.delayByClass = Map.copyOf(delays);
+        this.defaultDelay = delayByClass.get(defaultClass);
+    }
+
+    @Override
+    public long delayMillis(ForwardedTripRequestDTO request, String priorityClass) {
+        return priorityClass != null ? delayByClass.getOrDefault(priorityClass, defaultDelay) : defaultDelay;
+    }
+}
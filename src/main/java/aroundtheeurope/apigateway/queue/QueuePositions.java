@@ -0,0 +1,118 @@
+package aroundtheeurope.apigateway.queue;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Computes positions in the sharded trip request queue.
+ * A user's global position is their rank in their own shard plus the number of requests scheduled
+ * before theirs (lower score) in every other shard. Requests with the same score in different shards
+ * can therefore share a position.
+ * All lookups of a call are sent in one pipelined round trip, however many users and shards there are.
+ */
+@Component
+public class QueuePositions {
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final QueueShards queueShards;
+
+    /**
+     * Constructor for QueuePositions, autowiring necessary components.
+     *
+     * @param redisTemplate the RedisTemplate holding the queue shards
+     * @param queueShards the shards of the trip request queue
+     */
+    @Autowired
+    public QueuePositions(RedisTemplate<String, String> redisTemplate, QueueShards queueShards) {
+        this.redisTemplate = redisTemplate;
+        this.queueShards = queueShards;
+    }
+
+    /**
+     * Looks up the scores (see TripRequestScheduler) of the given users in one pipelined call.
+     *
+     * @param userIds the IDs of the users
+     * @return the score of every user, or null for users without a queued request
+     */
+    public List<Double> scores(List<String> userIds) {
+        List<Object> results = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                ZSetOperations<String, String> zSetOperations = zSet(operations);
+                for (String userId : userIds) {
+                    zSetOperations.score(queueShards.redisKeyOf(userId), userId);
+                }
+                return null;
+            }
+        });
+        List<Double> scores = new ArrayList<>(results.size());
+        for (Object result : results) {
+            scores.add(result instanceof Double score ? score : null);
+        }
+        return scores;
+    }
+
+    /**
+     * Computes the global positions of the given users in one pipelined call.
+     *
+     * @param userIds the IDs of the users
+     * @param scores the scores of the users' requests; only needed, and then required, with more than one shard
+     * @return the 1-based position of every user, or null for users without a queued request
+     */
+    public List<Long> positions(List<String> userIds, List<Double> scores) {
+        int shardCount = queueShards.count();
+        if (shardCount == 1 && userIds.size() == 1) {
+            // A single rank does not need a pipeline and its dedicated connection
+            Long rank = redisTemplate.opsForZSet().rank(queueShards.redisKey(0), userIds.get(0));
+            return Collections.singletonList(rank != null ? rank + 1 : null);
+        }
+
+        List<Object> results = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                ZSetOperations<String, String> zSetOperations = zSet(operations);
+                for (int i = 0; i < userIds.size(); i++) {
+                    String userId = userIds.get(i);
+                    int ownShard = queueShards.shardOf(userId);
+                    zSetOperations.rank(queueShards.redisKey(ownShard), userId);
+                    if (shardCount > 1) {
+                        double queuedBefore = Math.nextDown(scores.get(i));
+                        for (int shard = 0; shard < shardCount; shard++) {
+                            if (shard != ownShard) {
+                                zSetOperations.count(queueShards.redisKey(shard), Double.NEGATIVE_INFINITY, queuedBefore);
+                            }
+                        }
+                    }
+                }
+                return null;
+            }
+        });
+
+        List<Long> positions = new ArrayList<>(userIds.size());
+        int index = 0;
+        for (int i = 0; i < userIds.size(); i++) {
+            Object rank = results.get(index++);
+            long position = rank instanceof Long ownRank ? ownRank + 1 : 0;
+            for (int shard = 1; shard < shardCount; shard++) {
+                if (results.get(index++) instanceof Long queuedBefore) {
+                    position += queuedBefore;
+                }
+            }
+            positions.add(rank != null ? position : null);
+        }
+        return positions;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> ZSetOperations<String, String> zSet(RedisOperations<K, V> operations) {
+        return (ZSetOperations<String, String>) operations.opsForZSet();
+    }
+}
@@ -0,0 +1,253 @@
+package aroundtheeurope.apigateway.queue;
+
+import aroundtheeurope.apigateway.codec.TripRequestCodecs;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.GetResponse;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.rabbit.connection.Connection;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Moves queued trip requests to their shard when the number of shards changes.
+ * The shard count the queue was last balanced for is kept in Redis. On startup, if it differs from the configured
+ * one, every Redis entry whose shard changed is moved with its waiting request (keeping its score, so nobody loses
+ * their place, and released requests stay released), and the RabbitMQ queues of removed shards are drained into
+ * the queues of the messages' new shards and deleted.
+ * Messages of shards that still exist stay where they are: the listener checks a request against its user's
+ * current shard, whichever queue delivered it.
+ * Entries still in the sorted set and hash of the unsharded queue, whose keys had no hash tag, are moved into
+ * the shards the same way.
+ * It runs before the listeners start, and a Redis lock makes sure only one node rebalances at a time.
+ * All nodes must be configured with the same shard count; change it by restarting all of them.
+ */
+@Component
+public class QueueShardRebalancer {
+
+    private static final Logger log = LoggerFactory.getLogger(QueueShardRebalancer.class);
+
+    private static final String SHARD_COUNT_KEY = "tripRequestQueueShards";
+    private static final String LOCK_KEY = "tripRequestQueueShards:lock";
+    private static final Duration LOCK_TTL = Duration.ofMinutes(5);
+    private static final int SCAN_COUNT = 500;
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final QueueShards queueShards;
+    private final ConnectionFactory connectionFactory;
+    private final AmqpAdmin amqpAdmin;
+    private final TripRequestCodecs tripRequestCodecs;
+
+    /**
+     * Constructor for QueueShardRebalancer, autowiring necessary components.
+     *
+     * @param redisTemplate the RedisTemplate holding the queue shards
+     * @param queueShards the shards of the trip request queue
+     * @param connectionFactory the RabbitMQ connection factory, used for transactional channels
+     * @param amqpAdmin looks up and deletes the queues of removed shards
+     * @param tripRequestCodecs the codecs for reading the user of a queued message
+     */
+    @Autowired
+    public QueueShardRebalancer(
+            RedisTemplate<String, String> redisTemplate,
+            QueueShards queueShards,
+            ConnectionFactory connectionFactory,
+            AmqpAdmin amqpAdmin,
+            TripRequestCodecs tripRequestCodecs
+    ) {
+        this.redisTemplate = redisTemplate;
+        this.queueShards = queueShards;
+        this.connectionFactory = connectionFactory;
+        this.amqpAdmin = amqpAdmin;
+        this.tripRequestCodecs = tripRequestCodecs;
+    }
+
+    /**
+     * Rebalances the queue if it was last balanced for a different shard count, or still has legacy keys.
+     * If Redis cannot be reached, the check is skipped and the gateway starts anyway.
+     */
+    @PostConstruct
+    public void rebalance() {
+        int shardCount = queueShards.count();
+        try {
+            if (storedShardCount() == shardCount && !hasLegacyKeys()) {
+                return;
+            }
+        } catch (DataAccessException e) {
+            log.warn("Could not check the trip request queue shards", e);
+            return;
+        }
+
+        String token = UUID.randomUUID().toString();
+        acquireLock(token);
+        try {
+            // Another node may have rebalanced while this one was waiting for the lock
+            int previousCount = storedShardCount();
+            if (previousCount == shardCount && !hasLegacyKeys()) {
+                return;
+            }
+            int moved = moveEntries(queueShards.legacyRedisKey(), queueShards.legacyPayloadKey(), -1);
+            for (int shard = 0; shard < Math.max(previousCount, shardCount); shard++) {
+                moved += moveEntries(queueShards.redisKey(shard), queueShards.payloadKey(shard), shard);
+            }
+            int drained = 0;
+            for (int shard = shardCount; shard < previousCount; shard++) {
+                // Messages expiring from the delay queue meanwhile land in the shard's queue, drained after it
+                drained += drainQueue(queueShards.delayQueue(shard), true);
+                drained += drainQueue(queueShards.rabbitQueue(shard), false);
+            }
+            redisTemplate.opsForValue().set(SHARD_COUNT_KEY, Integer.toString(shardCount));
+            log.info("Rebalanced the trip request queue from {} to {} shards, moved {} entries and {} messages",
+                    previousCount, shardCount, moved, drained);
+        } finally {
+            if (token.equals(redisTemplate.opsForValue().get(LOCK_KEY))) {
+                redisTemplate.delete(LOCK_KEY);
+            }
+        }
+    }
+
+    /**
+     * Helper method to read the shard count the queue was last balanced for.
+     * A queue that was never sharded has a single shard.
+     */
+    private int storedShardCount() {
+        String stored = redisTemplate.opsForValue().get(SHARD_COUNT_KEY);
+        return stored != null ? Integer.parseInt(stored) : 1;
+    }
+
+    private void acquireLock(String token) {
+        long deadline = System.nanoTime() + LOCK_TTL.toNanos();
+        while (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(LOCK_KEY, token, LOCK_TTL))) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Timed out waiting for another node to rebalance the trip request queue");
+            }
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting to rebalance the trip request queue", e);
+            }
+        }
+    }
+
+    /**
+     * Helper method to tell whether the keys of the unsharded queue, without a hash tag, still exist.
+     */
+    private boolean hasLegacyKeys() {
+        Long existing = redisTemplate.countExistingKeys(List.of(queueShards.legacyRedisKey(), queueShards.legacyPayloadKey()));
+        return existing != null && existing > 0;
+    }
+
+    /**
+     * Helper method to move the Redis entries of a sorted set that belong to another shard now,
+     * together with the encoded requests still waiting for dispatch.
+     * Each entry is added to its new shard (unless it is already there) before it is removed from the old one.
+     *
+     * @param sourceKey the sorted set to scan
+     * @param sourcePayloadKey the hash holding the encoded requests of its entries
+     * @param shard the shard the sorted set belongs to, or -1 for the legacy keys, whose entries all move
+     * @return the number of moved entries
+     */
+    private int moveEntries(String sourceKey, String sourcePayloadKey, int shard) {
+        List<ZSetOperations.TypedTuple<String>> misplaced = new ArrayList<>();
+        try (Cursor<ZSetOperations.TypedTuple<String>> cursor = redisTemplate.opsForZSet()
+                .scan(sourceKey, ScanOptions.scanOptions().count(SCAN_COUNT).build())) {
+            while (cursor.hasNext()) {
+                ZSetOperations.TypedTuple<String> entry = cursor.next();
+                if (shard < 0 || shard >= queueShards.count() || queueShards.shardOf(entry.getValue()) != shard) {
+                    misplaced.add(entry);
+                }
+            }
+        }
+        for (int from = 0; from < misplaced.size(); from += SCAN_COUNT) {
+            List<ZSetOperations.TypedTuple<String>> batch = misplaced.subList(from, Math.min(from + SCAN_COUNT, misplaced.size()));
+            List<String> payloads = redisTemplate.<String, String>opsForHash().multiGet(sourcePayloadKey,
+                    batch.stream().map(ZSetOperations.TypedTuple::getValue).toList());
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) {
+                    RedisOperations<String, String> stringOperations = (RedisOperations<String, String>) operations;
+                    for (int i = 0; i < batch.size(); i++) {
+                        String userId = batch.get(i).getValue();
+                        stringOperations.opsForZSet().addIfAbsent(queueShards.redisKeyOf(userId), userId, batch.get(i).getScore());
+                        if (payloads.get(i) != null) {
+                            stringOperations.opsForHash().put(queueShards.payloadKeyOf(userId), userId, payloads.get(i));
+                        }
+                        stringOperations.opsForZSet().remove(sourceKey, userId);
+                        stringOperations.opsForHash().delete(sourcePayloadKey, userId);
+                    }
+                    return null;
+                }
+            });
+        }
+        if (shard < 0 && !Boolean.TRUE.equals(redisTemplate.hasKey(sourceKey))) {
+            // Payloads left without an entry have nowhere to go
+            redisTemplate.delete(sourcePayloadKey);
+        }
+        return misplaced.size();
+    }
+
+    /**
+     * Helper method to move all messages of a removed shard's queue to the queues of their users' shards,
+     * then delete the queue. Every message is republished and acknowledged in one transaction.
+     *
+     * @param queue the queue or delay queue of the removed shard
+     * @param delayed whether the messages are moved to the delay queues, keeping their expiration
+     * @return the number of moved messages
+     */
+    private int drainQueue(String queue, boolean delayed) {
+        if (amqpAdmin.getQueueProperties(queue) == null) {
+            return 0;
+        }
+        int moved = 0;
+        try (Connection connection = connectionFactory.createConnection();
+             Channel channel = connection.createChannel(true)) {
+            GetResponse response;
+            while ((response = channel.basicGet(queue, false)) != null) {
+                channel.basicPublish("", targetQueue(response, delayed), response.getProps(), response.getBody());
+                channel.basicAck(response.getEnvelope().getDeliveryTag(), false);
+                channel.txCommit();
+                moved++;
+            }
+        } catch (IOException | TimeoutException e) {
+            throw new IllegalStateException("Failed to drain trip request queue " + queue, e);
+        }
+        amqpAdmin.deleteQueue(queue, false, true);
+        return moved;
+    }
+
+    /**
+     * Helper method to pick the queue of a message's user, or the first shard's if the message cannot be read
+     * (the listener rejects it there).
+     */
+    private String targetQueue(GetResponse response, boolean delayed) {
+        int shard;
+        try {
+            String userId = tripRequestCodecs.decoderFor(response.getProps().getContentType())
+                    .decode(response.getBody())
+                    .getUserId();
+            shard = queueShards.shardOf(userId);
+        } catch (Exception e) {
+            shard = 0;
+        }
+        return delayed ? queueShards.delayQueue(shard) : queueShards.rabbitQueue(shard);
+    }
+}
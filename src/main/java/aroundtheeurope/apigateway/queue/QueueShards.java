@@ -0,0 +1,194 @@
+package aroundtheeurope.apigateway.queue;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Partitioning of the trip request queue into shards, each with its own Redis sorted set, hash of
+ * waiting requests and RabbitMQ queue.
+ * Users are assigned to shards by consistent hashing of their ID, so changing the number of shards
+ * only moves a fraction of the queued requests (see QueueShardRebalancer).
+ * Every shard's Redis keys carry its index as a hash tag, so a shard's sorted set and hash always share a
+ * Redis Cluster slot (as the scripts touching both require) while a cluster can place shards on different nodes.
+ * Shard 0 keeps the RabbitMQ queue of the unsharded queue; its Redis keys from before the hash tag are moved
+ * on startup (see QueueShardRebalancer).
+ */
+@Component
+public class QueueShards {
+
+    /**
+     * The base of the shards' Redis keys, and the key of the former unsharded queue.
+     */
+    public static final String REDIS_KEY = "tripRequestQueueSet";
+
+    /**
+     * The RabbitMQ queue of shard 0, the former unsharded queue.
+     */
+    public static final String RABBIT_QUEUE = "tripRequestQueue";
+
+    private static final int POINTS_PER_SHARD = 128;
+
+    private final String redisKeyBase;
+    private final String rabbitQueueBase;
+    private final ConsistentHashRing ring;
+    private final List<String> redisKeys = new ArrayList<>();
+    private final List<String> rabbitQueues = new ArrayList<>();
+
+    /**
+     * Constructor for QueueShards.
+     *
+     * @param shardCount the number of shards
+     */
+    @Autowired
+    public QueueShards(@Value("${gateway.queue.shards:1}") int shardCount) {
+        this(REDIS_KEY, RABBIT_QUEUE, shardCount);
+    }
+
+    /**
+     * Constructor for QueueShards with custom names, e.g. to keep tests apart from a real queue.
+     *
+     * @param redisKey the base of the Redis keys, every shard appends its index to it as a hash tag
+     * @param rabbitQueue the RabbitMQ queue of shard 0, the other shards append their index to it
+     * @param shardCount the number of shards
+     */
+    public QueueShards(String redisKey, String rabbitQueue, int shardCount) {
+        this.redisKeyBase = redisKey;
+        this.rabbitQueueBase = rabbitQueue;
+        this.ring = new ConsistentHashRing(shardCount, POINTS_PER_SHARD);
+        for (int shard = 0; shard < shardCount; shard++) {
+            redisKeys.add(redisKeyName(redisKey, shard));
+            rabbitQueues.add(rabbitQueueName(rabbitQueue, shard));
+        }
+    }
+
+    /**
+     * Gives the number of shards.
+     *
+     * @return the number of shards
+     */
+    public int count() {
+        return redisKeys.size();
+    }
+
+    /**
+     * Gives the shard holding a user's request.
+     *
+     * @param userId the ID of the user
+     * @return the index of the shard
+     */
+    public int shardOf(String userId) {
+        return redisKeys.size() == 1 ? 0 : ring.nodeOf(userId);
+    }
+
+    /**
+     * Gives the Redis sorted set of a shard, also of shards beyond the current count.
+     *
+     * @param shard the index of the shard
+     * @return the Redis key
+     */
+    public String redisKey(int shard) {
+        return shard < redisKeys.size() ? redisKeys.get(shard) : redisKeyName(redisKeyBase, shard);
+    }
+
+    /**
+     * Gives the Redis sorted set of the unsharded queue, from before the shards' keys carried a hash tag.
+     *
+     * @return the Redis key
+     */
+    public String legacyRedisKey() {
+        return redisKeyBase;
+    }
+
+    /**
+     * Gives the Redis hash holding the encoded requests of the unsharded queue, from before the hash tag.
+     *
+     * @return the Redis key
+     */
+    public String legacyPayloadKey() {
+        return redisKeyBase + ":payloads";
+    }
+
+    /**
+     * Gives the Redis sorted set holding a user's request.
+     *
+     * @param userId the ID of the user
+     * @return the Redis key
+     */
+    public String redisKeyOf(String userId) {
+        return redisKeys.get(shardOf(userId));
+    }
+
+    /**
+     * Gives the Redis hash holding the encoded requests of a shard until they are dispatched
+     * (see TripRequestScheduler), also of shards beyond the current count.
+     *
+     * @param shard the index of the shard
+     * @return the Redis key
+     */
+    public String payloadKey(int shard) {
+        return redisKey(shard) + ":payloads";
+    }
+
+    /**
+     * Gives the Redis hash holding a user's encoded request.
+     *
+     * @param userId the ID of the user
+     * @return the Redis key
+     */
+    public String payloadKeyOf(String userId) {
+        return payloadKey(shardOf(userId));
+    }
+
+    /**
+     * Gives the RabbitMQ queue of a shard, also of shards beyond the current count.
+     *
+     * @param shard the index of the shard
+     * @return the queue name
+     */
+    public String rabbitQueue(int shard) {
+        return shard < rabbitQueues.size() ? rabbitQueues.get(shard) : rabbitQueueName(rabbitQueueBase, shard);
+    }
+
+    /**
+     * Gives the RabbitMQ queue holding a shard's failed requests until they are retried, also of shards beyond
+     * the current count. The queue has no consumers; its messages expire into the shard's queue.
+     *
+     * @param shard the index of the shard
+     * @return the queue name
+     */
+    public String delayQueue(int shard) {
+        return rabbitQueue(shard) + ".delay";
+    }
+
+    /**
+     * Gives the RabbitMQ queue carrying a user's request.
+     *
+     * @param userId the ID of the user
+     * @return the queue name
+     */
+    public String rabbitQueueOf(String userId) {
+        return rabbitQueues.get(shardOf(userId));
+    }
+
+    /**
+     * Gives the shard a Redis key belongs to.
+     *
+     * @param redisKey the Redis key
+     * @return the index of the shard, or -1 if the key is not a shard of this queue
+     */
+    public int shardOfRedisKey(String redisKey) {
+        return redisKeys.indexOf(redisKey);
+    }
+
+    private static String redisKeyName(String base, int shard) {
+        return base + ":{" + shard + "}";
+    }
+
+    private static String rabbitQueueName(String base, int shard) {
+        return shard == 0 ? base : base + "." + shard;
+    }
+}
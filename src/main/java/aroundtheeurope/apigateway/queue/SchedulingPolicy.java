@@ -0,0 +1,60 @@
+package aroundtheeurope.apigateway.queue;
+
+import aroundtheeurope.apigateway.dto.ForwardedTripRequestDTO;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Policy ordering queued trip requests for dispatch.
+ * A request is scored by its arrival time plus the delay the policy gives it, and requests are dispatched
+ * in score order. A delay lets requests arriving up to that much later overtake the request, but no more:
+ * capping the delay (see capped) bounds how long any request can be passed over, so nothing starves.
+ */
+@FunctionalInterface
+public interface SchedulingPolicy {
+
+    /**
+     * First come, first served.
+     */
+    SchedulingPolicy FIFO = (request, priorityClass) -> 0;
+
+    /**
+     * Gives the delay of a request.
+     *
+     * @param request the trip request
+     * @param priorityClass the priority class of the requesting user, or null if they have none
+     * @return the delay in milliseconds, never negative
+     */
+    long delayMillis(ForwardedTripRequestDTO request, String priorityClass);
+
+    /**
+     * Caps the delays of this policy.
+     *
+     * @param maxDelay the longest delay any request gets
+     * @return the capped policy
+     */
+    default SchedulingPolicy capped(Duration maxDelay) {
+        long maxDelayMillis = maxDelay.toMillis();
+        return (request, priorityClass) -> Math.min(delayMillis(request, priorityClass), maxDelayMillis);
+    }
+
+    /**
+     * Combines policies by adding up their delays.
+     *
+     * @param policies the policies to combine
+     * @return the combined policy
+     */
+    static SchedulingPolicy combine(List<SchedulingPolicy> policies) {
+        if (policies.size() == 1) {
+            return policies.get(0);
+        }
+        return (request, priorityClass) -> {
+            long delay = 0;
+            for (SchedulingPolicy policy : policies) {
+                delay += policy.delayMillis(request, priorityClass);
+            }
+            return delay;
+        };
+    }
+}
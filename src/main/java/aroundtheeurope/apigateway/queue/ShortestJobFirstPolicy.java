@@ -0,0 +1,30 @@
+package aroundtheeurope.apigateway.queue;
+
+import aroundtheeurope.apigateway.dto.ForwardedTripRequestDTO;
+
+import java.time.Duration;
+
+/**
+ * Scheduling policy dispatching the searches expected to finish soonest first.
+ * A search runs until its time limit at most, so the limit is taken as its expected length and the request is
+ * delayed in proportion to it: with two seconds per second, a 120 second search waits behind 10 second searches
+ * submitted up to 220 seconds after it.
+ */
+public class ShortestJobFirstPolicy implements SchedulingPolicy {
+
+    private final double delayMillisPerSecond;
+
+    /**
+     * Constructs a ShortestJobFirstPolicy.
+     *
+     * @param delayPerSecond the delay per second of a search's time limit
+     */
+    public ShortestJobFirstPolicy(Duration delayPerSecond) {
+        this.delayMillisPerSecond = delayPerSecond.toMillis();
+    }
+
+    @Override
+    public long delayMillis(ForwardedTripRequestDTO request, String priorityClass) {
+        return Math.round(Math.max(request.getTimeLimitSeconds(), 0) * delayMillisPerSecond);
+    }
+}
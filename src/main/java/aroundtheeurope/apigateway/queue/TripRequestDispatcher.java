@@ -0,0 +1,121 @@
+package aroundtheeurope.apigateway.queue;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Dispatcher moving scheduled trip requests from Redis to RabbitMQ as the listeners are ready for them.
+ * Every shard's RabbitMQ queue is kept at no more than a few ready messages, so the order requests reach
+ * the trip service in is decided by the scheduler up to the last moment rather than by the order they arrived in.
+ * Every node runs a dispatcher; releasing requests is atomic in Redis, so each request is sent once, though
+ * together the nodes may briefly fill a queue past its limit.
+ * Failed requests waiting in a shard's delay queue count towards its limit, as they come back into the queue.
+ */
+@Component
+public class TripRequestDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(TripRequestDispatcher.class);
+
+    private final TripRequestScheduler tripRequestScheduler;
+    private final QueueShards queueShards;
+    private final RabbitTemplate rabbitTemplate;
+    private final AmqpAdmin amqpAdmin;
+    private final int readyMessages;
+    private final Counter dispatched;
+    private final Counter redispatched;
+
+    /**
+     * Constructor for TripRequestDispatcher, autowiring necessary components.
+     *
+     * @param tripRequestScheduler the scheduler releasing the requests in dispatch order
+     * @param queueShards the shards of the trip request queue
+     * @param rabbitTemplate the RabbitTemplate sending the released requests
+     * @param amqpAdmin looks up how many messages are waiting in a shard's queue and delay queue
+     * @param meterRegistry the registry holding the dispatch metrics
+     * @param readyMessages the number of messages kept waiting in each shard's queue
+     */
+    @Autowired
+    public TripRequestDispatcher(
+            TripRequestScheduler tripRequestScheduler,
+            QueueShards queueShards,
+            RabbitTemplate rabbitTemplate,
+            AmqpAdmin amqpAdmin,
+            MeterRegistry meterRegistry,
+            @Value("${gateway.scheduler.ready-messages:4}") int readyMessages
+    ) {
+        this.tripRequestScheduler = tripRequestScheduler;
+        this.queueShards = queueShards;
+        this.rabbitTemplate = rabbitTemplate;
+        this.amqpAdmin = amqpAdmin;
+        this.readyMessages = readyMessages;
+        this.dispatched = meterRegistry.counter("gateway.scheduler.dispatched");
+        this.redispatched = meterRegistry.counter("gateway.scheduler.redispatched");
+    }
+
+    /**
+     * Tops up the RabbitMQ queue of every shard with the next scheduled requests.
+     */
+    @Scheduled(fixedDelayString = "${gateway.scheduler.dispatch-interval-ms:200}")
+    public void dispatch() {
+        for (int shard = 0; shard < queueShards.count(); shard++) {
+            String queue = queueShards.rabbitQueue(shard);
+            try {
+                QueueInformation queueInformation = amqpAdmin.getQueueInfo(queue);
+                if (queueInformation == null) {
+                    continue;
+                }
+                QueueInformation delayInformation = amqpAdmin.getQueueInfo(queueShards.delayQueue(shard));
+                int limit = readyMessages - queueInformation.getMessageCount()
+                        - (delayInformation != null ? delayInformation.getMessageCount() : 0);
+                if (limit <= 0) {
+                    continue;
+                }
+                TripRequestScheduler.Released released = tripRequestScheduler.release(shard, limit);
+                redispatched.increment(released.redispatched());
+                send(shard, queue, released);
+            } catch (DataAccessException | AmqpException e) {
+                log.warn("Failed to dispatch trip requests to {}", queue, e);
+            }
+        }
+    }
+
+    /**
+     * Helper method to send the released requests in dispatch order.
+     * If a send fails, the requests not sent yet are put back in their place in the queue, so they do not rank
+     * first until the redispatch timeout; should that fail too, they are released again after the timeout.
+     * The request whose send failed is put back as well, a copy that reached RabbitMQ anyway is dropped by the
+     * listener as an earlier release.
+     */
+    private void send(int shard, String queue, TripRequestScheduler.Released released) {
+        List<TripRequestScheduler.ReleasedRequest> requests = released.requests();
+        int sent = 0;
+        try {
+            for (; sent < requests.size(); sent++) {
+                rabbitTemplate.send(queue, requests.get(sent).message());
+            }
+        } catch (AmqpException e) {
+            try {
+                int restored = tripRequestScheduler.restore(shard, released, requests.subList(sent, requests.size()));
+                log.debug("Put {} unsent trip requests back in the queue of shard {}", restored, shard);
+            } catch (DataAccessException restoreFailure) {
+                e.addSuppressed(restoreFailure);
+            }
+            throw e;
+        } finally {
+            dispatched.increment(sent);
+        }
+    }
+}
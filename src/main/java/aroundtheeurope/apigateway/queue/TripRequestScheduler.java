@@ -0,0 +1,219 @@
+package aroundtheeurope.apigateway.queue;
+
+import aroundtheeurope.apigateway.dto.ForwardedTripRequestDTO;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Scheduler stage between queuing a trip request and dispatching it to RabbitMQ.
+ * A queued request is scored by the scheduling policy and kept in Redis, its shard's sorted set holding the
+ * dispatch order and a hash holding the encoded request. The dispatcher releases the lowest scored requests
+ * to RabbitMQ only as the listeners are ready for them, so the order of the sorted set is the order requests
+ * are sent to the trip service in, and a user's rank in it is their actual position.
+ * Released requests stay in the sorted set, ranked before all waiting ones, until the listener removes them.
+ * Each release gives the entry a new score, which its message carries in a header, so the listener can tell
+ * the copy of the latest release from copies of earlier ones.
+ */
+@Component
+public class TripRequestScheduler {
+
+    /**
+     * Subtracted from the release time of released requests, so they rank before all waiting requests.
+     * About 317 years of milliseconds; waiting requests are scored from their arrival time, released ones are negative.
+     */
+    static final long RELEASED_OFFSET = 10_000_000_000_000L;
+
+    /**
+     * Header of released messages holding the score their entry was given by the release.
+     */
+    public static final String RELEASED_SCORE_HEADER = "x-released-score";
+
+    private static final RedisScript<Long> ENQUEUE_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/enqueue-trip-request.lua"), Long.class);
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final RedisScript<List<Object>> RELEASE_SCRIPT =
+            (RedisScript) RedisScript.of(new ClassPathResource("scripts/release-trip-requests.lua"), List.class);
+    private static final RedisScript<Long> RESTORE_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/restore-trip-requests.lua"), Long.class);
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final QueueShards queueShards;
+    private final SchedulingPolicy schedulingPolicy;
+    private final Duration redispatchAfter;
+
+    /**
+     * Constructor for TripRequestScheduler, autowiring necessary components.
+     *
+     * @param redisTemplate the RedisTemplate holding the queue shards
+     * @param queueShards the shards of the trip request queue
+     * @param schedulingPolicy the policy scoring queued requests
+     * @param redispatchAfter how long after its release a request still in the queue is released again
+     */
+    @Autowired
+    public TripRequestScheduler(
+            RedisTemplate<String, String> redisTemplate,
+            QueueShards queueShards,
+            SchedulingPolicy schedulingPolicy,
+            @Value("${gateway.scheduler.redispatch-after:30m}") Duration redispatchAfter
+    ) {
+        this.redisTemplate = redisTemplate;
+        this.queueShards = queueShards;
+        this.schedulingPolicy = schedulingPolicy;
+        this.redispatchAfter = redispatchAfter;
+    }
+
+    /**
+     * Queues a trip request unless its user already has one queued.
+     * The duplicate check, the insert and storing the request take a single atomic script call.
+     *
+     * @param request the trip request
+     * @param priorityClass the priority class of the requesting user, or null if they have none
+     * @param contentType the content type of the encoded request
+     * @param body the encoded request
+     * @return true if the request was queued, false if the user already had one in the queue
+     */
+    public boolean enqueue(ForwardedTripRequestDTO request, String priorityClass, String contentType, byte[] body) {
+        String userId = request.getUserId();
+        long score = System.currentTimeMillis() + schedulingPolicy.delayMillis(request, priorityClass);
+        Long added = redisTemplate.execute(ENQUEUE_SCRIPT,
+                List.of(queueShards.redisKeyOf(userId), queueShards.payloadKeyOf(userId)),
+                userId, Long.toString(score), contentType + "\n" + Base64.getEncoder().encodeToString(body));
+        return added != null && added == 1;
+    }
+
+    /**
+     * Removes a user's request from the queue, whether it is still waiting or already released.
+     *
+     * @param userId the ID of the user
+     * @return true if the user had a request in the queue
+     */
+    public boolean remove(String userId) {
+        String queueKey = queueShards.redisKeyOf(userId);
+        String payloadKey = queueShards.payloadKeyOf(userId);
+        List<Object> results = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> stringOperations = strings(operations);
+                stringOperations.opsForZSet().remove(queueKey, userId);
+                stringOperations.opsForHash().delete(payloadKey, userId);
+                return null;
+            }
+        });
+        return results.get(0) instanceof Long removed && removed > 0;
+    }
+
+    /**
+     * Releases the next requests of a shard for dispatch, lowest score first.
+     *
+     * @param shard the index of the shard
+     * @param limit the maximum number of requests to release
+     * @return the released requests; requests queued by older gateways are released without a message
+     */
+    public Released release(int shard, int limit) {
+        List<Object> result = redisTemplate.execute(RELEASE_SCRIPT,
+                List.of(queueShards.redisKey(shard), queueShards.payloadKey(shard)),
+                Integer.toString(limit), Long.toString(RELEASED_OFFSET), Long.toString(redispatchAfter.toMillis()));
+        if (result == null || result.isEmpty()) {
+            return new Released(List.of(), 0, 0);
+        }
+        long releasedScore = (Long) result.get(1);
+        List<ReleasedRequest> requests = new ArrayList<>();
+        for (int i = 2; i + 2 < result.size(); i += 3) {
+            Message message = decode((String) result.get(i + 2), releasedScore);
+            if (message != null) {
+                requests.add(new ReleasedRequest((String) result.get(i), (String) result.get(i + 1), message));
+            }
+        }
+        return new Released(requests, releasedScore, ((Long) result.get(0)).intValue());
+    }
+
+    /**
+     * Puts released requests whose message was not sent back to the scores they had before the release,
+     * unless they were removed or released again since.
+     *
+     * @param shard the index of the shard
+     * @param released the release the requests came from
+     * @param unsent the requests of that release whose message was not sent
+     * @return the number of requests put back
+     */
+    public int restore(int shard, Released released, List<ReleasedRequest> unsent) {
+        if (unsent.isEmpty()) {
+            return 0;
+        }
+        List<String> args = new ArrayList<>(1 + 2 * unsent.size());
+        args.add(Long.toString(released.score()));
+        for (ReleasedRequest request : unsent) {
+            args.add(request.userId());
+            args.add(request.previousScore());
+        }
+        Long restored = redisTemplate.execute(RESTORE_SCRIPT, List.of(queueShards.redisKey(shard)), args.toArray());
+        return restored != null ? restored.intValue() : 0;
+    }
+
+    /**
+     * Helper method to turn a stored request back into a RabbitMQ message.
+     *
+     * @param payload the content type and the Base64 encoded request, separated by a line break
+     * @param releasedScore the score the release gave the request's entry
+     * @return the message, or null if nothing was stored
+     */
+    private static Message decode(String payload, long releasedScore) {
+        int separator = payload.indexOf('\n');
+        if (separator < 0) {
+            return null;
+        }
+        return MessageBuilder.withBody(Base64.getDecoder().decode(payload.substring(separator + 1)))
+                .setContentType(payload.substring(0, separator))
+                .setDeliveryMode(MessageDeliveryMode.PERSISTENT)
+                .setHeader(RELEASED_SCORE_HEADER, releasedScore)
+                .build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> RedisOperations<String, String> strings(RedisOperations<K, V> operations) {
+        return (RedisOperations<String, String>) operations;
+    }
+
+    /**
+     * The requests released by one call.
+     *
+     * @param requests the requests to send, in dispatch order
+     * @param score the score the release gave their entries
+     * @param redispatched how many of the released requests had been released before
+     */
+    public record Released(List<ReleasedRequest> requests, long score, int redispatched) {
+
+        /**
+         * Gives the messages of the released requests.
+         *
+         * @return the messages to send, in dispatch order
+         */
+        public List<Message> messages() {
+            return requests.stream().map(ReleasedRequest::message).toList();
+        }
+    }
+
+    /**
+     * A released request.
+     *
+     * @param userId the ID of the requesting user
+     * @param previousScore the score of its entry before the release, as Redis formats it
+     * @param message the message to send
+     */
+    public record ReleasedRequest(String userId, String previousScore, Message message) {
+    }
+}
@@ -0,0 +1,303 @@
+package aroundtheeurope.apigateway.resilience;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Runs idempotent upstream calls with hedging and retries, both paid for from a shared RetryBudget.
+ * Hedging: if an attempt has not answered within the route's observed p95 latency, a second one is sent
+ * and whichever answers first wins; the other is cancelled. Retrying: a failed call is repeated after a
+ * jittered exponential backoff. Only routes listed in the configuration are handled, and callers must
+ * only pass calls that are safe to repeat.
+ * Attempts run on virtual threads, so cancelling one interrupts its blocking socket read and frees the connection.
+ */
+@Component
+public class HedgedRequestExecutor {
+
+    private static final int MIN_LATENCY_SAMPLES = 20;
+    private static final long P95_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, RouteLatency> latencyByRoute = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+    private final RetryBudget retryBudget;
+    private final Set<String> hedgedRoutes;
+    private final Set<String> retriedRoutes;
+    private final Duration minHedgeDelay;
+    private final int maxAttempts;
+    private final Duration backoff;
+    private final Counter hedges;
+    private final Counter hedgesWon;
+    private final Counter retries;
+    private final Counter budgetExhausted;
+
+    /**
+     * Constructor for HedgedRequestExecutor, autowiring necessary components.
+     *
+     * @param meterRegistry the registry holding the route latencies and hedging metrics
+     * @param hedgedRoutes the routes whose calls are hedged
+     * @param retriedRoutes the routes whose failed calls are retried
+     * @param minHedgeDelay the shortest wait before hedging, however fast the route usually is
+     * @param maxAttempts the maximum number of attempt rounds per call, including the first
+     * @param backoff the base backoff before the first retry, doubled for every further one
+     * @param budgetRatio the number of extra attempts allowed per original call
+     * @param budgetReserve the number of extra attempts available up front
+     */
+    @Autowired
+    public HedgedRequestExecutor(
+            MeterRegistry meterRegistry,
+            @Value("${gateway.hedging.routes:}") Set<String> hedgedRoutes,
+            @Value("${gateway.retry.routes:}") Set<String> retriedRoutes,
+            @Value("${gateway.hedging.min-delay:20ms}") Duration minHedgeDelay,
+            @Value("${gateway.retry.max-attempts:2}") int maxAttempts,
+            @Value("${gateway.retry.backoff:50ms}") Duration backoff,
+            @Value("${gateway.retry-budget.ratio:0.1}") double budgetRatio,
+            @Value("${gateway.retry-budget.reserve:10}") int budgetReserve
+    ) {
+        this.meterRegistry = meterRegistry;
+        this.hedgedRoutes = hedgedRoutes;
+        this.retriedRoutes = retriedRoutes;
+        this.minHedgeDelay = minHedgeDelay;
+        this.maxAttempts = maxAttempts;
+        this.backoff = backoff;
+        this.retryBudget = new RetryBudget(budgetRatio, budgetReserve);
+        this.hedges = meterRegistry.counter("gateway.hedging.hedges");
+        this.hedgesWon = meterRegistry.counter("gateway.hedging.hedges.won");
+        this.retries = meterRegistry.counter("gateway.hedging.retries");
+        this.budgetExhausted = meterRegistry.counter("gateway.hedging.budget.exhausted");
+        meterRegistry.gauge("gateway.hedging.budget.available", retryBudget, RetryBudget::available);
+    }
+
+    /**
+     * Runs an idempotent call for the given route, hedging and retrying it if the route allows it.
+     * Calls refused by a circuit breaker or bulkhead are never repeated.
+     *
+     * @param route the route of the call, e.g. one of the ResponseCacheService.ROUTE_* constants (can be null)
+     * @param attempt makes one attempt of the call; must be safe to run several times, also concurrently
+     * @param isFailure tells which results are worth another attempt, e.g. 5xx responses
+     * @param <T> the result type
+     * @return the result of the winning or last attempt
+     */
+    public <T> T execute(String route, Supplier<T> attempt, Predicate<T> isFailure) {
+        boolean hedged = route != null && hedgedRoutes.contains(route);
+        boolean retried = route != null && retriedRoutes.contains(route);
+        if (!hedged && !retried) {
+            return attempt.get();
+        }
+
+        retryBudget.deposit();
+        RouteLatency latency = latencyByRoute.computeIfAbsent(route, this::newRouteLatency);
+        int rounds = retried ? maxAttempts : 1;
+        for (int round = 1; ; round++) {
+            Outcome<T> outcome = hedged ? runHedged(latency, attempt, isFailure) : run(latency, attempt, isFailure);
+            if (!outcome.failed() || outcome.refused() || round >= rounds) {
+                return outcome.get();
+            }
+            if (!retryBudget.tryWithdraw()) {
+                budgetExhausted.increment();
+                return outcome.get();
+            }
+            retries.increment();
+            if (!sleep(jitteredBackoff(round))) {
+                return outcome.get();
+            }
+        }
+    }
+
+    /**
+     * Helper method to run one attempt and, if it is slower than the route's p95, a hedge next to it.
+     */
+    private <T> Outcome<T> runHedged(RouteLatency latency, Supplier<T> attempt, Predicate<T> isFailure) {
+        long hedgeDelayNanos = latency.hedgeDelayNanos();
+        if (hedgeDelayNanos <= 0) {
+            return run(latency, attempt, isFailure);
+        }
+
+        CompletableFuture<Outcome<T>> first = new CompletableFuture<>();
+        Future<?> firstTask = submit(first, latency, attempt, isFailure);
+        try {
+            return first.get(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // Too slow, hedge below
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            firstTask.cancel(true);
+            return Outcome.failure(new IllegalStateException("Interrupted while waiting for the upstream", e));
+        } catch (ExecutionException e) {
+            return Outcome.failure(e.getCause());
+        }
+
+        if (!retryBudget.tryWithdraw()) {
+            budgetExhausted.increment();
+            return first.join();
+        }
+        hedges.increment();
+        CompletableFuture<Outcome<T>> second = new CompletableFuture<>();
+        Future<?> secondTask = submit(second, latency, attempt, isFailure);
+
+        try {
+            CompletableFuture.anyOf(first, second).join();
+            Outcome<T> winner = first.isDone() ? first.join() : second.join();
+            if (winner.failed()) {
+                // The other attempt may still succeed
+                CompletableFuture<Outcome<T>> other = winner == first.getNow(null) ? second : first;
+                winner = other.join();
+            }
+            if (second.isDone() && winner == second.getNow(null)) {
+                hedgesWon.increment();
+            }
+            return winner;
+        } finally {
+            firstTask.cancel(true);
+            secondTask.cancel(true);
+        }
+    }
+
+    /**
+     * Helper method to start an attempt on a virtual thread.
+     * The outcome is always completed, so waiting for it cannot hang.
+     */
+    private <T> Future<?> submit(
+            CompletableFuture<Outcome<T>> outcome,
+            RouteLatency latency,
+            Supplier<T> attempt,
+            Predicate<T> isFailure
+    ) {
+        return executor.submit(() -> {
+            try {
+                outcome.complete(run(latency, attempt, isFailure));
+            } catch (Throwable t) {
+                outcome.complete(Outcome.failure(t));
+            }
+        });
+    }
+
+    /**
+     * Helper method to run a single attempt, recording its latency when it succeeds.
+     */
+    private <T> Outcome<T> run(RouteLatency latency, Supplier<T> attempt, Predicate<T> isFailure) {
+        long start = System.nanoTime();
+        try {
+            T result = attempt.get();
+            boolean failed = isFailure.test(result);
+            if (!failed) {
+                latency.timer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+            return new Outcome<>(result, null, failed);
+        } catch (RuntimeException e) {
+            return Outcome.failure(e);
+        }
+    }
+
+    private long jitteredBackoff(int round) {
+        long maxMillis = backoff.toMillis() << Math.min(round - 1, 10);
+        // Full jitter, so retries of many clients failing together do not arrive together
+        return ThreadLocalRandom.current().nextLong(maxMillis + 1);
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private RouteLatency newRouteLatency(String route) {
+        Timer timer = Timer.builder("gateway.hedging.route.latency")
+                .tag("route", route)
+                .publishPercentiles(0.95)
+                .distributionStatisticExpiry(Duration.ofMinutes(1))
+                .register(meterRegistry);
+        return new RouteLatency(timer, minHedgeDelay.toNanos());
+    }
+
+    /**
+     * Observed latency of a route, with its p95 cached for a second so it is not computed on every call.
+     */
+    private static final class RouteLatency {
+
+        private final Timer timer;
+        private final long minHedgeDelayNanos;
+        private volatile long p95Nanos;
+        private volatile long refreshedAt = System.nanoTime() - P95_REFRESH_NANOS;
+
+        RouteLatency(Timer timer, long minHedgeDelayNanos) {
+            this.timer = timer;
+            this.minHedgeDelayNanos = minHedgeDelayNanos;
+        }
+
+        Timer timer() {
+            return timer;
+        }
+
+        /**
+         * Tells how long to wait before hedging.
+         *
+         * @return the delay in nanoseconds, or 0 while too few calls were observed to know the p95
+         */
+        long hedgeDelayNanos() {
+            long now = System.nanoTime();
+            if (now - refreshedAt >= P95_REFRESH_NANOS) {
+                refreshedAt = now;
+                long p95 = 0;
+                if (timer.count() >= MIN_LATENCY_SAMPLES) {
+                    for (ValueAtPercentile percentile : timer.takeSnapshot().percentileValues()) {
+                        p95 = (long) percentile.value(TimeUnit.NANOSECONDS);
+                    }
+                }
+                p95Nanos = p95;
+            }
+            return p95Nanos == 0 ? 0 : Math.max(p95Nanos, minHedgeDelayNanos);
+        }
+    }
+
+    /**
+     * Result of one attempt: either a value, which may still count as a failure, or an exception.
+     */
+    private record Outcome<T>(T value, Throwable error, boolean failed) {
+
+        static <T> Outcome<T> failure(Throwable error) {
+            return new Outcome<>(null, error, true);
+        }
+
+        boolean refused() {
+            return error instanceof UpstreamUnavailableException;
+        }
+
+        T get() {
+            if (error instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (error instanceof Error fatal) {
+                throw fatal;
+            }
+            if (error != null) {
+                throw new IllegalStateException(error);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package aroundtheeurope.apigateway.resilience;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Budget capping extra attempts (retries and hedges) to a fraction of the original requests.
+ * Every original request deposits the configured ratio of a token and every extra attempt withdraws a whole one,
+ * so however many requests fail, the upstream sees at most (1 + ratio) times the normal load.
+ * A small reserve lets the first few extra attempts through after startup or a quiet period.
+ */
+public class RetryBudget {
+
+    // Tokens are kept in thousandths so deposits of a fraction need no floating point
+    private static final long SCALE = 1000;
+
+    private final long deposit;
+    private final long maxBalance;
+    private final AtomicLong balance;
+
+    /**
+     * Constructs a RetryBudget.
+     *
+     * @param ratio the number of extra attempts allowed per original request, e.g. 0.1 for 10%
+     * @param reserve the number of extra attempts available up front and the cap on saved-up attempts
+     */
+    public RetryBudget(double ratio, int reserve) {
+        this.deposit = Math.round(ratio * SCALE);
+        this.maxBalance = Math.max(reserve, 1) * SCALE;
+        this.balance = new AtomicLong(maxBalance);
+    }
+
+    /**
+     * Records an original request.
+     */
+    public void deposit() {
+        balance.getAndUpdate(current -> Math.min(maxBalance, current + deposit));
+    }
+
+    /**
+     * Takes one extra attempt from the budget.
+     *
+     * @return true if the attempt may be made
+     */
+    public boolean tryWithdraw() {
+        long current;
+        do {
+            current = balance.get();
+            if (current < SCALE) {
+                return false;
+            }
+        } while (!balance.compareAndSet(current, current - SCALE));
+        return true;
+    }
+
+    /**
+     * Tells how many extra attempts are currently available.
+     *
+     * @return the available extra attempts
+     */
+    public double available() {
+        return (double) balance.get() / SCALE;
+    }
+}
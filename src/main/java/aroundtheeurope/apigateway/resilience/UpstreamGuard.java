@@ -0,0 +1,148 @@
+package aroundtheeurope.apigateway.resilience;
+
+import aroundtheeurope.apigateway.sideFunctions.UpstreamAuthority;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Guards calls to upstream services with a circuit breaker and a bulkhead per upstream.
+ * The circuit breaker opens when too many calls in its sliding window fail or are slow,
+ * the bulkhead bounds the number of concurrent calls, so one slow upstream cannot tie up every request thread.
+ * Refused calls fail fast with an UpstreamUnavailableException instead of waiting.
+ * Since RestTemplate passes every response through, the caller tells which results count as failures.
+ */
+public class UpstreamGuard {
+
+    private static final long BULKHEAD_RETRY_AFTER_MS = 1000;
+
+    private final CircuitBreakerRegistry circuitBreakers = CircuitBreakerRegistry.ofDefaults();
+    private final BulkheadRegistry bulkheads = BulkheadRegistry.ofDefaults();
+    private final Map<String, String> upstreamsByAuthority = new ConcurrentHashMap<>();
+    private final Map<String, Long> retryAfterByUpstream = new ConcurrentHashMap<>();
+
+    /**
+     * Registers an upstream service with its own circuit breaker and bulkhead.
+     *
+     * @param upstream the name of the upstream service
+     * @param baseUrl the base URL of the service, used to recognise calls to it (can be null)
+     * @param circuitBreakerConfig the circuit breaker settings
+     * @param bulkheadConfig the bulkhead settings
+     */
+    public void register(
+            String upstream,
+            String baseUrl,
+            CircuitBreakerConfig circuitBreakerConfig,
+            BulkheadConfig bulkheadConfig
+    ) {
+        circuitBreakers.circuitBreaker(upstream, circuitBreakerConfig);
+        bulkheads.bulkhead(upstream, bulkheadConfig);
+        retryAfterByUpstream.put(upstream, circuitBreakerConfig.getWaitIntervalFunctionInOpenState().apply(1));
+        if (baseUrl != null) {
+            upstreamsByAuthority.put(UpstreamAuthority.of(URI.create(baseUrl)), upstream);
+        }
+    }
+
+    /**
+     * Runs a call to the upstream service serving the given URI.
+     * Calls to hosts that were not registered run unguarded.
+     *
+     * @param uri the target URI of the call
+     * @param call the call to run
+     * @param isFailure tells which results count as failures, e.g. 5xx responses
+     * @param <T> the result type
+     * @return the result of the call
+     * @throws UpstreamUnavailableException if the call is refused
+     */
+    public <T> T call(URI uri, Supplier<T> call, Predicate<T> isFailure) {
+        String upstream = upstreamsByAuthority.get(UpstreamAuthority.of(uri));
+        return upstream != null ? call(upstream, call, isFailure) : call.get();
+    }
+
+    /**
+     * Runs a call to the named upstream service.
+     *
+     * @param upstream the name of the upstream service
+     * @param call the call to run
+     * @param isFailure tells which results count as failures, e.g. 5xx responses
+     * @param <T> the result type
+     * @return the result of the call
+     * @throws UpstreamUnavailableException if the call is refused
+     */
+    public <T> T call(String upstream, Supplier<T> call, Predicate<T> isFailure) {
+        CircuitBreaker circuitBreaker = circuitBreakers.find(upstream).orElse(null);
+        Bulkhead bulkhead = bulkheads.find(upstream).orElse(null);
+        if (circuitBreaker == null || bulkhead == null) {
+            return call.get();
+        }
+
+        if (!circuitBreaker.tryAcquirePermission()) {
+            throw new UpstreamUnavailableException(upstream, "circuit breaker is open",
+                    retryAfterByUpstream.getOrDefault(upstream, BULKHEAD_RETRY_AFTER_MS));
+        }
+        if (!bulkhead.tryAcquirePermission()) {
+            circuitBreaker.releasePermission();
+            throw new UpstreamUnavailableException(upstream, "too many concurrent calls", BULKHEAD_RETRY_AFTER_MS);
+        }
+
+        long start = System.nanoTime();
+        try {
+            T result = call.get();
+            long duration = System.nanoTime() - start;
+            if (isFailure.test(result)) {
+                circuitBreaker.onError(duration, TimeUnit.NANOSECONDS, new UpstreamFailureException(upstream));
+            } else {
+                circuitBreaker.onSuccess(duration, TimeUnit.NANOSECONDS);
+            }
+            return result;
+        } catch (RuntimeException | Error e) {
+            if (Thread.currentThread().isInterrupted()) {
+                // Cancelled by the caller, e.g. a hedged attempt that lost; says nothing about the upstream
+                circuitBreaker.releasePermission();
+            } else {
+                circuitBreaker.onError(System.nanoTime() - start, TimeUnit.NANOSECONDS, e);
+            }
+            throw e;
+        } finally {
+            bulkhead.onComplete();
+        }
+    }
+
+    /**
+     * Gives access to the circuit breakers, e.g. to expose their state.
+     *
+     * @return the circuit breaker registry
+     */
+    public CircuitBreakerRegistry getCircuitBreakers() {
+        return circuitBreakers;
+    }
+
+    /**
+     * Gives access to the bulkheads, e.g. to expose their state.
+     *
+     * @return the bulkhead registry
+     */
+    public BulkheadRegistry getBulkheads() {
+        return bulkheads;
+    }
+
+    /**
+     * Recorded by the circuit breaker for calls that completed with a failed result.
+     */
+    static class UpstreamFailureException extends RuntimeException {
+
+        UpstreamFailureException(String upstream) {
+            super(upstream + " returned a failed result", null, false, false);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package aroundtheeurope.apigateway.resilience;
+
+/**
+ * Thrown when a call to an upstream service is refused without being made,
+ * because its circuit breaker is open or its bulkhead is full.
+ * Controllers answer it with 503 Service Unavailable.
+ */
+public class UpstreamUnavailableException extends RuntimeException {
+
+    private final String upstream;
+    private final long retryAfterMillis;
+
+    /**
+     * Constructs an UpstreamUnavailableException.
+     *
+     * @param upstream the name of the refused upstream service
+     * @param reason why the call was refused
+     * @param retryAfterMillis the suggested time to wait before retrying, in milliseconds
+     */
+    public UpstreamUnavailableException(String upstream, String reason, long retryAfterMillis) {
+        super(upstream + " is unavailable: " + reason);
+        this.upstream = upstream;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public String getUpstream() {
+        return upstream;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,118 @@
+package aroundtheeurope.apigateway.resilience;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Actuator endpoint showing the circuit breaker and bulkhead state of every upstream at /actuator/upstreams.
+ * A circuit breaker can be forced into a state, e.g. to stop traffic to an upstream during maintenance.
+ * Only callers with the management authority may use it (see SecurityConfig).
+ */
+@Component
+@Endpoint(id = "upstreams")
+public class UpstreamsEndpoint {
+
+    private final UpstreamGuard upstreamGuard;
+
+    /**
+     * Constructor for UpstreamsEndpoint, autowiring the UpstreamGuard.
+     *
+     * @param upstreamGuard the guard holding the circuit breakers and bulkheads
+     */
+    public UpstreamsEndpoint(UpstreamGuard upstreamGuard) {
+        this.upstreamGuard = upstreamGuard;
+    }
+
+    /**
+     * Lists the state of all upstreams.
+     *
+     * @return the state of every upstream by name
+     */
+    @ReadOperation
+    public Map<String, UpstreamState> upstreams() {
+        Map<String, UpstreamState> upstreams = new LinkedHashMap<>();
+        for (CircuitBreaker circuitBreaker : upstreamGuard.getCircuitBreakers().getAllCircuitBreakers()) {
+            upstreams.put(circuitBreaker.getName(), stateOf(circuitBreaker));
+        }
+        return upstreams;
+    }
+
+    /**
+     * Shows the state of one upstream.
+     *
+     * @param name the upstream name
+     * @return the upstream state, or null if there is no such upstream
+     */
+    @ReadOperation
+    public UpstreamState upstream(@Selector String name) {
+        return upstreamGuard.getCircuitBreakers().find(name).map(this::stateOf).orElse(null);
+    }
+
+    /**
+     * Moves the circuit breaker of an upstream into the given state.
+     *
+     * @param name the upstream name
+     * @param state one of CLOSED, OPEN, FORCED_OPEN, DISABLED or RESET
+     * @return the new upstream state, or null if there is no such upstream
+     */
+    @WriteOperation
+    public UpstreamState transition(@Selector String name, String state) {
+        CircuitBreaker circuitBreaker = upstreamGuard.getCircuitBreakers().find(name).orElse(null);
+        if (circuitBreaker == null) {
+            return null;
+        }
+        switch (state.toUpperCase()) {
+            case "CLOSED" -> circuitBreaker.transitionToClosedState();
+            case "OPEN" -> circuitBreaker.transitionToOpenState();
+            case "FORCED_OPEN" -> circuitBreaker.transitionToForcedOpenState();
+            case "DISABLED" -> circuitBreaker.transitionToDisabledState();
+            case "RESET" -> circuitBreaker.reset();
+            default -> throw new IllegalArgumentException("Unknown circuit breaker state: " + state);
+        }
+        return stateOf(circuitBreaker);
+    }
+
+    private UpstreamState stateOf(CircuitBreaker circuitBreaker) {
+        CircuitBreaker.Metrics metrics = circuitBreaker.getMetrics();
+        Bulkhead bulkhead = upstreamGuard.getBulkheads().find(circuitBreaker.getName()).orElse(null);
+        return new UpstreamState(
+                circuitBreaker.getState().name(),
+                metrics.getFailureRate(),
+                metrics.getSlowCallRate(),
+                metrics.getNumberOfBufferedCalls(),
+                metrics.getNumberOfNotPermittedCalls(),
+                bulkhead != null ? bulkhead.getMetrics().getAvailableConcurrentCalls() : -1,
+                bulkhead != null ? bulkhead.getMetrics().getMaxAllowedConcurrentCalls() : -1
+        );
+    }
+
+    /**
+     * State of an upstream's circuit breaker and bulkhead.
+     *
+     * @param state the circuit breaker state
+     * @param failureRate the failure rate in percent, or -1 while too few calls were recorded
+     * @param slowCallRate the slow call rate in percent, or -1 while too few calls were recorded
+     * @param bufferedCalls the number of calls in the sliding window
+     * @param notPermittedCalls the number of calls refused while the circuit was open
+     * @param availableConcurrentCalls the number of free bulkhead slots
+     * @param maxConcurrentCalls the bulkhead size
+     */
+    public record UpstreamState(
+            String state,
+            float failureRate,
+            float slowCallRate,
+            int bufferedCalls,
+            long notPermittedCalls,
+            int availableConcurrentCalls,
+            int maxConcurrentCalls
+    ) {
+    }
+}
@@ -0,0 +1,259 @@
+package aroundtheeurope.apigateway.routing;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Decides which headers cross the gateway, in both directions.
+ * Hop-by-hop headers (RFC 9110, section 7.6.1), including any header named in the Connection header,
+ * never cross it. Host and Content-Length are left to the HTTP client, which derives them from the target
+ * URI and the body actually sent. Towards the upstream, Authorization and the route's denied headers are
+ * dropped, a route with an allow list forwards only the listed headers, and X-Forwarded-* and Forwarded
+ * headers describing the client are added.
+ * The header name sets are built once per route, and lookups fold case without allocating.
+ */
+public final class HeaderPolicy {
+
+    /**
+     * Request attribute holding the policy of the route serving the request.
+     */
+    public static final String ATTRIBUTE = HeaderPolicy.class.getName();
+
+    private static final List<String> HOP_BY_HOP = List.of(
+            "Connection", "Keep-Alive", "Proxy-Connection", "Proxy-Authenticate", "Proxy-Authorization",
+            "TE", "Trailer", "Transfer-Encoding", "Upgrade"
+    );
+    private static final List<String> CLIENT_MANAGED = List.of(HttpHeaders.HOST, HttpHeaders.CONTENT_LENGTH);
+    private static final List<String> FORWARDED = List.of(
+            "X-Forwarded-For", "X-Forwarded-Proto", "X-Forwarded-Host", "X-Forwarded-Port", "Forwarded"
+    );
+    private static final List<String> DEFAULT_DENIED = List.of(HttpHeaders.AUTHORIZATION);
+
+    private static final HeaderNameSet RESPONSE_DROPPED = new HeaderNameSet(HOP_BY_HOP);
+    private static final HeaderNameSet BUFFERED_RESPONSE_DROPPED = new HeaderNameSet(concat(HOP_BY_HOP, CLIENT_MANAGED));
+
+    /**
+     * The policy of requests not served by a route of their own.
+     */
+    public static final HeaderPolicy DEFAULT = new HeaderPolicy(null, null);
+
+    private final HeaderNameSet dropped;
+    private final HeaderNameSet allowed;
+
+    /**
+     * Builds the policy of a route.
+     *
+     * @param allowedHeaders the only request headers forwarded upstream, or null to forward all that are not denied
+     * @param deniedHeaders request headers never forwarded upstream in addition to Authorization (can be null)
+     */
+    public HeaderPolicy(Collection<String> allowedHeaders, Collection<String> deniedHeaders) {
+        List<String> dropped = concat(concat(HOP_BY_HOP, CLIENT_MANAGED), concat(FORWARDED, DEFAULT_DENIED));
+        if (deniedHeaders != null) {
+            dropped.addAll(deniedHeaders);
+        }
+        this.dropped = new HeaderNameSet(dropped);
+        this.allowed = allowedHeaders != null ? new HeaderNameSet(allowedHeaders) : null;
+    }
+
+    /**
+     * Gets the policy the route table picked for a request.
+     *
+     * @param request the incoming request
+     * @return the route's policy, or the default one
+     */
+    public static HeaderPolicy of(HttpServletRequest request) {
+        return request.getAttribute(ATTRIBUTE) instanceof HeaderPolicy policy ? policy : DEFAULT;
+    }
+
+    /**
+     * Builds the headers of the upstream request from the incoming one.
+     * Every value of a repeated header is kept.
+     *
+     * @param request the incoming request
+     * @return the headers to send upstream
+     */
+    public HttpHeaders requestHeaders(HttpServletRequest request) {
+        HttpHeaders headers = new HttpHeaders();
+        String connection = request.getHeader(HttpHeaders.CONNECTION);
+        Enumeration<String> headerNames = request.getHeaderNames();
+        while (headerNames.hasMoreElements()) {
+            String headerName = headerNames.nextElement();
+            if (dropped.contains(headerName)
+                    || (allowed != null && !allowed.contains(headerName))
+                    || isListedIn(connection, headerName)) {
+                continue;
+            }
+            Enumeration<String> values = request.getHeaders(headerName);
+            while (values.hasMoreElements()) {
+                headers.add(headerName, values.nextElement());
+            }
+        }
+        addForwardedHeaders(request, headers);
+        return headers;
+    }
+
+    /**
+     * Copies the headers of a streamed upstream response to the servlet response.
+     * Content-Length is kept, since the body is passed through byte for byte.
+     *
+     * @param upstreamHeaders the headers of the upstream response
+     * @param response the servlet response
+     */
+    public static void copyResponseHeaders(HttpHeaders upstreamHeaders, HttpServletResponse response) {
+        String connection = upstreamHeaders.getFirst(HttpHeaders.CONNECTION);
+        for (Map.Entry<String, List<String>> header : upstreamHeaders.entrySet()) {
+            String headerName = header.getKey();
+            if (!RESPONSE_DROPPED.contains(headerName) && !isListedIn(connection, headerName)) {
+                for (String value : header.getValue()) {
+                    response.addHeader(headerName, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Filters the headers of a buffered upstream response, whose body the gateway writes again itself.
+     * Content-Length is dropped as well, since it is recomputed for the body actually written.
+     *
+     * @param upstreamHeaders the headers of the upstream response
+     * @return the headers to answer with
+     */
+    public static HttpHeaders responseHeaders(HttpHeaders upstreamHeaders) {
+        HttpHeaders headers = new HttpHeaders();
+        String connection = upstreamHeaders.getFirst(HttpHeaders.CONNECTION);
+        for (Map.Entry<String, List<String>> header : upstreamHeaders.entrySet()) {
+            String headerName = header.getKey();
+            if (!BUFFERED_RESPONSE_DROPPED.contains(headerName) && !isListedIn(connection, headerName)) {
+                headers.addAll(headerName, header.getValue());
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Helper method to describe the client to the upstream.
+     * X-Forwarded-For and Forwarded extend what earlier proxies sent; the others describe this hop.
+     *
+     * @param request the incoming request
+     * @param headers the headers to send upstream
+     */
+    private static void addForwardedHeaders(HttpServletRequest request, HttpHeaders headers) {
+        String remoteAddr = request.getRemoteAddr();
+        String host = request.getHeader(HttpHeaders.HOST);
+        if (host == null) {
+            host = request.getServerName();
+        }
+        String scheme = request.getScheme();
+
+        String forwardedFor = request.getHeader("X-Forwarded-For");
+        headers.set("X-Forwarded-For", forwardedFor != null ? forwardedFor + ", " + remoteAddr : remoteAddr);
+        headers.set("X-Forwarded-Proto", scheme);
+        headers.set("X-Forwarded-Host", host);
+        headers.set("X-Forwarded-Port", Integer.toString(request.getServerPort()));
+
+        // IPv6 addresses are bracketed and quoted, as the Forwarded syntax requires
+        String node = remoteAddr.indexOf(':') >= 0 ? "\"[" + remoteAddr + "]\"" : remoteAddr;
+        String element = "for=" + node + ";proto=" + scheme + ";host=\"" + host + "\"";
+        String forwarded = request.getHeader("Forwarded");
+        headers.set("Forwarded", forwarded != null ? forwarded + ", " + element : element);
+    }
+
+    /**
+     * Helper method to tell whether a header is named as a token of a Connection header.
+     *
+     * @param connection the Connection header value (can be null)
+     * @param headerName the header name
+     * @return true if the header is listed
+     */
+    private static boolean isListedIn(String connection, String headerName) {
+        if (connection == null) {
+            return false;
+        }
+        int length = connection.length();
+        int start = 0;
+        while (start < length) {
+            int end = connection.indexOf(',', start);
+            if (end < 0) {
+                end = length;
+            }
+            int tokenStart = start;
+            int tokenEnd = end;
+            while (tokenStart < tokenEnd && connection.charAt(tokenStart) == ' ') {
+                tokenStart++;
+            }
+            while (tokenEnd > tokenStart && connection.charAt(tokenEnd - 1) == ' ') {
+                tokenEnd--;
+            }
+            if (tokenEnd - tokenStart == headerName.length()
+                    && connection.regionMatches(true, tokenStart, headerName, 0, headerName.length())) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    private static List<String> concat(List<String> first, List<String> second) {
+        List<String> names = new ArrayList<>(first.size() + second.size());
+        names.addAll(first);
+        names.addAll(second);
+        return names;
+    }
+
+    /**
+     * Case-insensitive set of header names in an open-addressing table.
+     * Names are hashed with ASCII case folding, so looking up a mixed-case name allocates nothing.
+     */
+    private static final class HeaderNameSet {
+
+        private final String[] table;
+        private final int mask;
+
+        HeaderNameSet(Collection<String> names) {
+            int capacity = Integer.highestOneBit(Math.max(names.size(), 1) * 4);
+            this.table = new String[capacity];
+            this.mask = capacity - 1;
+            for (String name : names) {
+                if (!contains(name)) {
+                    int i = hash(name) & mask;
+                    while (table[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    table[i] = name.toLowerCase(Locale.ROOT);
+                }
+            }
+        }
+
+        boolean contains(String name) {
+            int i = hash(name) & mask;
+            String candidate;
+            while ((candidate = table[i]) != null) {
+                if (candidate.length() == name.length() && candidate.regionMatches(true, 0, name, 0, name.length())) {
+                    return true;
+                }
+                i = (i + 1) & mask;
+            }
+            return false;
+        }
+
+        private static int hash(String name) {
+            int hash = 0;
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+                hash = 31 * hash + c;
+            }
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
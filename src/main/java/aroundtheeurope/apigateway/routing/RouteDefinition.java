@@ -0,0 +1,34 @@
+package aroundtheeurope.apigateway.routing;
+
+import java.util.List;
+
+/**
+ * One entry of the declarative route table, as read from the routes file.
+ * Path patterns consist of literal segments and variable segments such as "{requestId}",
+ * optionally constrained by a regular expression, e.g. "{requestId:[0-9a-fA-F-]{36}}".
+ * The rewrite template refers to the same variables, e.g. "/api/v1/trips/{requestId}".
+ *
+ * @param id a unique name of the route, used in logs and errors
+ * @param method the HTTP method the route answers, or null for any method
+ * @param path the gateway path pattern
+ * @param upstream the upstream service, whose base URL is read from the "&lt;upstream&gt;.url" property
+ * @param rewrite the upstream path template
+ * @param injectUserId whether the JWT subject is passed to the upstream as the "userId" query parameter
+ * @param authenticated whether the route requires an authenticated user
+ * @param cache the response cache route serving the route, one of the ResponseCacheService.ROUTE_* constants (can be null)
+ * @param allowedHeaders the only request headers forwarded upstream, or null to forward all that are not denied
+ * @param deniedHeaders request headers never forwarded upstream, in addition to Authorization (can be null)
+ */
+public record RouteDefinition(
+        String id,
+        String method,
+        String path,
+        String upstream,
+        String rewrite,
+        boolean injectUserId,
+        boolean authenticated,
+        String cache,
+        List<String> allowedHeaders,
+        List<String> deniedHeaders
+) {
+}
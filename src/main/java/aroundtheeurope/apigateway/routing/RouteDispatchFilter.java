@@ -0,0 +1,129 @@
+package aroundtheeurope.apigateway.routing;
+
+import aroundtheeurope.apigateway.logging.AccessLogFilter;
+import aroundtheeurope.apigateway.resilience.UpstreamUnavailableException;
+import aroundtheeurope.apigateway.service.RequestForwardingService;
+import aroundtheeurope.apigateway.service.ResponseCacheService;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Filter forwarding requests matched by the route table to their upstream, without going through Spring MVC.
+ * It runs after the security filter chain, so requests reaching it are already authenticated and rate limited.
+ * Requests matching no route continue to the controllers.
+ */
+public class RouteDispatchFilter extends OncePerRequestFilter {
+
+    private final RouteTableLoader routeTableLoader;
+    private final RequestForwardingService requestForwardingService;
+    private final ResponseCacheService responseCacheService;
+
+    /**
+     * Constructs a RouteDispatchFilter.
+     *
+     * @param routeTableLoader keeps the current route table
+     * @param requestForwardingService forwards requests to the upstreams
+     * @param responseCacheService serves routes backed by the response cache
+     */
+    public RouteDispatchFilter(
+            RouteTableLoader routeTableLoader,
+            RequestForwardingService requestForwardingService,
+            ResponseCacheService responseCacheService
+    ) {
+        this.routeTableLoader = routeTableLoader;
+        this.requestForwardingService = requestForwardingService;
+        this.responseCacheService = responseCacheService;
+    }
+
+    @Override
+    protected void doFilterInternal(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            FilterChain filterChain
+    ) throws ServletException, IOException {
+        RouteMatch match = routeTableLoader.getRouteTable().match(request.getMethod(), request.getRequestURI());
+        if (match == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        RouteDefinition route = match.route();
+        request.setAttribute(HeaderPolicy.ATTRIBUTE, match.headerPolicy());
+        request.setAttribute(AccessLogFilter.ROUTE_ATTRIBUTE, route.id());
+        String userId = userIdOf();
+        String targetUrl = match.targetUrl();
+        if (route.injectUserId()) {
+            if (userId == null) {
+                response.setStatus(HttpStatus.UNAUTHORIZED.value());
+                return;
+            }
+            targetUrl = targetUrl + "?userId=" + userId;
+        }
+
+        ResponseEntity<?> result;
+        try {
+            result = route.cache() != null
+                    ? responseCacheService.getOrForward(request, response, route.cache(), userId, targetUrl)
+                    : requestForwardingService.forwardRequest(request, response, targetUrl, HttpMethod.valueOf(request.getMethod()));
+        } catch (UpstreamUnavailableException e) {
+            result = ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, Long.toString((e.getRetryAfterMillis() + 999) / 1000))
+                    .body(e.getMessage());
+        }
+        if (result != null) {
+            write(result, response);
+        }
+    }
+
+    /**
+     * Helper method to write a buffered response, as Spring MVC would for a controller.
+     *
+     * @param result the response to write
+     * @param response the servlet response
+     * @throws IOException if an I/O error occurs while writing the body
+     */
+    private static void write(ResponseEntity<?> result, HttpServletResponse response) throws IOException {
+        response.setStatus(result.getStatusCode().value());
+        for (Map.Entry<String, List<String>> header : result.getHeaders().entrySet()) {
+            String name = header.getKey();
+            if (!HttpHeaders.TRANSFER_ENCODING.equalsIgnoreCase(name)
+                    && !HttpHeaders.CONNECTION.equalsIgnoreCase(name)
+                    && !HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                header.getValue().forEach(value -> response.addHeader(name, value));
+            }
+        }
+        Object body = result.getBody();
+        byte[] bytes = body instanceof byte[] raw ? raw
+                : body != null ? body.toString().getBytes(StandardCharsets.UTF_8)
+                : null;
+        if (bytes != null) {
+            response.setContentLength(bytes.length);
+            response.getOutputStream().write(bytes);
+        }
+    }
+
+    /**
+     * Helper method to get the subject of the authenticated JWT.
+     *
+     * @return the user ID, or null if the request is not authenticated with a JWT
+     */
+    private static String userIdOf() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication instanceof JwtAuthenticationToken jwtAuthentication ? jwtAuthentication.getName() : null;
+    }
+}
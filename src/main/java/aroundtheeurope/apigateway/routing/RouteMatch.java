@@ -0,0 +1,11 @@
+package aroundtheeurope.apigateway.routing;
+
+/**
+ * A route matched by a request, with the upstream URL the request is forwarded to.
+ *
+ * @param route the matched route
+ * @param targetUrl the upstream base URL followed by the rewritten path, without a query
+ * @param headerPolicy the policy deciding which headers are forwarded
+ */
+public record RouteMatch(RouteDefinition route, String targetUrl, HeaderPolicy headerPolicy) {
+}
@@ -0,0 +1,261 @@
+package aroundtheeurope.apigateway.routing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable route table compiled into a trie of path segments.
+ * Matching walks the request path one segment at a time, so its cost depends on the depth of the path
+ * rather than on the number of routes. Literal segments take precedence over variable segments,
+ * and a variable branch is only left for the next one if nothing matches below it.
+ * A path that matches no route, or matches routes of other methods only, yields no match.
+ * Header policies are built once per route while compiling.
+ */
+public final class RouteTable {
+
+    private static final String ANY_METHOD = "*";
+
+    private final Node root = new Node();
+    private final List<RouteDefinition> routes;
+    private int maxVariables;
+
+    /**
+     * Compiles the given routes.
+     *
+     * @param routes the route definitions
+     * @param upstreamUrls resolves the base URL of an upstream by its name, returning null for unknown upstreams
+     * @throws IllegalArgumentException if a route is incomplete, names an unknown upstream,
+     *         refers to an undefined variable or duplicates another route
+     */
+    public RouteTable(List<RouteDefinition> routes, Function<String, String> upstreamUrls) {
+        this.routes = List.copyOf(routes);
+        for (RouteDefinition route : this.routes) {
+            add(route, upstreamUrls);
+        }
+    }
+
+    /**
+     * Finds the route serving a request.
+     *
+     * @param method the HTTP method of the request
+     * @param path the request path, without a query
+     * @return the match, or null if no route serves the request
+     */
+    public RouteMatch match(String method, String path) {
+        if (path.isEmpty() || path.charAt(0) != '/') {
+            return null;
+        }
+        String[] values = new String[maxVariables];
+        CompiledRoute route = find(root, path, 0, method, values, 0);
+        return route != null ? new RouteMatch(route.definition(), route.targetUrl(values), route.headerPolicy()) : null;
+    }
+
+    /**
+     * Tells whether a request is served by a route that does not require an authenticated user.
+     *
+     * @param method the HTTP method of the request
+     * @param path the request path, without a query
+     * @return true if the request is matched by a public route
+     */
+    public boolean isPublic(String method, String path) {
+        RouteMatch match = match(method, path);
+        return match != null && !match.route().authenticated();
+    }
+
+    /**
+     * Lists the routes the table was compiled from.
+     *
+     * @return the route definitions
+     */
+    public List<RouteDefinition> getRoutes() {
+        return routes;
+    }
+
+    /**
+     * Helper method to find a route below a node, backtracking into further variable branches on a dead end.
+     *
+     * @param node the node matched so far
+     * @param path the request path
+     * @param position the index of the '/' starting the next segment, or the path length at the end
+     * @param method the HTTP method of the request
+     * @param values the values of the variables matched so far, by position
+     * @param depth the number of variables matched so far
+     * @return the route, or null if none matches
+     */
+    private static CompiledRoute find(Node node, String path, int position, String method, String[] values, int depth) {
+        if (position == path.length()) {
+            CompiledRoute route = node.routesByMethod.get(method);
+            return route != null ? route : node.routesByMethod.get(ANY_METHOD);
+        }
+
+        int start = position + 1;
+        int end = path.indexOf('/', start);
+        if (end < 0) {
+            end = path.length();
+        }
+        String segment = path.substring(start, end);
+
+        Node literal = node.literals.get(segment);
+        if (literal != null) {
+            CompiledRoute route = find(literal, path, end, method, values, depth);
+            if (route != null) {
+                return route;
+            }
+        }
+        if (segment.isEmpty()) {
+            return null;
+        }
+        for (Variable variable : node.variables) {
+            if (variable.constraint() == null || variable.constraint().matcher(segment).matches()) {
+                values[depth] = segment;
+                CompiledRoute route = find(variable.node(), path, end, method, values, depth + 1);
+                if (route != null) {
+                    return route;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Helper method to add a route to the trie.
+     */
+    private void add(RouteDefinition route, Function<String, String> upstreamUrls) {
+        if (route.id() == null || route.path() == null || route.upstream() == null || route.rewrite() == null) {
+            throw new IllegalArgumentException("Route " + route.id() + " needs an id, path, upstream and rewrite");
+        }
+        String upstreamUrl = upstreamUrls.apply(route.upstream());
+        if (upstreamUrl == null) {
+            throw new IllegalArgumentException("Route " + route.id() + " names the unknown upstream " + route.upstream());
+        }
+        if (!route.path().startsWith("/")) {
+            throw new IllegalArgumentException("Route " + route.id() + " has a path not starting with '/'");
+        }
+
+        Node node = root;
+        List<String> variableNames = new ArrayList<>();
+        for (String segment : route.path().substring(1).split("/", -1)) {
+            if (segment.startsWith("{") && segment.endsWith("}")) {
+                String variable = segment.substring(1, segment.length() - 1);
+                int colon = variable.indexOf(':');
+                String name = colon < 0 ? variable : variable.substring(0, colon);
+                String constraint = colon < 0 ? null : variable.substring(colon + 1);
+                variableNames.add(name);
+                node = node.variable(constraint);
+            } else {
+                node = node.literals.computeIfAbsent(segment, s -> new Node());
+            }
+        }
+        maxVariables = Math.max(maxVariables, variableNames.size());
+
+        String method = route.method() != null ? route.method().toUpperCase() : ANY_METHOD;
+        HeaderPolicy headerPolicy = route.allowedHeaders() != null || route.deniedHeaders() != null
+                ? new HeaderPolicy(route.allowedHeaders(), route.deniedHeaders())
+                : HeaderPolicy.DEFAULT;
+        CompiledRoute compiled = new CompiledRoute(route, compileRewrite(route, upstreamUrl, variableNames), headerPolicy);
+        if (node.routesByMethod.putIfAbsent(method, compiled) != null) {
+            throw new IllegalArgumentException("Route " + route.id() + " duplicates " + node.routesByMethod.get(method).definition().id());
+        }
+    }
+
+    /**
+     * Helper method to split a rewrite template into literal parts and variable references.
+     * Literal parts are kept as strings, variables as their position in the path pattern.
+     */
+    private static List<Object> compileRewrite(RouteDefinition route, String upstreamUrl, List<String> variableNames) {
+        List<Object> parts = new ArrayList<>();
+        StringBuilder literal = new StringBuilder(upstreamUrl);
+        String template = route.rewrite();
+        int i = 0;
+        while (i < template.length()) {
+            int open = template.indexOf('{', i);
+            if (open < 0) {
+                literal.append(template, i, template.length());
+                break;
+            }
+            int close = template.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Route " + route.id() + " has an unclosed variable in its rewrite");
+            }
+            int index = variableNames.indexOf(template.substring(open + 1, close));
+            if (index < 0) {
+                throw new IllegalArgumentException("Route " + route.id() + " rewrites to an undefined variable "
+                        + template.substring(open, close + 1));
+            }
+            literal.append(template, i, open);
+            parts.add(literal.toString());
+            literal.setLength(0);
+            parts.add(index);
+            i = close + 1;
+        }
+        if (!literal.isEmpty()) {
+            parts.add(literal.toString());
+        }
+        return List.copyOf(parts);
+    }
+
+    /**
+     * A node of the trie, holding the routes ending at it and its child segments.
+     */
+    private static final class Node {
+
+        private final Map<String, Node> literals = new HashMap<>();
+        private final List<Variable> variables = new ArrayList<>();
+        private final Map<String, CompiledRoute> routesByMethod = new HashMap<>();
+
+        /**
+         * Helper method to get the child for a variable segment, shared by variables with the same constraint.
+         */
+        Node variable(String constraint) {
+            for (Variable variable : variables) {
+                String existing = variable.constraint() != null ? variable.constraint().pattern() : null;
+                if (existing == null ? constraint == null : existing.equals(constraint)) {
+                    return variable.node();
+                }
+            }
+            Variable variable = new Variable(constraint != null ? Pattern.compile(constraint) : null, new Node());
+            // Constrained variables are more specific, so they are tried first
+            if (constraint != null) {
+                variables.add(0, variable);
+            } else {
+                variables.add(variable);
+            }
+            return variable.node();
+        }
+    }
+
+    /**
+     * A variable segment of the trie.
+     *
+     * @param constraint the pattern the segment must match, or null for any non-empty segment
+     * @param node the node below the variable
+     */
+    private record Variable(Pattern constraint, Node node) {
+    }
+
+    /**
+     * A route with its precompiled rewrite and header policy.
+     *
+     * @param definition the route definition
+     * @param rewrite the upstream URL parts: strings are copied, integers are replaced by the variable at that position
+     * @param headerPolicy the policy deciding which headers are forwarded
+     */
+    private record CompiledRoute(RouteDefinition definition, List<Object> rewrite, HeaderPolicy headerPolicy) {
+
+        String targetUrl(String[] values) {
+            StringBuilder targetUrl = new StringBuilder(64);
+            for (Object part : rewrite) {
+                if (part instanceof Integer index) {
+                    targetUrl.append(values[index]);
+                } else {
+                    targetUrl.append((String) part);
+                }
+            }
+            return targetUrl.toString();
+        }
+    }
+}
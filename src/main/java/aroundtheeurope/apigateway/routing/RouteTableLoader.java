@@ -0,0 +1,119 @@
+package aroundtheeurope.apigateway.routing;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Loads the route table from a JSON file and keeps it up to date.
+ * The file is read and compiled once at startup, failing the startup if it is invalid.
+ * Afterwards it is polled for changes; a changed file is compiled into a new table that replaces
+ * the current one at once, while an invalid change is logged and the current table kept.
+ * Only files on the file system can change, e.g. "file:/etc/gateway/routes.json";
+ * a table packaged in the application is loaded once.
+ */
+@Component
+public class RouteTableLoader {
+
+    private static final Logger log = LoggerFactory.getLogger(RouteTableLoader.class);
+
+    private final ObjectMapper objectMapper;
+    private final Environment environment;
+    private final Resource resource;
+    private volatile RouteTable routeTable;
+    private long lastModified;
+
+    /**
+     * Constructor for RouteTableLoader, autowiring necessary components.
+     *
+     * @param objectMapper the mapper reading the routes file
+     * @param environment the environment holding the upstream base URLs
+     * @param resourceLoader the loader resolving the routes file location
+     * @param location the location of the routes file
+     * @throws IOException if the routes file cannot be read
+     */
+    @Autowired
+    public RouteTableLoader(
+            ObjectMapper objectMapper,
+            Environment environment,
+            ResourceLoader resourceLoader,
+            @Value("${gateway.routes.location:classpath:routes.json}") String location
+    ) throws IOException {
+        this.objectMapper = objectMapper;
+        this.environment = environment;
+        this.resource = resourceLoader.getResource(location);
+        this.lastModified = lastModified();
+        this.routeTable = load();
+        log.info("Loaded {} routes from {}", routeTable.getRoutes().size(), location);
+    }
+
+    /**
+     * Gives access to the current route table.
+     *
+     * @return the route table
+     */
+    public RouteTable getRouteTable() {
+        return routeTable;
+    }
+
+    /**
+     * Reloads the route table if the routes file changed since it was last read.
+     */
+    @Scheduled(
+            initialDelayString = "${gateway.routes.reload-interval-ms:5000}",
+            fixedDelayString = "${gateway.routes.reload-interval-ms:5000}"
+    )
+    public void reloadIfChanged() {
+        long modified = lastModified();
+        if (modified == lastModified) {
+            return;
+        }
+        lastModified = modified;
+        try {
+            routeTable = load();
+            log.info("Reloaded {} routes from {}", routeTable.getRoutes().size(), resource.getDescription());
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Keeping the current routes, failed to reload {}", resource.getDescription(), e);
+        }
+    }
+
+    /**
+     * Helper method to read and compile the routes file.
+     *
+     * @return the compiled route table
+     * @throws IOException if the file cannot be read or parsed
+     * @throws IllegalArgumentException if a route is invalid
+     */
+    private RouteTable load() throws IOException {
+        List<RouteDefinition> routes;
+        try (InputStream in = resource.getInputStream()) {
+            routes = objectMapper.readValue(in, new TypeReference<>() {});
+        }
+        return new RouteTable(routes, upstream -> environment.getProperty(upstream + ".url"));
+    }
+
+    /**
+     * Helper method to get the modification time of the routes file.
+     *
+     * @return the modification time, or 0 if the file is not on the file system
+     */
+    private long lastModified() {
+        try {
+            return resource.isFile() ? resource.lastModified() : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package aroundtheeurope.apigateway.security;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe Bloom filter over strings.
+ * Answers "definitely not present" without false negatives, so an exact lookup
+ * is needed only for the rare positive answers.
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray bits;
+    private final int bitCount;
+    private final int hashCount;
+
+    /**
+     * Constructs a Bloom filter sized for the expected number of entries and false positive rate.
+     *
+     * @param expectedEntries the number of entries the filter is sized for
+     * @param falsePositiveRate the accepted probability of a false positive at that size
+     */
+    public BloomFilter(long expectedEntries, double falsePositiveRate) {
+        long entries = Math.max(1, expectedEntries);
+        long optimalBits = (long) Math.ceil(-entries * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bitCount = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, optimalBits));
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / entries * Math.log(2)));
+        this.bits = new AtomicLongArray((bitCount + 63) / 64);
+    }
+
+    /**
+     * Adds a value to the filter.
+     *
+     * @param value the value to add
+     */
+    public void put(String value) {
+        long hash = fnv1a(value);
+        long hash1 = mix(hash);
+        long hash2 = mix(hash ^ 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < hashCount; i++) {
+            int bit = (int) Math.floorMod(hash1 + i * hash2, (long) bitCount);
+            long mask = 1L << (bit & 63);
+            bits.getAndAccumulate(bit >>> 6, mask, (current, update) -> current | update);
+        }
+    }
+
+    /**
+     * Checks whether a value may have been added to the filter.
+     *
+     * @param value the value to check
+     * @return false if the value was definitely never added, true if it may have been
+     */
+    public boolean mightContain(String value) {
+        long hash = fnv1a(value);
+        long hash1 = mix(hash);
+        long hash2 = mix(hash ^ 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < hashCount; i++) {
+            int bit = (int) Math.floorMod(hash1 + i * hash2, (long) bitCount);
+            if ((bits.get(bit >>> 6) & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long fnv1a(String value) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    // Murmur3 finalizer, spreads the FNV hash over all 64 bits
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,151 @@
+package aroundtheeurope.apigateway.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.security.oauth2.core.OAuth2TokenValidator;
+import org.springframework.security.oauth2.core.OAuth2TokenValidatorResult;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.security.oauth2.jwt.JwtValidationException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * JwtDecoder that remembers successfully decoded tokens, so a token reused for many calls
+ * is parsed and has its signature verified only once.
+ * Entries are keyed by a SHA-256 hash of the token, bounded in number and expire at the token's "exp" claim,
+ * or after the maximum TTL if that comes first.
+ * Failed decodings are never cached.
+ * Checks whose outcome can change during a token's lifetime, such as revocation, are run by
+ * a separate validator on every call, cached or not. Evicting a token only affects this node;
+ * the other nodes reject it through the validator and drop it from their caches within the maximum TTL.
+ */
+public class CachingJwtDecoder implements JwtDecoder, MeterBinder {
+
+    private final JwtDecoder delegate;
+    private final OAuth2TokenValidator<Jwt> validator;
+    private final Duration maxTtl;
+    private final Cache<String, Jwt> cache;
+
+    /**
+     * Constructs a CachingJwtDecoder around the decoder doing the actual verification.
+     *
+     * @param delegate the decoder verifying tokens on a cache miss
+     * @param validator the validator run on every decoded token, including cached ones
+     * @param maxEntries the maximum number of decoded tokens kept in memory
+     * @param maxTtl the longest a decoded token is kept, also for tokens without an expiry
+     */
+    public CachingJwtDecoder(JwtDecoder delegate, OAuth2TokenValidator<Jwt> validator, long maxEntries, Duration maxTtl) {
+        this.delegate = delegate;
+        this.validator = validator;
+        this.maxTtl = maxTtl;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfter(new Expiry<String, Jwt>() {
+                    @Override
+                    public long expireAfterCreate(String key, Jwt jwt, long currentTime) {
+                        return timeToLive(jwt).toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Jwt jwt, long currentTime, long currentDuration) {
+                        return timeToLive(jwt).toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Jwt jwt, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public Jwt decode(String token) throws JwtException {
+        String key = hash(token);
+        Jwt jwt = cache.getIfPresent(key);
+        if (jwt == null || isExpired(jwt)) {
+            jwt = delegate.decode(token);
+            cache.put(key, jwt);
+        }
+        validate(jwt);
+        return jwt;
+    }
+
+    /**
+     * Removes a token from the cache of this node, so its next use is verified again.
+     *
+     * @param token the serialized token
+     */
+    public void evict(String token) {
+        cache.invalidate(hash(token));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "gateway.jwt-cache");
+    }
+
+    /**
+     * Helper method to run the per-call validator on a decoded token.
+     *
+     * @param jwt the decoded token
+     * @throws JwtValidationException if the token is no longer valid
+     */
+    private void validate(Jwt jwt) {
+        OAuth2TokenValidatorResult result = validator.validate(jwt);
+        if (result.hasErrors()) {
+            String description = result.getErrors().iterator().next().getDescription();
+            throw new JwtValidationException(description, result.getErrors());
+        }
+    }
+
+    /**
+     * Helper method to compute how long a decoded token may stay cached.
+     *
+     * @param jwt the decoded token
+     * @return the time until the token expires, at most the maximum TTL
+     */
+    private Duration timeToLive(Jwt jwt) {
+        Instant expiresAt = jwt.getExpiresAt();
+        if (expiresAt == null) {
+            return maxTtl;
+        }
+        Duration ttl = Duration.between(Instant.now(), expiresAt);
+        if (ttl.isNegative()) {
+            return Duration.ZERO;
+        }
+        return ttl.compareTo(maxTtl) < 0 ? ttl : maxTtl;
+    }
+
+    private static boolean isExpired(Jwt jwt) {
+        Instant expiresAt = jwt.getExpiresAt();
+        return expiresAt != null && !expiresAt.isAfter(Instant.now());
+    }
+
+    /**
+     * Helper method to derive the cache key of a token, so raw tokens are not kept as keys.
+     *
+     * @param token the serialized token
+     * @return the Base64-encoded SHA-256 hash of the token
+     */
+    static String hash(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(token.getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
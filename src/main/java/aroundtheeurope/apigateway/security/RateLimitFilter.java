@@ -0,0 +1,94 @@
+package aroundtheeurope.apigateway.security;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Filter rejecting clients that exceed their request rate with 429 Too Many Requests and a Retry-After header.
+ * It runs after bearer token authentication, so authenticated calls are limited per JWT subject;
+ * login, register and other unauthenticated calls are limited per remote IP.
+ * It is added to the security filter chain only, not registered as a servlet filter of its own.
+ */
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private static final String API_PREFIX = "/gateway/api/v1/";
+    private static final String TRIPS_PATH = API_PREFIX + "trips";
+
+    private final RateLimiterService rateLimiterService;
+
+    /**
+     * Constructs a RateLimitFilter.
+     *
+     * @param rateLimiterService the service keeping the token buckets
+     */
+    public RateLimitFilter(RateLimiterService rateLimiterService) {
+        this.rateLimiterService = rateLimiterService;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        // CORS preflights and anything outside the API, e.g. actuator endpoints, are not limited
+        return HttpMethod.OPTIONS.matches(request.getMethod()) || !request.getRequestURI().startsWith(API_PREFIX);
+    }
+
+    @Override
+    protected void doFilterInternal(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            FilterChain filterChain
+    ) throws ServletException, IOException {
+        String route = routeOf(request);
+        long retryAfterMillis = rateLimiterService.tryAcquire(route, clientIdOf(request, route));
+        if (retryAfterMillis > 0) {
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString((retryAfterMillis + 999) / 1000));
+            return;
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    /**
+     * Helper method to map a request to its limited route.
+     *
+     * @param request the incoming request
+     * @return one of the RateLimiterService.ROUTE_* constants
+     */
+    private static String routeOf(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        if (uri.equals(API_PREFIX + "login") || uri.equals(API_PREFIX + "register")) {
+            return RateLimiterService.ROUTE_AUTH;
+        }
+        if (HttpMethod.POST.matches(request.getMethod()) && uri.equals(TRIPS_PATH)) {
+            return RateLimiterService.ROUTE_QUEUE;
+        }
+        return RateLimiterService.ROUTE_DEFAULT;
+    }
+
+    /**
+     * Helper method to identify the client a request is counted against.
+     *
+     * @param request the incoming request
+     * @param route the limited route
+     * @return the JWT subject, or the remote IP for login, register and unauthenticated calls
+     */
+    private static String clientIdOf(HttpServletRequest request, String route) {
+        if (!RateLimiterService.ROUTE_AUTH.equals(route)) {
+            Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+            if (authentication instanceof JwtAuthenticationToken jwtAuthentication) {
+                return "user:" + jwtAuthentication.getName();
+            }
+        }
+        return "ip:" + request.getRemoteAddr();
+    }
+}
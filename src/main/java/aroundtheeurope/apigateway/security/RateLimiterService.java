@@ -0,0 +1,259 @@
+package aroundtheeurope.apigateway.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Service limiting request rates per client and route with token buckets shared by all gateway nodes.
+ * The buckets live in Redis and are updated by an atomic script. A node leases tokens from Redis in batches
+ * and spends them locally, and remembers when a bucket is empty, so most decisions need no Redis round trip.
+ * Login, registration and submissions lease a single token by default, so each of them is one Redis round trip:
+ * they are rare and costly, and a larger lease would let a client burst past the shared limit across nodes.
+ * If Redis is unavailable, the limiter stops calling it for a while and limits every node on its own,
+ * with the same capacity and rate per node, rather than failing the gateway or waiting on Redis for every request.
+ */
+@Service
+public class RateLimiterService {
+
+    public static final String ROUTE_AUTH = "auth";
+    public static final String ROUTE_QUEUE = "queue";
+    public static final String ROUTE_DEFAULT = "default";
+
+    private static final String KEY_PREFIX = "gateway:rate-limit:";
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final RedisScript<List<Long>> TOKEN_BUCKET_SCRIPT =
+            (RedisScript) RedisScript.of(new ClassPathResource("scripts/token-bucket.lua"), List.class);
+
+    @Value("${gateway.rate-limit.enabled:true}")
+    private boolean enabled;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final Map<String, Limit> limitsByRoute;
+    private final Duration leaseTtl;
+    private final long redisRetryIntervalMillis;
+    private final Cache<String, LocalBucket> localBuckets;
+    private final Map<String, Counter> allowedByRoute = new HashMap<>();
+    private final Map<String, Counter> rejectedByRoute = new HashMap<>();
+    private final Counter redisCalls;
+    private final Counter redisErrors;
+    private final Counter localOnly;
+    private volatile long redisDownUntil;
+
+    /**
+     * Constructor for RateLimiterService, autowiring necessary components.
+     *
+     * @param stringRedisTemplate the template running the token bucket script
+     * @param meterRegistry the registry exposing limiter metrics
+     * @param authCapacity the burst size of login and register calls per client IP
+     * @param authRefillPerSecond the sustained rate of login and register calls per client IP
+     * @param authLeaseSize the number of tokens a node leases at once for login and register calls
+     * @param queueCapacity the burst size of trip request submissions per user
+     * @param queueRefillPerSecond the sustained rate of trip request submissions per user
+     * @param queueLeaseSize the number of tokens a node leases at once for trip request submissions
+     * @param defaultCapacity the burst size of all other calls per user
+     * @param defaultRefillPerSecond the sustained rate of all other calls per user
+     * @param defaultLeaseSize the number of tokens a node leases at once for all other calls
+     * @param leaseTtl how long a node may keep leased tokens before returning to Redis
+     * @param redisRetryInterval how long a node limits on its own after a failed Redis call
+     * @param maxLocalBuckets the maximum number of clients tracked locally
+     */
+    @Autowired
+    public RateLimiterService(
+            StringRedisTemplate stringRedisTemplate,
+            MeterRegistry meterRegistry,
+            @Value("${gateway.rate-limit.auth.capacity:10}") long authCapacity,
+            @Value("${gateway.rate-limit.auth.refill-per-second:0.5}") double authRefillPerSecond,
+            @Value("${gateway.rate-limit.auth.lease-size:1}") int authLeaseSize,
+            @Value("${gateway.rate-limit.queue.capacity:5}") long queueCapacity,
+            @Value("${gateway.rate-limit.queue.refill-per-second:0.1}") double queueRefillPerSecond,
+            @Value("${gateway.rate-limit.queue.lease-size:1}") int queueLeaseSize,
+            @Value("${gateway.rate-limit.default.capacity:100}") long defaultCapacity,
+            @Value("${gateway.rate-limit.default.refill-per-second:20}") double defaultRefillPerSecond,
+            @Value("${gateway.rate-limit.default.lease-size:10}") int defaultLeaseSize,
+            @Value("${gateway.rate-limit.lease-ttl:1s}") Duration leaseTtl,
+            @Value("${gateway.rate-limit.redis-retry-interval:5s}") Duration redisRetryInterval,
+            @Value("${gateway.rate-limit.max-local-buckets:100000}") long maxLocalBuckets
+    ) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.limitsByRoute = Map.of(
+                ROUTE_AUTH, new Limit(authCapacity, authRefillPerSecond, authLeaseSize),
+                ROUTE_QUEUE, new Limit(queueCapacity, queueRefillPerSecond, queueLeaseSize),
+                ROUTE_DEFAULT, new Limit(defaultCapacity, defaultRefillPerSecond, defaultLeaseSize)
+        );
+        this.leaseTtl = leaseTtl;
+        this.redisRetryIntervalMillis = redisRetryInterval.toMillis();
+        this.localBuckets = Caffeine.newBuilder()
+                .maximumSize(maxLocalBuckets)
+                .expireAfterAccess(Duration.ofMinutes(1))
+                .build();
+
+        for (String route : limitsByRoute.keySet()) {
+            allowedByRoute.put(route, meterRegistry.counter("gateway.rate-limit.requests", "route", route, "outcome", "allowed"));
+            rejectedByRoute.put(route, meterRegistry.counter("gateway.rate-limit.requests", "route", route, "outcome", "rejected"));
+        }
+        this.redisCalls = meterRegistry.counter("gateway.rate-limit.redis.calls");
+        this.redisErrors = meterRegistry.counter("gateway.rate-limit.redis.errors");
+        this.localOnly = meterRegistry.counter("gateway.rate-limit.local-only");
+        meterRegistry.gauge("gateway.rate-limit.local-buckets", localBuckets, cache -> cache.estimatedSize());
+    }
+
+    /**
+     * Takes one token from the client's bucket for the route.
+     *
+     * @param route the limited route, one of the ROUTE_* constants
+     * @param clientId the JWT subject, or the remote IP for unauthenticated calls
+     * @return 0 if the request may proceed, otherwise the milliseconds until the client may retry
+     */
+    public long tryAcquire(String route, String clientId) {
+        Limit limit = limitsByRoute.get(route);
+        if (!enabled || limit == null) {
+            return 0;
+        }
+
+        String key = KEY_PREFIX + route + ":" + clientId;
+        LocalBucket bucket = localBuckets.get(key, k -> new LocalBucket());
+        long retryAfter;
+        // A lock rather than synchronized, so virtual threads waiting on the Redis call do not pin their carrier
+        bucket.lock.lock();
+        try {
+            retryAfter = bucket.take(key, limit);
+        } finally {
+            bucket.lock.unlock();
+        }
+
+        (retryAfter == 0 ? allowedByRoute : rejectedByRoute).get(route).increment();
+        return retryAfter;
+    }
+
+    /**
+     * Helper method to lease tokens from the shared bucket in Redis.
+     * A failed call marks Redis as down for the retry interval, so requests meanwhile do not wait on it.
+     *
+     * @param key the bucket key
+     * @param limit the limit of the route
+     * @return the number of granted tokens and the milliseconds until the next token if none were granted,
+     *         or null if Redis is unavailable
+     */
+    private long[] lease(String key, Limit limit) {
+        redisCalls.increment();
+        try {
+            List<Long> result = stringRedisTemplate.execute(
+                    TOKEN_BUCKET_SCRIPT,
+                    List.of(key),
+                    Long.toString(limit.capacity()),
+                    Double.toString(limit.refillPerSecond()),
+                    Integer.toString(limit.leaseSize())
+            );
+            if (result == null || result.size() < 2) {
+                return null;
+            }
+            return new long[] {result.get(0), result.get(1)};
+        } catch (RuntimeException e) {
+            redisErrors.increment();
+            redisDownUntil = System.currentTimeMillis() + redisRetryIntervalMillis;
+            return null;
+        }
+    }
+
+    /**
+     * Limit of a route.
+     *
+     * @param capacity the maximum burst size
+     * @param refillPerSecond the number of tokens added per second
+     * @param leaseSize the number of tokens a node takes from Redis at once
+     */
+    record Limit(long capacity, double refillPerSecond, int leaseSize) {
+    }
+
+    /**
+     * Node-local view of a shared bucket: tokens leased from Redis and not yet spent,
+     * or the time until which the shared bucket is known to be empty.
+     * While Redis is down, it is a token bucket of its own.
+     */
+    private final class LocalBucket {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private long leasedTokens;
+        private long leaseExpiresAt;
+        private long emptyUntil;
+        private double localTokens = -1;
+        private long localRefilledAt;
+
+        /**
+         * Takes one token, leasing from Redis only when nothing is left locally.
+         * Must be called while holding the lock.
+         *
+         * @param key the bucket key
+         * @param limit the limit of the route
+         * @return 0 if a token was taken, otherwise the milliseconds until the client may retry
+         */
+        long take(String key, Limit limit) {
+            long now = System.currentTimeMillis();
+            if (now < emptyUntil) {
+                return emptyUntil - now;
+            }
+            // Unspent tokens are dropped after a while, so an idle node does not hold on to other nodes' share
+            if (leasedTokens > 0 && now < leaseExpiresAt) {
+                leasedTokens--;
+                return 0;
+            }
+
+            if (now < redisDownUntil) {
+                return takeLocally(limit, now);
+            }
+
+            long[] granted = lease(key, limit);
+            if (granted == null) {
+                // The limiter must not take the gateway down with Redis, limit on this node alone instead
+                leasedTokens = 0;
+                return takeLocally(limit, now);
+            }
+            localTokens = -1;
+            if (granted[0] == 0) {
+                emptyUntil = now + granted[1];
+                leasedTokens = 0;
+                return Math.max(granted[1], 1);
+            }
+            leasedTokens = granted[0] - 1;
+            leaseExpiresAt = now + leaseTtl.toMillis();
+            return 0;
+        }
+
+        /**
+         * Takes one token from the node's own bucket, which starts full when Redis becomes unavailable.
+         * Must be called while holding the lock.
+         *
+         * @param limit the limit of the route
+         * @param now the current time in epoch milliseconds
+         * @return 0 if a token was taken, otherwise the milliseconds until the client may retry
+         */
+        private long takeLocally(Limit limit, long now) {
+            localOnly.increment();
+            if (localTokens < 0) {
+                localTokens = limit.capacity();
+            } else if (now > localRefilledAt) {
+                localTokens = Math.min(limit.capacity(), localTokens + (now - localRefilledAt) * limit.refillPerSecond() / 1000);
+            }
+            localRefilledAt = Math.max(now, localRefilledAt);
+            if (localTokens >= 1) {
+                localTokens--;
+                return 0;
+            }
+            return Math.max((long) Math.ceil((1 - localTokens) * 1000 / limit.refillPerSecond()), 1);
+        }
+    }
+}
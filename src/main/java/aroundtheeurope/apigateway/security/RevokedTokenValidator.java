@@ -0,0 +1,39 @@
+package aroundtheeurope.apigateway.security;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.oauth2.core.OAuth2Error;
+import org.springframework.security.oauth2.core.OAuth2ErrorCodes;
+import org.springframework.security.oauth2.core.OAuth2TokenValidator;
+import org.springframework.security.oauth2.core.OAuth2TokenValidatorResult;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.stereotype.Component;
+
+/**
+ * Token validator rejecting tokens revoked on logout.
+ * The check is answered from memory by TokenRevocationService, so it adds no network call per request.
+ */
+@Component
+public class RevokedTokenValidator implements OAuth2TokenValidator<Jwt> {
+
+    private static final OAuth2Error REVOKED = new OAuth2Error(
+            OAuth2ErrorCodes.INVALID_TOKEN, "The token has been revoked", null);
+
+    private final TokenRevocationService tokenRevocationService;
+
+    /**
+     * Constructor for RevokedTokenValidator, autowiring the TokenRevocationService.
+     *
+     * @param tokenRevocationService the service keeping track of revoked tokens
+     */
+    @Autowired
+    public RevokedTokenValidator(TokenRevocationService tokenRevocationService) {
+        this.tokenRevocationService = tokenRevocationService;
+    }
+
+    @Override
+    public OAuth2TokenValidatorResult validate(Jwt jwt) {
+        return tokenRevocationService.isRevoked(jwt)
+                ? OAuth2TokenValidatorResult.failure(REVOKED)
+                : OAuth2TokenValidatorResult.success();
+    }
+}
@@ -0,0 +1,170 @@
+package aroundtheeurope.apigateway.security;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Service keeping track of tokens revoked on logout, across all gateway nodes.
+ * Revocations are stored in a Redis sorted set scored by token expiry and broadcast through Redis pub/sub.
+ * Every node keeps them in memory as an exact set fronted by a Bloom filter, so checking a token
+ * is O(1) and needs no network call; almost every valid token is cleared by the Bloom filter alone.
+ */
+@Service
+public class TokenRevocationService {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenRevocationService.class);
+
+    private static final String REVOKED_TOKENS_KEY = "gateway:revoked-tokens";
+    private static final String REVOCATION_CHANNEL = "gateway:token-revocations";
+    private static final Duration TTL_WITHOUT_EXPIRY = Duration.ofDays(1);
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final long expectedRevocations;
+    private final double falsePositiveRate;
+
+    // Token ID -> expiry in epoch milliseconds
+    private final Map<String, Long> revokedTokens = new ConcurrentHashMap<>();
+    private volatile BloomFilter bloomFilter;
+
+    /**
+     * Constructor for TokenRevocationService, autowiring necessary components.
+     *
+     * @param stringRedisTemplate the template storing and broadcasting revocations
+     * @param redisMessageListenerContainer the container receiving revocations from other nodes
+     * @param expectedRevocations the number of live revocations the Bloom filter is sized for
+     * @param falsePositiveRate the accepted Bloom filter false positive rate at that size
+     */
+    @Autowired
+    public TokenRevocationService(
+            StringRedisTemplate stringRedisTemplate,
+            RedisMessageListenerContainer redisMessageListenerContainer,
+            @Value("${gateway.token-revocation.expected-revocations:500000}") long expectedRevocations,
+            @Value("${gateway.token-revocation.false-positive-rate:0.01}") double falsePositiveRate
+    ) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.expectedRevocations = expectedRevocations;
+        this.falsePositiveRate = falsePositiveRate;
+        this.bloomFilter = new BloomFilter(expectedRevocations, falsePositiveRate);
+
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> onRevocationMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(REVOCATION_CHANNEL)
+        );
+    }
+
+    /**
+     * Checks whether the token has been revoked. Never calls Redis.
+     *
+     * @param jwt the decoded token
+     * @return true if the token was revoked on any gateway node
+     */
+    public boolean isRevoked(Jwt jwt) {
+        String tokenId = tokenId(jwt);
+        return bloomFilter.mightContain(tokenId) && revokedTokens.containsKey(tokenId);
+    }
+
+    /**
+     * Revokes the token on all gateway nodes until it expires.
+     *
+     * @param jwt the decoded token to revoke
+     */
+    public void revoke(Jwt jwt) {
+        String tokenId = tokenId(jwt);
+        Instant expiresAt = jwt.getExpiresAt() != null ? jwt.getExpiresAt() : Instant.now().plus(TTL_WITHOUT_EXPIRY);
+        long expiresAtMillis = expiresAt.toEpochMilli();
+
+        addLocal(tokenId, expiresAtMillis);
+        stringRedisTemplate.opsForZSet().add(REVOKED_TOKENS_KEY, tokenId, expiresAtMillis);
+        stringRedisTemplate.convertAndSend(REVOCATION_CHANNEL, tokenId + " " + expiresAtMillis);
+    }
+
+    /**
+     * Loads the revocations made before this node started.
+     * Failures are only logged, the node then relies on revocations broadcast from now on.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadRevocations() {
+        try {
+            Set<ZSetOperations.TypedTuple<String>> revocations = stringRedisTemplate.opsForZSet()
+                    .rangeByScoreWithScores(REVOKED_TOKENS_KEY, System.currentTimeMillis(), Double.POSITIVE_INFINITY);
+            if (revocations == null) {
+                return;
+            }
+            for (ZSetOperations.TypedTuple<String> revocation : revocations) {
+                if (revocation.getValue() != null && revocation.getScore() != null) {
+                    addLocal(revocation.getValue(), revocation.getScore().longValue());
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to load revoked tokens from Redis", e);
+        }
+    }
+
+    /**
+     * Forgets revocations of tokens that have expired in the meantime and rebuilds the Bloom filter,
+     * so it does not fill up with tokens that can no longer be used.
+     */
+    @Scheduled(fixedDelayString = "${gateway.token-revocation.cleanup-interval-ms:300000}")
+    public void removeExpiredRevocations() {
+        long now = System.currentTimeMillis();
+        revokedTokens.values().removeIf(expiresAt -> expiresAt <= now);
+
+        BloomFilter rebuilt = new BloomFilter(Math.max(expectedRevocations, 2L * revokedTokens.size()), falsePositiveRate);
+        revokedTokens.keySet().forEach(rebuilt::put);
+        bloomFilter = rebuilt;
+        // Revocations arriving during the rebuild may be missing from the new filter, add them again
+        revokedTokens.keySet().forEach(rebuilt::put);
+
+        try {
+            stringRedisTemplate.opsForZSet().removeRangeByScore(REVOKED_TOKENS_KEY, Double.NEGATIVE_INFINITY, now);
+        } catch (RuntimeException e) {
+            log.warn("Failed to remove expired revoked tokens from Redis", e);
+        }
+    }
+
+    /**
+     * Helper method to identify a token: its "jti" claim if present, otherwise a hash of the token.
+     *
+     * @param jwt the decoded token
+     * @return the token ID
+     */
+    static String tokenId(Jwt jwt) {
+        return jwt.getId() != null ? jwt.getId() : CachingJwtDecoder.hash(jwt.getTokenValue());
+    }
+
+    private void onRevocationMessage(String message) {
+        int separator = message.lastIndexOf(' ');
+        if (separator <= 0) {
+            return;
+        }
+        try {
+            addLocal(message.substring(0, separator), Long.parseLong(message.substring(separator + 1)));
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring malformed token revocation message");
+        }
+    }
+
+    private void addLocal(String tokenId, long expiresAtMillis) {
+        // The exact set is updated first, so a Bloom filter hit always finds the entry
+        revokedTokens.put(tokenId, expiresAtMillis);
+        bloomFilter.put(tokenId);
+    }
+}
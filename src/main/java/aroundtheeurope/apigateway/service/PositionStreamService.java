@@ -0,0 +1,247 @@
+package aroundtheeurope.apigateway.service;
+
+import aroundtheeurope.apigateway.queue.QueuePositions;
+import aroundtheeurope.apigateway.queue.QueueShards;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Service pushing queue position changes to subscribed users over server-sent events.
+ * A single ticker per node looks up the positions of all subscribed users in one pipelined Redis call
+ * (see QueuePositions) and sends an event only to subscribers whose position changed.
+ * With several queue shards, the scores of the subscribed users are read first, in one more round trip:
+ * a score changes when the scheduler releases the request.
+ * Once a user's request leaves the queue, a final "dequeued" event is sent and the stream is completed.
+ * Events are written on virtual threads, so a slow client never holds up the ticker; while a write to a
+ * subscriber is still pending, its next updates are coalesced into the latest position.
+ */
+@Service
+public class PositionStreamService {
+
+    private static final Logger log = LoggerFactory.getLogger(PositionStreamService.class);
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, List<Subscriber>> subscribersByUser = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    private final QueueShards queueShards;
+    private final QueuePositions queuePositions;
+    private final Duration timeout;
+    private final int maxSubscribers;
+    private final long heartbeatIntervalNanos;
+    private final Counter updates;
+    private long lastHeartbeat = System.nanoTime();
+
+    /**
+     * Constructor for PositionStreamService, autowiring necessary components.
+     *
+     * @param queueShards the shards of the trip request queue
+     * @param queuePositions computes positions across the queue shards
+     * @param meterRegistry the registry holding the subscriber metrics
+     * @param timeout how long a stream stays open before the client has to reconnect
+     * @param maxSubscribers the maximum number of open streams on this node
+     * @param heartbeatInterval how often idle streams get a comment, so proxies keep them open
+     */
+    @Autowired
+    public PositionStreamService(
+            QueueShards queueShards,
+            QueuePositions queuePositions,
+            MeterRegistry meterRegistry,
+            @Value("${gateway.position-stream.timeout:30m}") Duration timeout,
+            @Value("${gateway.position-stream.max-subscribers:10000}") int maxSubscribers,
+            @Value("${gateway.position-stream.heartbeat-interval:15s}") Duration heartbeatInterval
+    ) {
+        this.queueShards = queueShards;
+        this.queuePositions = queuePositions;
+        this.timeout = timeout;
+        this.maxSubscribers = maxSubscribers;
+        this.heartbeatIntervalNanos = heartbeatInterval.toNanos();
+        this.updates = meterRegistry.counter("gateway.position-stream.updates");
+        meterRegistry.gauge("gateway.position-stream.subscribers", subscriberCount);
+    }
+
+    /**
+     * Opens a position stream for the given user.
+     * The current position is sent with the next tick, and from then on every change.
+     *
+     * @param userId the ID of the user whose position is streamed
+     * @return the emitter of the stream, or null if this node has no room for another stream
+     */
+    public SseEmitter subscribe(String userId) {
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            return null;
+        }
+
+        SseEmitter emitter = new SseEmitter(timeout.toMillis());
+        Subscriber subscriber = new Subscriber(emitter);
+        subscribersByUser.compute(userId, (id, subscribers) -> {
+            List<Subscriber> list = subscribers != null ? subscribers : new CopyOnWriteArrayList<>();
+            list.add(subscriber);
+            return list;
+        });
+        emitter.onCompletion(() -> unsubscribe(userId, subscriber));
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(e -> unsubscribe(userId, subscriber));
+        return emitter;
+    }
+
+    /**
+     * Looks up the positions of all subscribed users and sends the ones that changed.
+     * All positions are read in a single pipelined round trip, however many users are subscribed.
+     */
+    @Scheduled(fixedDelayString = "${gateway.position-stream.interval-ms:1000}")
+    public void publishPositions() {
+        long now = System.nanoTime();
+        boolean heartbeat = now - lastHeartbeat >= heartbeatIntervalNanos;
+        if (heartbeat) {
+            lastHeartbeat = now;
+        }
+        if (subscribersByUser.isEmpty()) {
+            return;
+        }
+
+        List<String> userIds = new ArrayList<>(subscribersByUser.keySet());
+        Map<String, Long> positionByUser = new HashMap<>();
+        try {
+            List<String> queuedUserIds = userIds;
+            List<Double> scores = null;
+            if (queueShards.count() > 1) {
+                // Users without a score are not queued, they are told so below
+                List<Double> userScores = queuePositions.scores(userIds);
+                queuedUserIds = new ArrayList<>();
+                scores = new ArrayList<>();
+                for (int i = 0; i < userIds.size(); i++) {
+                    if (userScores.get(i) != null) {
+                        queuedUserIds.add(userIds.get(i));
+                        scores.add(userScores.get(i));
+                    }
+                }
+            }
+            if (!queuedUserIds.isEmpty()) {
+                List<Long> positions = queuePositions.positions(queuedUserIds, scores);
+                for (int i = 0; i < queuedUserIds.size(); i++) {
+                    positionByUser.put(queuedUserIds.get(i), positions.get(i));
+                }
+            }
+        } catch (DataAccessException e) {
+            log.warn("Failed to look up queue positions for {} users", userIds.size(), e);
+            return;
+        }
+
+        for (String userId : userIds) {
+            List<Subscriber> subscribers = subscribersByUser.get(userId);
+            if (subscribers == null) {
+                continue;
+            }
+            // A position of 0 means the request is no longer queued
+            Long queuedPosition = positionByUser.get(userId);
+            long position = queuedPosition != null ? queuedPosition : 0;
+            for (Subscriber subscriber : subscribers) {
+                if (position != subscriber.sentPosition) {
+                    send(subscriber, position);
+                } else if (heartbeat) {
+                    sendHeartbeat(subscriber);
+                }
+            }
+        }
+    }
+
+    /**
+     * Completes all open streams when the node shuts down, so clients reconnect to another node.
+     */
+    @PreDestroy
+    public void close() {
+        subscribersByUser.values().forEach(subscribers -> subscribers.forEach(subscriber -> subscriber.emitter.complete()));
+        executor.shutdown();
+    }
+
+    /**
+     * Helper method to send a position to a subscriber, unless a previous write to it is still pending.
+     * A skipped position is sent with a later tick, as the subscriber's sent position stays behind.
+     */
+    private void send(Subscriber subscriber, long position) {
+        if (!subscriber.writing.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                if (position > 0) {
+                    subscriber.emitter.send(SseEmitter.event().name("position").data(position));
+                } else {
+                    subscriber.emitter.send(SseEmitter.event().name("dequeued").data(""));
+                    subscriber.emitter.complete();
+                }
+                subscriber.sentPosition = position;
+                updates.increment();
+            } catch (IOException | IllegalStateException e) {
+                // The client went away; the emitter's error callback unsubscribes it
+                subscriber.emitter.completeWithError(e);
+            } finally {
+                subscriber.writing.set(false);
+            }
+        });
+    }
+
+    /**
+     * Helper method to send a comment to an idle subscriber.
+     */
+    private void sendHeartbeat(Subscriber subscriber) {
+        if (!subscriber.writing.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                subscriber.emitter.send(SseEmitter.event().comment("keep-alive"));
+            } catch (IOException | IllegalStateException e) {
+                subscriber.emitter.completeWithError(e);
+            } finally {
+                subscriber.writing.set(false);
+            }
+        });
+    }
+
+    private void unsubscribe(String userId, Subscriber subscriber) {
+        subscribersByUser.computeIfPresent(userId, (id, subscribers) -> {
+            if (subscribers.remove(subscriber)) {
+                subscriberCount.decrementAndGet();
+            }
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+
+    /**
+     * An open stream and the last position written to it.
+     */
+    private static final class Subscriber {
+
+        final SseEmitter emitter;
+        final AtomicBoolean writing = new AtomicBoolean();
+        volatile long sentPosition = -1;
+
+        Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package aroundtheeurope.apigateway.service;
+
+import aroundtheeurope.apigateway.queue.QueueShards;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.RedisChannelHandler;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisConnectionStateListener;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.TrackingArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.push.PushMessage;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.protocol.ProtocolVersion;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.net.SocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Near-cache telling whether a user has a request in the trip request queue, and since when, so repeated
+ * membership checks are answered from local memory instead of a ZSCORE round trip.
+ * Reads go through a dedicated RESP3 connection with Redis client tracking enabled: Redis pushes an
+ * invalidation message as soon as a queue shard changes, and the entries of that shard are dropped.
+ * Entries are stamped with the generation of their shard when they are loaded; an invalidation only bumps the
+ * generation, in constant time on the Redis client's event loop, and entries of an older generation are ignored
+ * from then on until they are reloaded or evicted.
+ * If the server does not support tracking, or the tracking connection is lost, entries are only trusted for a
+ * short TTL instead, and tracking is retried in the background.
+ * Local writes to the queue invalidate their user's entry right away.
+ */
+@Service
+public class QueueMembershipCache {
+
+    private static final Logger log = LoggerFactory.getLogger(QueueMembershipCache.class);
+
+    private final Cache<String, Entry> entries;
+    private final AtomicLongArray generations;
+    private final RedisTemplate<String, String> redisTemplate;
+    private final QueueShards queueShards;
+    private final RedisURI redisUri;
+    private final boolean trackingEnabled;
+    private final long fallbackTtlNanos;
+    private final Counter hits;
+    private final Counter loads;
+    private RedisClient client;
+    private StatefulRedisConnection<String, String> connection;
+    private volatile boolean tracking;
+
+    /**
+     * Constructor for QueueMembershipCache, autowiring necessary components.
+     *
+     * @param redisTemplate the RedisTemplate used while tracking is unavailable
+     * @param meterRegistry the registry holding the cache metrics
+     * @param queueShards the shards of the trip request queue
+     * @param host the Redis host
+     * @param port the Redis port
+     * @param password the Redis password (empty if none)
+     * @param timeout the command timeout of the tracking connection
+     * @param trackingEnabled whether Redis client tracking is used at all
+     * @param fallbackTtl how long entries are trusted without tracking
+     * @param trackingTtl how long entries are kept with tracking, as a safety net for lost invalidations
+     * @param maxEntries the maximum number of cached users
+     */
+    @Autowired
+    public QueueMembershipCache(
+            RedisTemplate<String, String> redisTemplate,
+            MeterRegistry meterRegistry,
+            QueueShards queueShards,
+            @Value("${spring.data.redis.host:localhost}") String host,
+            @Value("${spring.data.redis.port:6379}") int port,
+            @Value("${spring.data.redis.password:}") String password,
+            @Value("${spring.data.redis.timeout:2s}") Duration timeout,
+            @Value("${gateway.queue-cache.tracking:true}") boolean trackingEnabled,
+            @Value("${gateway.queue-cache.ttl:500ms}") Duration fallbackTtl,
+            @Value("${gateway.queue-cache.tracking-ttl:60s}") Duration trackingTtl,
+            @Value("${gateway.queue-cache.max-entries:100000}") long maxEntries
+    ) {
+        this(redisTemplate, meterRegistry, queueShards, redisUri(host, port, password, timeout),
+                trackingEnabled, fallbackTtl, trackingTtl, maxEntries);
+    }
+
+    /**
+     * Constructor for QueueMembershipCache connecting to the given Redis server.
+     */
+    QueueMembershipCache(
+            RedisTemplate<String, String> redisTemplate,
+            MeterRegistry meterRegistry,
+            QueueShards queueShards,
+            RedisURI redisUri,
+            boolean trackingEnabled,
+            Duration fallbackTtl,
+            Duration trackingTtl,
+            long maxEntries
+    ) {
+        this.redisTemplate = redisTemplate;
+        this.queueShards = queueShards;
+        this.generations = new AtomicLongArray(queueShards.count());
+        this.redisUri = redisUri;
+        this.trackingEnabled = trackingEnabled;
+        this.fallbackTtlNanos = fallbackTtl.toNanos();
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(trackingTtl)
+                .build();
+        this.hits = meterRegistry.counter("gateway.queue-cache.hits");
+        this.loads = meterRegistry.counter("gateway.queue-cache.loads");
+        meterRegistry.gauge("gateway.queue-cache.tracking", this, cache -> cache.tracking ? 1 : 0);
+    }
+
+    /**
+     * Opens the tracking connection, if tracking is enabled.
+     */
+    @PostConstruct
+    public void start() {
+        if (!trackingEnabled) {
+            return;
+        }
+        client = RedisClient.create(redisUri);
+        client.setOptions(ClientOptions.builder().protocolVersion(ProtocolVersion.RESP3).build());
+        client.addListener(new RedisConnectionStateListener() {
+            @Override
+            public void onRedisConnected(RedisChannelHandler<?, ?> handler, SocketAddress socketAddress) {
+            }
+
+            @Override
+            public void onRedisDisconnected(RedisChannelHandler<?, ?> handler) {
+                // Invalidations sent while disconnected are lost, the next enableTracking call starts over
+                tracking = false;
+                invalidateAll();
+            }
+
+            @Override
+            public void onRedisExceptionCaught(RedisChannelHandler<?, ?> handler, Throwable cause) {
+            }
+        });
+        enableTracking();
+    }
+
+    /**
+     * Closes the tracking connection.
+     */
+    @PreDestroy
+    public void close() {
+        tracking = false;
+        if (connection != null) {
+            connection.close();
+        }
+        if (client != null) {
+            client.shutdown();
+        }
+    }
+
+    /**
+     * Tells whether the user has a request in the queue, loading the answer from Redis if it is not cached.
+     * Only a cached "queued" is trusted: acting on a stale "not queued" would drop a request,
+     * so that answer is always checked against Redis.
+     *
+     * @param userId the ID of the user
+     * @return true if the user has a request in the queue
+     */
+    public boolean isQueued(String userId) {
+        Entry entry = freshEntry(userId);
+        if (entry != null && entry.queued()) {
+            hits.increment();
+            return true;
+        }
+        return load(userId) != null;
+    }
+
+    /**
+     * Gives the cached membership of the user, without going to Redis.
+     *
+     * @param userId the ID of the user
+     * @return whether the user has a request in the queue, or null if it is not known
+     */
+    public Boolean peek(String userId) {
+        Entry entry = freshEntry(userId);
+        if (entry == null) {
+            return null;
+        }
+        hits.increment();
+        return entry.queued();
+    }
+
+    /**
+     * Gives the score (see TripRequestScheduler) of the user's request, loading it from Redis if it is not cached.
+     *
+     * @param userId the ID of the user
+     * @return the score, or null if the user has no request in the queue
+     */
+    public Double score(String userId) {
+        Entry entry = freshEntry(userId);
+        if (entry != null) {
+            hits.increment();
+            return entry.score();
+        }
+        return load(userId);
+    }
+
+    /**
+     * Drops the cached membership of a user whose request this node just added or removed.
+     *
+     * @param userId the ID of the user
+     */
+    public void invalidate(String userId) {
+        entries.invalidate(userId);
+    }
+
+    /**
+     * Tells whether entries are currently invalidated by Redis rather than expired by a short TTL.
+     *
+     * @return true if client tracking is active
+     */
+    public boolean isTracking() {
+        return tracking;
+    }
+
+    /**
+     * Enables client tracking on the dedicated connection, opening it first if needed.
+     * Retried periodically while tracking is unavailable, e.g. after the connection was lost.
+     */
+    @Scheduled(
+            initialDelayString = "${gateway.queue-cache.tracking-retry-ms:10000}",
+            fixedDelayString = "${gateway.queue-cache.tracking-retry-ms:10000}"
+    )
+    public synchronized void enableTracking() {
+        if (client == null || tracking) {
+            return;
+        }
+        try {
+            if (connection == null) {
+                connection = client.connect(StringCodec.UTF8);
+                connection.addListener(this::onPushMessage);
+            }
+            connection.sync().clientTracking(TrackingArgs.Builder.enabled());
+            // Entries loaded before tracking was (re-)enabled were not tracked
+            invalidateAll();
+            tracking = true;
+            log.info("Redis client tracking enabled for {} queue shards", queueShards.count());
+        } catch (RuntimeException e) {
+            log.debug("Redis client tracking unavailable, caching queue membership for a short TTL", e);
+        }
+    }
+
+    /**
+     * Helper method to load the score of a user's request and cache it.
+     * The entry carries the shard's generation from before the read, so an invalidation arriving while it was
+     * loading, which it may predate, makes it stale at once.
+     */
+    private Double load(String userId) {
+        int shard = queueShards.shardOf(userId);
+        String queueKey = queueShards.redisKey(shard);
+        long loadGeneration = generations.get(shard);
+        boolean tracked = tracking;
+        Double score = tracked
+                ? connection.sync().zscore(queueKey, userId)
+                : redisTemplate.opsForZSet().score(queueKey, userId);
+        loads.increment();
+        entries.put(userId, new Entry(score, shard, loadGeneration, System.nanoTime()));
+        if (tracked != tracking) {
+            entries.invalidate(userId);
+        }
+        return score;
+    }
+
+    /**
+     * Helper method to get a user's entry, unless its shard changed since it was loaded
+     * or it is too old to be trusted without tracking.
+     */
+    private Entry freshEntry(String userId) {
+        Entry entry = entries.getIfPresent(userId);
+        if (entry == null || entry.generation() != generations.get(entry.shard())
+                || (!tracking && System.nanoTime() - entry.loadedAt() > fallbackTtlNanos)) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Helper method to handle an invalidation message: it lists the changed keys, or none if all keys changed.
+     * Runs on the Redis client's event loop, so it only bumps shard generations and never walks the entries.
+     */
+    private void onPushMessage(PushMessage message) {
+        if (!"invalidate".equals(message.getType())) {
+            return;
+        }
+        List<Object> content = message.getContent(StringCodec.UTF8::decodeKey);
+        if (content.size() < 2 || !(content.get(1) instanceof List<?> keys)) {
+            invalidateAll();
+            return;
+        }
+        for (Object key : keys) {
+            int shard = queueShards.shardOfRedisKey(String.valueOf(key));
+            if (shard >= 0) {
+                generations.incrementAndGet(shard);
+            }
+        }
+    }
+
+    private void invalidateAll() {
+        for (int shard = 0; shard < generations.length(); shard++) {
+            generations.incrementAndGet(shard);
+        }
+    }
+
+    private static RedisURI redisUri(String host, int port, String password, Duration timeout) {
+        RedisURI.Builder builder = RedisURI.Builder.redis(host, port).withTimeout(timeout);
+        if (!password.isEmpty()) {
+            builder.withPassword(password.toCharArray());
+        }
+        return builder.build();
+    }
+
+    /**
+     * A cached membership.
+     *
+     * @param score the score of the user's request, or null if the user has none in the queue
+     * @param shard the queue shard the user belongs to
+     * @param generation the generation of the shard when it was read from Redis
+     * @param loadedAt when it was read from Redis, in System.nanoTime() terms
+     */
+    private record Entry(Double score, int shard, long generation, long loadedAt) {
+
+        boolean queued() {
+            return score != null;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package aroundtheeurope.apigateway.service;
+
+import aroundtheeurope.apigateway.queue.QueueShards;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.zset.Tuple;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One-off migration of keys written while the RedisTemplate still used JDK serialization.
+ * Such keys and their members are rewritten as plain UTF-8 strings, and the old keys deleted.
+ * Sorted sets keep their scores and string values keep their TTL; entries already present under the new key win,
+ * so the migration can run while the gateway is serving. Entries of the unsharded trip request queue are written
+ * to their users' queue shards.
+ * It runs before the listeners start, so requests still in RabbitMQ are found queued when they are delivered.
+ * It is off by default; run it once with gateway.redis.migrate-jdk-keys=true.
+ * Serialized values are decoded by hand and only if they are plain strings, so no classes are ever deserialized.
+ */
+@Component
+public class RedisKeyMigration {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisKeyMigration.class);
+
+    private static final int STREAM_MAGIC = 0xACED;
+    private static final int STREAM_VERSION = 5;
+    private static final int TC_STRING = 0x74;
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final QueueShards queueShards;
+    private final boolean enabled;
+
+    /**
+     * Constructor for RedisKeyMigration.
+     *
+     * @param redisTemplate the RedisTemplate whose connection is used for the migration
+     * @param queueShards the shards of the trip request queue
+     * @param enabled whether the migration runs on startup
+     */
+    @Autowired
+    public RedisKeyMigration(
+            RedisTemplate<String, String> redisTemplate,
+            QueueShards queueShards,
+            @Value("${gateway.redis.migrate-jdk-keys:false}") boolean enabled
+    ) {
+        this.redisTemplate = redisTemplate;
+        this.queueShards = queueShards;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Migrates the JDK-serialized keys if enabled.
+     * If Redis cannot be reached, the migration is skipped and the gateway starts anyway.
+     */
+    @PostConstruct
+    public void run() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Integer migrated = redisTemplate.execute((RedisCallback<Integer>) this::migrate);
+            log.info("Migrated {} JDK-serialized Redis keys to string keys", migrated);
+        } catch (DataAccessException e) {
+            log.warn("Could not migrate JDK-serialized Redis keys", e);
+        }
+    }
+
+    /**
+     * Helper method to find and migrate all JDK-serialized keys.
+     *
+     * @param connection the Redis connection
+     * @return the number of migrated keys
+     */
+    private int migrate(RedisConnection connection) {
+        List<byte[]> keys = new ArrayList<>();
+        try (Cursor<byte[]> cursor = connection.keyCommands().scan(ScanOptions.scanOptions().count(1000).build())) {
+            while (cursor.hasNext()) {
+                byte[] key = cursor.next();
+                if (decodeJdkString(key) != null) {
+                    keys.add(key);
+                }
+            }
+        }
+
+        int migrated = 0;
+        for (byte[] key : keys) {
+            byte[] newKey = decodeJdkString(key).getBytes(StandardCharsets.UTF_8);
+            DataType type = connection.keyCommands().type(key);
+            boolean done = switch (type) {
+                case ZSET -> migrateSortedSet(connection, key, newKey);
+                case STRING -> migrateString(connection, key, newKey);
+                default -> false;
+            };
+            if (done) {
+                connection.keyCommands().del(key);
+                migrated++;
+            } else {
+                log.warn("Skipped JDK-serialized key {} of type {}", new String(newKey, StandardCharsets.UTF_8), type);
+            }
+        }
+        return migrated;
+    }
+
+    /**
+     * Helper method to migrate a sorted set, or the unsharded trip request queue into the shards of its users.
+     */
+    private boolean migrateSortedSet(RedisConnection connection, byte[] key, byte[] newKey) {
+        boolean queue = queueShards.legacyRedisKey().equals(new String(newKey, StandardCharsets.UTF_8));
+        for (Tuple tuple : connection.zSetCommands().zRangeWithScores(key, 0, -1)) {
+            String member = decodeJdkString(tuple.getValue());
+            if (member == null) {
+                return false;
+            }
+            byte[] targetKey = queue ? queueShards.redisKeyOf(member).getBytes(StandardCharsets.UTF_8) : newKey;
+            connection.zSetCommands().zAdd(targetKey, tuple.getScore(), member.getBytes(StandardCharsets.UTF_8),
+                    RedisZSetCommands.ZAddArgs.ifNotExists());
+        }
+        return true;
+    }
+
+    private static boolean migrateString(RedisConnection connection, byte[] key, byte[] newKey) {
+        byte[] raw = connection.stringCommands().get(key);
+        String value = raw != null ? decodeJdkString(raw) : null;
+        if (value == null) {
+            return false;
+        }
+        Long ttlMillis = connection.keyCommands().pTtl(key);
+        Expiration expiration = ttlMillis != null && ttlMillis > 0
+                ? Expiration.milliseconds(ttlMillis)
+                : Expiration.persistent();
+        connection.stringCommands().set(newKey, value.getBytes(StandardCharsets.UTF_8), expiration,
+                RedisStringCommands.SetOption.ifAbsent());
+        return true;
+    }
+
+    /**
+     * Decodes a String written by Java serialization, as JdkSerializationRedisSerializer stores it:
+     * the stream header, a string tag and the modified UTF-8 of the string.
+     *
+     * @param bytes the stored bytes
+     * @return the string, or null if the bytes are not a serialized string
+     */
+    static String decodeJdkString(byte[] bytes) {
+        if (bytes.length < 7) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (in.readUnsignedShort() != STREAM_MAGIC
+                    || in.readUnsignedShort() != STREAM_VERSION
+                    || in.readUnsignedByte() != TC_STRING) {
+                return null;
+            }
+            String value = in.readUTF();
+            return in.available() == 0 ? value : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
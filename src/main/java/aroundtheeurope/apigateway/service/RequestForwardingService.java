@@ -1,35 +1,100 @@
 package aroundtheeurope.apigateway.service;
 
+import aroundtheeurope.apigateway.loadbalancer.UpstreamLoadBalancer;
+import aroundtheeurope.apigateway.logging.AccessLogFilter;
+import aroundtheeurope.apigateway.resilience.HedgedRequestExecutor;
+import aroundtheeurope.apigateway.resilience.UpstreamGuard;
+import aroundtheeurope.apigateway.routing.HeaderPolicy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
-import java.util.Enumeration;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * Service responsible for forwarding HTTP requests to target services.
  * It constructs the target URL, copies headers, and sends the request using RestTemplate.
+ * Headers are filtered by the HeaderPolicy of the request's route in both directions.
+ * Requests without a gateway-built body can be streamed between the servlet and the upstream connection.
+ * Every call runs through the upstream's circuit breaker and bulkhead; 5xx responses count as failures.
+ * Within the guard, the call goes to the upstream instance picked by the load balancer.
+ * The upstream and the time spent waiting for it are recorded for the access log.
  */
 @Service
 public class RequestForwardingService {
 
+    private static final int BUFFER_SIZE = 8192;
+    private static final int BUFFER_POOL_SIZE = 256;
+
+    @Value("${gateway.forwarding.streaming.enabled:true}")
+    private boolean streamingEnabled;
+
     private final RestTemplate restTemplate;
+    private final UpstreamGuard upstreamGuard;
+    private final UpstreamLoadBalancer upstreamLoadBalancer;
+    private final HedgedRequestExecutor hedgedRequestExecutor;
+    private final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>(BUFFER_POOL_SIZE);
 
     /**
-     * Constructor for RequestForwardingService, autowiring the RestTemplate.
+     * Constructor for RequestForwardingService, autowiring necessary components.
      *
      * @param restTemplate the RestTemplate used for sending HTTP requests
+     * @param upstreamGuard the guard failing fast when an upstream is unhealthy or saturated
+     * @param upstreamLoadBalancer the load balancer picking the upstream instance of each call
+     * @param hedgedRequestExecutor hedges and retries idempotent fetches
      */
-    public RequestForwardingService(RestTemplate restTemplate) {
+    public RequestForwardingService(
+            RestTemplate restTemplate,
+            UpstreamGuard upstreamGuard,
+            UpstreamLoadBalancer upstreamLoadBalancer,
+            HedgedRequestExecutor hedgedRequestExecutor
+    ) {
         this.restTemplate = restTemplate;
+        this.upstreamGuard = upstreamGuard;
+        this.upstreamLoadBalancer = upstreamLoadBalancer;
+        this.hedgedRequestExecutor = hedgedRequestExecutor;
+    }
+
+    /**
+     * Forwards the HTTP request to the specified target URL, passing the original body through.
+     * In streaming mode the upstream response is written directly to the servlet response
+     * and null is returned, which tells Spring MVC the response has already been handled.
+     *
+     * @param request the original HttpServletRequest to forward
+     * @param response the HttpServletResponse to stream the upstream response into
+     * @param targetUrl the target URL where the request should be forwarded
+     * @param method the HTTP method to use (GET, POST, etc.)
+     * @return ResponseEntity with the response from the target service, or null if it was streamed
+     * @throws aroundtheeurope.apigateway.resilience.UpstreamUnavailableException if the upstream refuses calls
+     */
+    public ResponseEntity<String> forwardRequest(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            String targetUrl,
+            HttpMethod method
+    ) {
+        if (!streamingEnabled) {
+            return forwardRequest(request, targetUrl, method, null);
+        }
+        streamRequest(request, response, targetUrl, method);
+        return null;
     }
 
     /**
@@ -40,6 +105,7 @@ public class RequestForwardingService {
      * @param method the HTTP method to use (GET, POST, etc.)
      * @param body the body content to include in the forwarded request (can be null)
      * @return ResponseEntity with the response from the target service
+     * @throws aroundtheeurope.apigateway.resilience.UpstreamUnavailableException if the upstream refuses calls
      */
     public ResponseEntity<String> forwardRequest(
             HttpServletRequest request,
@@ -47,19 +113,144 @@ public class RequestForwardingService {
             HttpMethod method,
             Object body
     ) {
+        HttpHeaders headers = copyHeaders(request);
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        // The body is read as a String, so it has to arrive identity-encoded; the server compresses it for the client
+        headers.remove(HttpHeaders.ACCEPT_ENCODING);
 
-        // Copy headers from the original request, excluding Authorization
-        HttpHeaders headers = new HttpHeaders();
-        Enumeration<String> headerNames = request.getHeaderNames();
-        while (headerNames.hasMoreElements()) {
-            String headerName = headerNames.nextElement();
-            if (!"Authorization".equalsIgnoreCase(headerName)) {
-                headers.add(headerName, request.getHeader(headerName));
+        // If the body is null and the method is POST, PUT, or PATCH, extract the request body
+        if (body == null && hasBody(method)) {
+            try {
+                body = extractRequestBody(request);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read request body", e);
             }
         }
-        headers.setContentType(MediaType.APPLICATION_JSON);
 
-        // Construct the target URI with query parameters
+        URI uri = buildUri(request, targetUrl);
+        HttpEntity<Object> entity = new HttpEntity<>(body, headers);
+
+        long start = System.nanoTime();
+        ResponseEntity<String> upstreamResponse;
+        try {
+            upstreamResponse = call(uri,
+                    target -> restTemplate.exchange(target, method, entity, String.class),
+                    RequestForwardingService::isServerError);
+        } finally {
+            AccessLogFilter.recordUpstream(request, uri, System.nanoTime() - start);
+        }
+        return new ResponseEntity<>(upstreamResponse.getBody(),
+                HeaderPolicy.responseHeaders(upstreamResponse.getHeaders()), upstreamResponse.getStatusCode());
+    }
+
+    /**
+     * Forwards a GET request to the specified target URL and buffers the raw response body.
+     * Used where the gateway keeps the response, e.g. to cache it.
+     *
+     * @param request the original HttpServletRequest to forward
+     * @param targetUrl the target URL where the request should be forwarded
+     * @return ResponseEntity with the raw response body from the target service
+     * @throws aroundtheeurope.apigateway.resilience.UpstreamUnavailableException if the upstream refuses calls
+     */
+    public ResponseEntity<byte[]> fetch(HttpServletRequest request, String targetUrl) {
+        return fetch(request, targetUrl, null);
+    }
+
+    /**
+     * Forwards an idempotent GET request to the specified target URL and buffers the raw response body.
+     * Calls of routes enabled for it are hedged and retried; the request is read up front,
+     * so the attempts never touch the servlet request.
+     *
+     * @param request the original HttpServletRequest to forward
+     * @param targetUrl the target URL where the request should be forwarded
+     * @param route the route of the request, deciding whether it is hedged and retried (can be null)
+     * @return ResponseEntity with the raw response body from the target service
+     * @throws aroundtheeurope.apigateway.resilience.UpstreamUnavailableException if the upstream refuses calls
+     */
+    public ResponseEntity<byte[]> fetch(HttpServletRequest request, String targetUrl, String route) {
+        HttpHeaders headers = copyHeaders(request);
+        // Ask for an identity-encoded body, so the stored bytes can be served to any client
+        headers.remove(HttpHeaders.ACCEPT_ENCODING);
+        headers.remove(HttpHeaders.IF_NONE_MATCH);
+        URI uri = buildUri(request, targetUrl);
+        HttpEntity<Void> entity = new HttpEntity<>(headers);
+
+        long start = System.nanoTime();
+        try {
+            return hedgedRequestExecutor.execute(route,
+                    () -> call(uri,
+                            target -> restTemplate.exchange(target, HttpMethod.GET, entity, byte[].class),
+                            RequestForwardingService::isServerError),
+                    RequestForwardingService::isServerError);
+        } finally {
+            AccessLogFilter.recordUpstream(request, uri, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Forwards the HTTP request to the specified target URL without materialising either body.
+     * The request body is piped from the servlet input stream into the upstream connection
+     * and the upstream response is piped into the servlet output stream using pooled buffers.
+     * The guarded call ends once the upstream's response headers have arrived, so its circuit breaker,
+     * bulkhead and instance are timed up to then; a long body, or a client reading it slowly or going away,
+     * says nothing about the upstream.
+     *
+     * @param request the original HttpServletRequest to forward
+     * @param response the HttpServletResponse to write the upstream response into
+     * @param targetUrl the target URL where the request should be forwarded
+     * @param method the HTTP method to use (GET, POST, etc.)
+     * @throws aroundtheeurope.apigateway.resilience.UpstreamUnavailableException if the upstream refuses calls
+     */
+    public void streamRequest(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            String targetUrl,
+            HttpMethod method
+    ) {
+        HttpHeaders headers = copyHeaders(request);
+        if (hasBody(method) && request.getContentLengthLong() >= 0) {
+            // A known length is sent as is, only bodies of unknown length are sent chunked
+            headers.setContentLength(request.getContentLengthLong());
+        }
+        URI uri = buildUri(request, targetUrl);
+
+        long start = System.nanoTime();
+        ClientHttpResponse clientResponse;
+        try {
+            clientResponse = call(uri, target -> send(request, target, method, headers),
+                    RequestForwardingService::hasServerError);
+        } finally {
+            // Time until the upstream answered; the body is streamed on as it arrives
+            AccessLogFilter.recordUpstream(request, uri, System.nanoTime() - start);
+        }
+        try (clientResponse) {
+            response.setStatus(clientResponse.getStatusCode().value());
+            HeaderPolicy.copyResponseHeaders(clientResponse.getHeaders(), response);
+            copy(clientResponse.getBody(), response.getOutputStream());
+        } catch (IOException e) {
+            throw new ResourceAccessException("I/O error streaming the response of \"" + uri + "\": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Helper method to copy headers from the original request as the route's HeaderPolicy allows.
+     * Authorization and hop-by-hop headers are never copied, X-Forwarded-* and Forwarded headers are added.
+     *
+     * @param request the original HttpServletRequest
+     * @return the headers to send upstream
+     */
+    HttpHeaders copyHeaders(HttpServletRequest request) {
+        return HeaderPolicy.of(request).requestHeaders(request);
+    }
+
+    /**
+     * Helper method to construct the target URI with the query parameters of the original request.
+     *
+     * @param request the original HttpServletRequest
+     * @param targetUrl the target URL where the request should be forwarded
+     * @return the target URI
+     */
+    URI buildUri(HttpServletRequest request, String targetUrl) {
         UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromHttpUrl(targetUrl);
         Map<String, String[]> params = request.getParameterMap();
         for (Map.Entry<String, String[]> entry : params.entrySet()) {
@@ -67,34 +258,114 @@ public class RequestForwardingService {
                 uriBuilder.queryParam(entry.getKey(), value);
             }
         }
+        return uriBuilder.build().toUri();
+    }
 
-        // If the body is null and the method is POST, PUT, or PATCH, extract the request body
-        if (body == null && (method == HttpMethod.POST || method == HttpMethod.PUT || method == HttpMethod.PATCH)) {
-            try {
-                body = extractRequestBody(request);
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to read request body", e);
+    /**
+     * Helper method to run a call through the upstream's guard on the instance picked by the load balancer.
+     *
+     * @param uri the target URI built from the upstream's logical URL
+     * @param call the call to run against the chosen instance's URI
+     * @param isFailure tells which results count as failures
+     * @param <T> the result type
+     * @return the result of the call
+     */
+    private <T> T call(URI uri, Function<URI, T> call, Predicate<T> isFailure) {
+        return upstreamGuard.call(uri, () -> upstreamLoadBalancer.execute(uri, call, isFailure), isFailure);
+    }
+
+    /**
+     * Helper method to send a request with the servlet request's body and wait for the response headers.
+     * The response body is left unread for the caller, who closes the response.
+     *
+     * @param request the original HttpServletRequest, whose body is piped upstream
+     * @param target the URI of the chosen upstream instance
+     * @param method the HTTP method to use
+     * @param headers the headers to send upstream
+     * @return the upstream response
+     */
+    private ClientHttpResponse send(HttpServletRequest request, URI target, HttpMethod method, HttpHeaders headers) {
+        try {
+            ClientHttpRequest clientRequest = restTemplate.getRequestFactory().createRequest(target, method);
+            clientRequest.getHeaders().putAll(headers);
+            if (hasBody(method)) {
+                if (clientRequest instanceof StreamingHttpOutputMessage streamingRequest) {
+                    streamingRequest.setBody(outputStream -> copy(request.getInputStream(), outputStream));
+                } else {
+                    copy(request.getInputStream(), clientRequest.getBody());
+                }
             }
+            return clientRequest.execute();
+        } catch (IOException e) {
+            throw new ResourceAccessException("I/O error on " + method + " request for \"" + target + "\": " + e.getMessage(), e);
         }
+    }
 
-        URI uri = uriBuilder.build().toUri();
-        HttpEntity<Object> entity = new HttpEntity<>(body, headers);
+    /**
+     * Helper method to tell whether an upstream response counts as a failure for its circuit breaker.
+     *
+     * @param response the upstream response
+     * @return true for 5xx responses
+     */
+    private static boolean isServerError(ResponseEntity<?> response) {
+        return response.getStatusCode().is5xxServerError();
+    }
 
-        System.out.println("Forwarded request: " + uri);
+    private static boolean hasServerError(ClientHttpResponse response) {
+        try {
+            return response.getStatusCode().is5xxServerError();
+        } catch (IOException e) {
+            return true;
+        }
+    }
 
-        return restTemplate.exchange(uri, method, entity, String.class);
+    /**
+     * Helper method to decide whether the given method carries a request body.
+     *
+     * @param method the HTTP method
+     * @return true for POST, PUT and PATCH
+     */
+    private static boolean hasBody(HttpMethod method) {
+        return method == HttpMethod.POST || method == HttpMethod.PUT || method == HttpMethod.PATCH;
     }
 
     /**
      * Helper method to extract the body content from the original HTTP request.
+     * The body is read as raw bytes so binary payloads and line endings are kept intact.
      *
      * @param request the original HttpServletRequest
-     * @return the body content as a String, or null if empty
+     * @return the body content as bytes, or null if empty
      * @throws IOException if an I/O error occurs while reading the request body
      */
-    private String extractRequestBody(HttpServletRequest request) throws IOException {
-        BufferedReader reader = request.getReader();
-        String body = reader.lines().collect(Collectors.joining(System.lineSeparator()));
-        return body.isEmpty() ? null : body;
+    private byte[] extractRequestBody(HttpServletRequest request) throws IOException {
+        byte[] body = StreamUtils.copyToByteArray(request.getInputStream());
+        return body.length == 0 ? null : body;
+    }
+
+    /**
+     * Helper method to pipe one stream into another through a pooled fixed-size buffer.
+     * A new buffer is allocated only when the pool is exhausted.
+     *
+     * @param in the stream to read from (may be null for an empty body)
+     * @param out the stream to write to
+     * @throws IOException if an I/O error occurs while copying
+     */
+    private void copy(InputStream in, OutputStream out) throws IOException {
+        if (in == null) {
+            return;
+        }
+        byte[] buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = new byte[BUFFER_SIZE];
+        }
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            out.flush();
+        } finally {
+            buffers.offer(buffer);
+        }
     }
 }
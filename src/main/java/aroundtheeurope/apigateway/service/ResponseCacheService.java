@@ -0,0 +1,465 @@
+package aroundtheeurope.apigateway.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Service caching idempotent trip service GET responses per user and path.
+ * Responses are kept in a bounded in-process W-TinyLFU cache and, optionally, in Redis
+ * so gateway nodes can share them. Every cached response carries an ETag, so clients
+ * polling with If-None-Match get a 304 without a body.
+ * Entries of a user are invalidated on all nodes through Redis pub/sub when their trip request finishes.
+ * Every invalidation bumps the user's generation, locally and in Redis, and a response is only cached if the
+ * generation it was fetched under is still current, so a fetch finishing after an invalidation does not
+ * bring the old response back. Each node indexes its entries by user, so an invalidation evicts them directly.
+ * Large bodies are kept gzip-encoded next to the plain ones, so clients accepting gzip get them without
+ * the body being compressed again on every hit.
+ */
+@Service
+public class ResponseCacheService {
+
+    public static final String ROUTE_TRIPS = "trips";
+    public static final String ROUTE_PREVIEW = "preview";
+    public static final String ROUTE_REQUESTS = "requests";
+    public static final String ROUTE_RESULTS = "results";
+
+    private static final String INVALIDATION_CHANNEL = "gateway:response-cache:invalidate";
+    private static final String SHARED_KEY_PREFIX = "gateway:response-cache:";
+    private static final int GENERATION_STRIPES = 1024;
+    private static final RedisScript<Long> CACHE_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/cache-response.lua"), Long.class);
+    private static final RedisScript<Long> INVALIDATE_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/invalidate-responses.lua"), Long.class);
+
+    @Value("${gateway.response-cache.enabled:true}")
+    private boolean enabled;
+    @Value("${gateway.response-cache.redis.enabled:false}")
+    private boolean sharedTierEnabled;
+
+    private final RequestForwardingService requestForwardingService;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ResponseCompressor responseCompressor;
+    private final Cache<String, CachedResponse> localCache;
+    private final Cache<String, Set<String>> localKeysByUser;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+    private final Map<String, Duration> ttlByRoute;
+    private final Duration maxTtl;
+
+    /**
+     * Constructor for ResponseCacheService, autowiring necessary components.
+     *
+     * @param requestForwardingService forwards cache misses to the trip service
+     * @param stringRedisTemplate the template for the shared cache tier and invalidation messages
+     * @param redisMessageListenerContainer the container receiving invalidation messages from other nodes
+     * @param meterRegistry the registry exposing hit and miss metrics
+     * @param responseCompressor compresses cached bodies once when they are stored
+     * @param maxEntries the maximum number of responses kept in memory
+     * @param tripsTtl how long the user's trip list is cached
+     * @param previewTtl how long the user's trip preview is cached
+     * @param requestsTtl how long the user's request list is cached
+     * @param resultsTtl how long the results of a single request are cached
+     */
+    @Autowired
+    public ResponseCacheService(
+            RequestForwardingService requestForwardingService,
+            StringRedisTemplate stringRedisTemplate,
+            RedisMessageListenerContainer redisMessageListenerContainer,
+            MeterRegistry meterRegistry,
+            ResponseCompressor responseCompressor,
+            @Value("${gateway.response-cache.max-entries:10000}") long maxEntries,
+            @Value("${gateway.response-cache.ttl.trips:60s}") Duration tripsTtl,
+            @Value("${gateway.response-cache.ttl.preview:60s}") Duration previewTtl,
+            @Value("${gateway.response-cache.ttl.requests:60s}") Duration requestsTtl,
+            @Value("${gateway.response-cache.ttl.results:10m}") Duration resultsTtl
+    ) {
+        this.requestForwardingService = requestForwardingService;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.responseCompressor = responseCompressor;
+        this.ttlByRoute = Map.of(
+                ROUTE_TRIPS, tripsTtl,
+                ROUTE_PREVIEW, previewTtl,
+                ROUTE_REQUESTS, requestsTtl,
+                ROUTE_RESULTS, resultsTtl
+        );
+        this.maxTtl = Collections.max(ttlByRoute.values());
+        this.localCache = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfter(new Expiry<String, CachedResponse>() {
+                    @Override
+                    public long expireAfterCreate(String key, CachedResponse value, long currentTime) {
+                        return value.ttl().toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, CachedResponse value, long currentTime, long currentDuration) {
+                        return value.ttl().toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, CachedResponse value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        // Keys evicted from the cache linger in the index until it expires, by then all its entries have expired
+        this.localKeysByUser = Caffeine.newBuilder()
+                .expireAfterWrite(maxTtl.plusMinutes(1))
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, localCache, "gateway.response-cache");
+        redisMessageListenerContainer.addMessageListener(
+                (message, pattern) -> evictLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(INVALIDATION_CHANNEL)
+        );
+    }
+
+    /**
+     * Serves a GET request from the cache, forwarding it to the trip service on a miss.
+     * Requests without a user or for unknown routes bypass the cache and are forwarded as usual.
+     *
+     * @param request the original HttpServletRequest
+     * @param response the HttpServletResponse used when the request bypasses the cache
+     * @param route the cached route, one of the ROUTE_* constants
+     * @param userId the ID of the user the response belongs to (can be null)
+     * @param targetUrl the target URL where the request should be forwarded on a miss
+     * @return ResponseEntity with the cached or fresh response, or null if it was streamed
+     */
+    public ResponseEntity<?> getOrForward(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            String route,
+            String userId,
+            String targetUrl
+    ) {
+        Duration ttl = ttlByRoute.get(route);
+        if (!enabled || ttl == null || userId == null) {
+            return requestForwardingService.forwardRequest(request, response, targetUrl, HttpMethod.GET);
+        }
+
+        String key = cacheKey(request, userId);
+        CachedResponse cached = localCache.getIfPresent(key);
+        // Generations are read before anything is fetched, an invalidation after this point vetoes the fill
+        long generation = generations.get(stripe(userId));
+        String sharedGeneration = null;
+        if (cached == null && sharedTierEnabled) {
+            SharedEntry sharedEntry = readShared(key, userId, ttl);
+            sharedGeneration = sharedEntry.generation();
+            cached = sharedEntry.response();
+            if (cached != null) {
+                putLocal(key, userId, cached, generation);
+            }
+        }
+
+        if (cached == null) {
+            ResponseEntity<byte[]> upstreamResponse = requestForwardingService.fetch(request, targetUrl, route);
+            MediaType contentType = upstreamResponse.getHeaders().getContentType();
+            if (upstreamResponse.getStatusCode().value() != HttpStatus.OK.value()) {
+                // Only complete results are cached, everything else is passed through as is
+                ResponseEntity.BodyBuilder builder = ResponseEntity.status(upstreamResponse.getStatusCode());
+                if (contentType != null) {
+                    builder.contentType(contentType);
+                }
+                return builder.body(upstreamResponse.getBody());
+            }
+
+            byte[] body = upstreamResponse.getBody() != null ? upstreamResponse.getBody() : new byte[0];
+            String eTag = upstreamResponse.getHeaders().getETag();
+            if (eTag == null) {
+                eTag = "\"" + DigestUtils.md5DigestAsHex(body) + "\"";
+            }
+            cached = cachedResponse(contentType != null ? contentType.toString() : null, eTag, body, ttl);
+            putLocal(key, userId, cached, generation);
+            if (sharedTierEnabled) {
+                writeShared(key, userId, cached, sharedGeneration);
+            }
+        }
+
+        boolean gzip = cached.gzipBody() != null
+                && ResponseCompressor.acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        String eTag = gzip ? ResponseCompressor.gzipETag(cached.eTag()) : cached.eTag();
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (matchesETag(ifNoneMatch, cached.eTag())
+                || (cached.gzipBody() != null && matchesETag(ifNoneMatch, ResponseCompressor.gzipETag(cached.eTag())))) {
+            ResponseEntity.HeadersBuilder<?> builder = ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag);
+            if (cached.gzipBody() != null) {
+                builder.varyBy(HttpHeaders.ACCEPT_ENCODING);
+            }
+            return builder.build();
+        }
+
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok().eTag(eTag);
+        if (cached.contentType() != null) {
+            builder.contentType(MediaType.parseMediaType(cached.contentType()));
+        }
+        if (cached.gzipBody() != null) {
+            builder.varyBy(HttpHeaders.ACCEPT_ENCODING);
+        }
+        if (gzip) {
+            builder.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+            return builder.body(cached.gzipBody());
+        }
+        return builder.body(cached.body());
+    }
+
+    /**
+     * Invalidates all cached responses of the user on every gateway node.
+     *
+     * @param userId the ID of the user whose responses changed
+     */
+    public void invalidateUser(String userId) {
+        if (!enabled) {
+            return;
+        }
+        evictLocal(userId);
+        if (sharedTierEnabled) {
+            // Delete the shared entries, bump the generation and notify the other nodes in a single atomic call
+            stringRedisTemplate.execute(INVALIDATE_SCRIPT, List.of(indexKey(userId), generationKey(userId)),
+                    Long.toString(maxTtl.toMillis()), INVALIDATION_CHANNEL, userId);
+        } else {
+            stringRedisTemplate.convertAndSend(INVALIDATION_CHANNEL, userId);
+        }
+    }
+
+    /**
+     * Helper method to drop the user's responses from the in-process cache.
+     * The generation is bumped first, so responses being fetched for the user are not cached afterwards.
+     *
+     * @param userId the ID of the user whose responses changed
+     */
+    private void evictLocal(String userId) {
+        generations.incrementAndGet(stripe(userId));
+        Set<String> keys = localKeysByUser.asMap().remove(userId);
+        if (keys != null) {
+            localCache.invalidateAll(keys);
+        }
+    }
+
+    /**
+     * Helper method to cache a response locally and index it under its user.
+     * The entry is dropped again if the user's responses were invalidated since the generation was read,
+     * as in QueueMembershipCache, so an invalidation racing with the fill always wins.
+     *
+     * @param key the cache key
+     * @param userId the ID of the user the response belongs to
+     * @param cached the response to cache
+     * @param generation the user's generation read before the response was fetched
+     */
+    private void putLocal(String key, String userId, CachedResponse cached, long generation) {
+        localCache.put(key, cached);
+        localKeysByUser.asMap().compute(userId, (id, keys) -> {
+            Set<String> userKeys = keys != null ? keys : ConcurrentHashMap.newKeySet();
+            userKeys.add(key);
+            return userKeys;
+        });
+        if (generations.get(stripe(userId)) != generation) {
+            localCache.invalidate(key);
+        }
+    }
+
+    /**
+     * Helper method to pick the generation stripe of a user.
+     * Users sharing a stripe only cost each other a skipped fill now and then.
+     */
+    private static int stripe(String userId) {
+        return (userId.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    /**
+     * Helper method to build the cache key from the user and the requested path with its query.
+     *
+     * @param request the original HttpServletRequest
+     * @param userId the ID of the user
+     * @return the cache key
+     */
+    private static String cacheKey(HttpServletRequest request, String userId) {
+        String query = request.getQueryString();
+        return query == null
+                ? userId + "|" + request.getRequestURI()
+                : userId + "|" + request.getRequestURI() + "?" + query;
+    }
+
+    /**
+     * Helper method to read a response from the shared Redis tier, together with the user's generation.
+     * Both are read in one pipelined round trip, as raw bytes.
+     *
+     * @param key the cache key
+     * @param userId the ID of the user the response belongs to
+     * @param ttl the TTL of the route, applied to the local copy
+     * @return the cached response, or null in it if it is not cached, and the user's generation
+     */
+    private SharedEntry readShared(String key, String userId, Duration ttl) {
+        byte[] entryKey = sharedKey(key, userId).getBytes(StandardCharsets.UTF_8);
+        byte[] generationKey = generationKey(userId).getBytes(StandardCharsets.UTF_8);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.stringCommands().get(entryKey);
+            connection.stringCommands().get(generationKey);
+            return null;
+        }, RedisSerializer.byteArray());
+        String generation = results.get(1) instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : "";
+        return new SharedEntry(results.get(0) instanceof byte[] value ? decodeShared(value, ttl) : null, generation);
+    }
+
+    /**
+     * Helper method to decode a shared entry: the content type and the ETag on their own lines, followed by the body.
+     *
+     * @param value the stored entry
+     * @param ttl the TTL of the route, applied to the local copy
+     * @return the cached response, or null if the entry is malformed
+     */
+    private CachedResponse decodeShared(byte[] value, Duration ttl) {
+        int contentTypeEnd = indexOf(value, 0);
+        int eTagEnd = indexOf(value, contentTypeEnd + 1);
+        if (contentTypeEnd < 0 || eTagEnd < 0) {
+            return null;
+        }
+        String contentType = new String(value, 0, contentTypeEnd, StandardCharsets.UTF_8);
+        return cachedResponse(
+                contentType.isEmpty() ? null : contentType,
+                new String(value, contentTypeEnd + 1, eTagEnd - contentTypeEnd - 1, StandardCharsets.UTF_8),
+                Arrays.copyOfRange(value, eTagEnd + 1, value.length),
+                ttl
+        );
+    }
+
+    private static int indexOf(byte[] value, int from) {
+        for (int i = from; i < value.length; i++) {
+            if (value[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Helper method to build a cached response, compressing its body if it is worth it.
+     *
+     * @param contentType the content type of the body (can be null)
+     * @param eTag the ETag of the body, as the upstream sent it or a strong one computed from the body
+     * @param body the raw response body
+     * @param ttl how long the response stays cached
+     * @return the cached response
+     */
+    private CachedResponse cachedResponse(String contentType, String eTag, byte[] body, Duration ttl) {
+        return new CachedResponse(contentType, eTag, body, responseCompressor.gzip(body, contentType), ttl);
+    }
+
+    /**
+     * Helper method to store a response in the shared Redis tier and index it under its user.
+     * The entry is written with its raw body bytes, and only if the user's generation is still the one read
+     * before the response was fetched; the check, the entry, its index and the index expiry take one script call.
+     *
+     * @param key the cache key
+     * @param userId the ID of the user the response belongs to
+     * @param cached the response to store
+     * @param generation the user's generation read before the response was fetched
+     */
+    private void writeShared(String key, String userId, CachedResponse cached, String generation) {
+        byte[] header = ((cached.contentType() != null ? cached.contentType() : "") + "\n" + cached.eTag() + "\n")
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] value = Arrays.copyOf(header, header.length + cached.body().length);
+        System.arraycopy(cached.body(), 0, value, header.length, cached.body().length);
+        stringRedisTemplate.execute(CACHE_SCRIPT, RedisSerializer.byteArray(), null,
+                List.of(sharedKey(key, userId), indexKey(userId), generationKey(userId)),
+                bytes(generation), value, bytes(Long.toString(cached.ttl().toMillis())),
+                bytes(Long.toString(maxTtl.toMillis())));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Helper method to build the shared key of a cache entry.
+     * The user's ID is the hash tag of all their keys, so scripts can use them together on a Redis Cluster.
+     */
+    private static String sharedKey(String key, String userId) {
+        return indexKey(userId) + key.substring(userId.length());
+    }
+
+    private static String indexKey(String userId) {
+        return SHARED_KEY_PREFIX + "{" + userId + "}";
+    }
+
+    private static String generationKey(String userId) {
+        return indexKey(userId) + ":generation";
+    }
+
+    /**
+     * Helper method to evaluate an If-None-Match header against the ETag of a cached response.
+     * If-None-Match uses the weak comparison, so the weakness indicator is ignored on both sides.
+     *
+     * @param ifNoneMatch the If-None-Match header value (can be null)
+     * @param eTag the ETag of the cached response, weak if the upstream sent a weak one
+     * @return true if the client already holds the cached representation
+     */
+    private static boolean matchesETag(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaqueTag = opaqueTag(eTag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || opaqueTag(tag).equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String opaqueTag(String eTag) {
+        return eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+    }
+
+    /**
+     * A cached upstream response.
+     *
+     * @param contentType the content type of the body (can be null)
+     * @param eTag the ETag of the body, as the upstream sent it or a strong one computed from the body
+     * @param body the raw response body
+     * @param gzipBody the gzip-encoded body, or null if the body is not worth compressing
+     * @param ttl how long the response stays cached
+     */
+    record CachedResponse(String contentType, String eTag, byte[] body, byte[] gzipBody, Duration ttl) {
+    }
+
+    /**
+     * A read from the shared tier.
+     *
+     * @param response the cached response, or null if it is not cached
+     * @param generation the user's invalidation generation, empty if they have none
+     */
+    private record SharedEntry(CachedResponse response, String generation) {
+    }
+}
@@ -0,0 +1,161 @@
+package aroundtheeurope.apigateway.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses response bodies the gateway keeps, so they are compressed once rather than on every request.
+ * Bodies are gzip-encoded with pooled Deflater instances; a new one is created only when the pool is exhausted.
+ * Small bodies, bodies of types that do not compress well and bodies that would not get smaller are left alone.
+ */
+@Component
+public class ResponseCompressor {
+
+    private static final int DEFLATER_POOL_SIZE = 64;
+    private static final int BUFFER_SIZE = 8192;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(DEFLATER_POOL_SIZE);
+    private final int level;
+    private final int minSize;
+
+    /**
+     * Constructor for ResponseCompressor.
+     *
+     * @param level the deflate compression level, from 1 (fastest) to 9 (smallest)
+     * @param minSize the smallest body worth compressing, in bytes
+     */
+    @Autowired
+    public ResponseCompressor(
+            @Value("${gateway.compression.level:6}") int level,
+            @Value("${gateway.compression.min-size:2048}") int minSize
+    ) {
+        this.level = level;
+        this.minSize = minSize;
+    }
+
+    /**
+     * Gzip-encodes a response body.
+     *
+     * @param body the identity-encoded body
+     * @param contentType the content type of the body (can be null)
+     * @return the gzip-encoded body, or null if the body is not worth compressing
+     */
+    public byte[] gzip(byte[] body, String contentType) {
+        if (body == null || body.length < minSize || !isCompressible(contentType)) {
+            return null;
+        }
+
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + GZIP_HEADER.length + 8);
+            out.writeBytes(GZIP_HEADER);
+            deflater.setInput(body);
+            deflater.finish();
+            byte[] buffer = new byte[Math.min(body.length, BUFFER_SIZE)];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            writeIntLittleEndian(out, (int) crc.getValue());
+            writeIntLittleEndian(out, body.length);
+            byte[] compressed = out.toByteArray();
+            return compressed.length < body.length ? compressed : null;
+        } finally {
+            deflater.reset();
+            if (!deflaters.offer(deflater)) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Tells whether a client accepts gzip-encoded responses.
+     * The whole header is read: an explicit gzip entry decides over a "*" wildcard wherever either appears,
+     * so "*;q=0, gzip" accepts gzip and "gzip;q=0, *" does not.
+     *
+     * @param acceptEncoding the Accept-Encoding header of the request (can be null)
+     * @return true if gzip, or else "*", is listed without being refused with q=0
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Boolean wildcard = null;
+        for (String candidate : acceptEncoding.split(",")) {
+            String[] parts = candidate.split(";");
+            String coding = parts[0].trim();
+            if (coding.equalsIgnoreCase("gzip")) {
+                return !isRefused(parts);
+            }
+            if (coding.equals("*") && wildcard == null) {
+                wildcard = !isRefused(parts);
+            }
+        }
+        return Boolean.TRUE.equals(wildcard);
+    }
+
+    /**
+     * Derives the ETag of the gzip-encoded representation from the ETag of the identity-encoded one.
+     *
+     * @param eTag the ETag of the identity-encoded body
+     * @return the ETag of the gzip-encoded body
+     */
+    public static String gzipETag(String eTag) {
+        return eTag.endsWith("\"")
+                ? eTag.substring(0, eTag.length() - 1) + "-gzip\""
+                : eTag + "-gzip";
+    }
+
+    /**
+     * Helper method to decide whether bodies of a content type are worth compressing.
+     *
+     * @param contentType the content type (can be null)
+     * @return true for JSON, XML, JavaScript and text bodies
+     */
+    private static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase();
+        return type.startsWith("text/") || type.contains("json") || type.contains("xml") || type.contains("javascript");
+    }
+
+    /**
+     * Helper method to tell whether an Accept-Encoding entry refuses its coding with its quality parameter.
+     *
+     * @param parts the coding followed by its parameters, e.g. "gzip" and " q=0"
+     * @return true for a quality of 0
+     */
+    private static boolean isRefused(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2)) == 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void writeIntLittleEndian(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+}
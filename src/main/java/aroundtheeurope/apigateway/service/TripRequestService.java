@@ -1,19 +1,24 @@
 package aroundtheeurope.apigateway.service;
 
+import aroundtheeurope.apigateway.codec.TripRequestCodec;
+import aroundtheeurope.apigateway.codec.TripRequestCodecs;
 import aroundtheeurope.apigateway.dto.ForwardedTripRequestDTO;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import aroundtheeurope.apigateway.queue.QueuePositions;
+import aroundtheeurope.apigateway.queue.QueueShards;
+import aroundtheeurope.apigateway.queue.TripRequestScheduler;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.util.Collections;
+
 
 /**
  * Service responsible for managing trip requests, including queuing, removal, and position retrieval.
- * Uses RabbitMQ for queuing requests and Redis for tracking the state of requests.
+ * Requests are queued in the scheduler stage in Redis, which orders them for dispatch to RabbitMQ
+ * (see TripRequestScheduler).
  */
 @Service
 public class TripRequestService {
@@ -21,55 +26,67 @@ public class TripRequestService {
     @Value("${trip-service.url}")
     private String tripServiceUrl;
 
-    private final RabbitTemplate rabbitTemplate;
-    private final RedisTemplate<String, String> redisTemplate;
-    private final ObjectMapper objectMapper;
+    private final TripRequestCodecs tripRequestCodecs;
+    private final QueueMembershipCache queueMembershipCache;
+    private final QueueShards queueShards;
+    private final QueuePositions queuePositions;
+    private final TripRequestScheduler tripRequestScheduler;
 
     /**
      * Constructor for TripRequestService, autowiring necessary components.
      *
-     * @param rabbitTemplate the RabbitTemplate for sending messages to RabbitMQ
-     * @param redisTemplate the RedisTemplate for interacting with Redis (used to store request states)
-     * @param objectMapper the ObjectMapper for serializing trip request data
+     * @param tripRequestCodecs the codecs for encoding trip request messages
+     * @param queueMembershipCache the near-cache answering repeated queue membership checks
+     * @param queueShards the shards of the trip request queue
+     * @param queuePositions computes positions across the queue shards
+     * @param tripRequestScheduler the scheduler queuing requests in dispatch order
      */
     @Autowired
     public TripRequestService(
-            RabbitTemplate rabbitTemplate,
-            RedisTemplate<String, String> redisTemplate,
-            ObjectMapper objectMapper
+            TripRequestCodecs tripRequestCodecs,
+            QueueMembershipCache queueMembershipCache,
+            QueueShards queueShards,
+            QueuePositions queuePositions,
+            TripRequestScheduler tripRequestScheduler
     ) {
-        this.rabbitTemplate = rabbitTemplate;
-        this.redisTemplate = redisTemplate;
-        this.objectMapper = objectMapper;
+        this.tripRequestCodecs = tripRequestCodecs;
+        this.queueMembershipCache = queueMembershipCache;
+        this.queueShards = queueShards;
+        this.queuePositions = queuePositions;
+        this.tripRequestScheduler = tripRequestScheduler;
     }
 
     /**
      * Queues a new trip request if the user doesn't already have one in the queue.
-     * The request is added to RabbitMQ and tracked in Redis.
+     * The request is scheduled in Redis and sent to RabbitMQ by the dispatcher when its turn comes.
      *
      * @param request the trip request to queue
      * @param userId the ID of the user making the request
+     * @param priorityClass the priority class of the user, or null if they have none
      * @return ResponseEntity indicating the result of the queuing operation
      */
-    public ResponseEntity<String> queueTripRequest(ForwardedTripRequestDTO request, String userId) {
+    public ResponseEntity<String> queueTripRequest(ForwardedTripRequestDTO request, String userId, String priorityClass) {
 
-        // Check if user already has a request in the queue
-        if (redisTemplate.opsForZSet().score("tripRequestQueueSet", userId) != null) {
+        // A user known to be queued is turned away without asking Redis
+        if (Boolean.TRUE.equals(queueMembershipCache.peek(userId))) {
             return ResponseEntity.status(409).body("User already has a request in the queue.");
         }
 
-        // Add the request to Redis with the current timestamp as the score
-        double score = System.currentTimeMillis();
-        redisTemplate.opsForZSet().add("tripRequestQueueSet", userId, score);
-
+        byte[] body;
+        TripRequestCodec codec = tripRequestCodecs.encoder();
         try {
-            // Serialize the request and send it to RabbitMQ
-            String serializedRequest = objectMapper.writeValueAsString(request);
-            rabbitTemplate.convertAndSend("tripRequestQueue", serializedRequest);
-        } catch (JsonProcessingException e) {
+            body = codec.encode(request);
+        } catch (IOException e) {
             return ResponseEntity.status(500).body("Failed to serialize request.");
         }
 
+        // The duplicate check and the insert are a single atomic script call, so they cannot race
+        boolean added = tripRequestScheduler.enqueue(request, priorityClass, codec.contentType(), body);
+        queueMembershipCache.invalidate(userId);
+        if (!added) {
+            return ResponseEntity.status(409).body("User already has a request in the queue.");
+        }
+
         return ResponseEntity.accepted().body("Request queued successfully.");
     }
 
@@ -80,30 +97,42 @@ public class TripRequestService {
      * @return ResponseEntity indicating the result of the removal operation
      */
     public ResponseEntity<String> removeTripRequest(String userId) {
-        Long removed = redisTemplate.opsForZSet().remove("tripRequestQueueSet", userId);
-        if (removed != null && removed > 0) {
+        boolean removed = tripRequestScheduler.remove(userId);
+        queueMembershipCache.invalidate(userId);
+        if (removed) {
             return ResponseEntity.ok("Request removed successfully.");
         }
         return ResponseEntity.status(404).body("No request found for the user.");
     }
 
     /**
-     * Retrieves the position of the user's trip request in the queue.
+     * Retrieves the position of the user's trip request in the queue, counted across all queue shards.
+     * The queue is kept in dispatch order: at position n, n - 1 requests reach the trip service before the user's,
+     * counting those already sent to it and not yet finished.
      *
      * @param userId the ID of the user whose request position is to be retrieved
      * @return ResponseEntity with the position of the request or an error message
      */
     public ResponseEntity<String> getTripRequestPosition(String userId) {
-        Double score = redisTemplate.opsForZSet().score("tripRequestQueueSet", userId);
-        if (score == null) {
+        if (Boolean.FALSE.equals(queueMembershipCache.peek(userId))) {
             return ResponseEntity.status(404).body("No request found for the user.");
         }
 
-        Long rank = redisTemplate.opsForZSet().rank("tripRequestQueueSet", userId);
-        if (rank == null) {
+        Double score = null;
+        if (queueShards.count() > 1) {
+            // Other shards are counted up to the user's score, which the near-cache usually knows
+            score = queueMembershipCache.score(userId);
+            if (score == null) {
+                return ResponseEntity.status(404).body("No request found for the user.");
+            }
+        }
+
+        // ZRANK answers nil for a missing member, so no separate existence check is needed
+        Long position = queuePositions.positions(Collections.singletonList(userId), Collections.singletonList(score)).get(0);
+        if (position == null) {
             return ResponseEntity.status(404).body("No request found for the user.");
         }
 
-        return ResponseEntity.ok(String.valueOf(rank + 1));
+        return ResponseEntity.ok(String.valueOf(position));
     }
 }
@@ -3,19 +3,19 @@ package aroundtheeurope.apigateway.service;
 import aroundtheeurope.apigateway.dto.TripRequestDTO;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
+import java.time.Month;
+import java.time.Year;
 import java.util.ArrayList;
 
 /**
  * Service responsible for validating and setting default values for trip requests.
  * Ensures that the trip request contains valid data and fills in defaults where necessary.
+ * Dates are accepted as {@code yyyy-MM-dd} or ISO local date-times and normalised to {@code yyyy-MM-ddTHH:mm:ss}.
  */
 @Service
 public class TripRequestValidator {
     private static final String DEFAULT_RETURN_BEFORE = "3000-01-01T00:00:00";
-    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+    private static final String MIDNIGHT = "T00:00:00";
 
     /**
      * Validates the given TripRequestDTO and sets default values for any missing or invalid fields.
@@ -56,6 +56,12 @@ public class TripRequestValidator {
             tripRequestDTO.setTimeLimitSeconds(10);
         }
 
+        // Reject requests whose constraints cannot be satisfied
+        if (tripRequestDTO.getDepartureAt().compareTo(tripRequestDTO.getReturnBefore()) >= 0
+                || tripRequestDTO.getMinStay() > tripRequestDTO.getMaxStay()) {
+            return null;
+        }
+
         // Initialize excluded cities if null
         if (tripRequestDTO.getExcludedAirports() == null){
             tripRequestDTO.setExcludedAirports(new ArrayList<>());
@@ -75,17 +81,95 @@ public class TripRequestValidator {
         if (date == null || date.isEmpty()) {
             return defaultValue;
         }
-        try {
-            LocalDateTime.parse(date, DATE_TIME_FORMATTER); // Validate the date format
-        } catch (DateTimeParseException e) {
-            try {
-                // Attempt to parse with a time component if missing
-                LocalDateTime.parse(date + "T00:00:00", DATE_TIME_FORMATTER);
-                return date + "T00:00:00";
-            } catch (DateTimeParseException e2) {
-                return defaultValue;    // Return default if all parsing attempts fail
+        String normalized = normalizeDate(date);
+        return normalized != null ? normalized : defaultValue;
+    }
+
+    /**
+     * Validates a date in one of the shapes {@code yyyy-MM-dd}, {@code yyyy-MM-ddTHH:mm},
+     * {@code yyyy-MM-ddTHH:mm:ss} or {@code yyyy-MM-ddTHH:mm:ss.SSSSSSSSS} and normalises it
+     * to an ISO local date-time with at least second precision.
+     * The input is checked character by character, so invalid input costs no exception.
+     *
+     * @param date the date string to normalise
+     * @return the normalised date-time string, or null if the input is not a valid date
+     */
+    static String normalizeDate(String date) {
+        int length = date.length();
+        if (length < 10 || !isValidDate(date)) {
+            return null;
+        }
+        if (length == 10) {
+            return date.concat(MIDNIGHT);
+        }
+        if (length < 16 || date.charAt(10) != 'T'
+                || !isNumberInRange(date, 11, 0, 23) || date.charAt(13) != ':'
+                || !isNumberInRange(date, 14, 0, 59)) {
+            return null;
+        }
+        if (length == 16) {
+            return date.concat(":00");
+        }
+        if (length < 19 || date.charAt(16) != ':' || !isNumberInRange(date, 17, 0, 59)) {
+            return null;
+        }
+        if (length == 19) {
+            return date;
+        }
+        // Optional fraction of a second with one to nine digits
+        if (date.charAt(19) != '.' || length > 29 || length == 20) {
+            return null;
+        }
+        for (int i = 20; i < length; i++) {
+            if (!isDigit(date.charAt(i))) {
+                return null;
             }
         }
         return date;
     }
+
+    /**
+     * Helper method to check the {@code yyyy-MM-dd} prefix of a date string,
+     * including the number of days of the month in leap years.
+     *
+     * @param date the date string, at least 10 characters long
+     * @return true if the prefix is a valid calendar date
+     */
+    private static boolean isValidDate(String date) {
+        if (date.charAt(4) != '-' || date.charAt(7) != '-'
+                || !isDigit(date.charAt(0)) || !isDigit(date.charAt(1))
+                || !isDigit(date.charAt(2)) || !isDigit(date.charAt(3))
+                || !isNumberInRange(date, 5, 1, 12)) {
+            return false;
+        }
+        int year = (date.charAt(0) - '0') * 1000 + (date.charAt(1) - '0') * 100
+                + (date.charAt(2) - '0') * 10 + (date.charAt(3) - '0');
+        int month = twoDigits(date, 5);
+        return isNumberInRange(date, 8, 1, Month.of(month).length(Year.isLeap(year)));
+    }
+
+    /**
+     * Helper method to check that two characters form a number within the given bounds.
+     *
+     * @param date the string to check
+     * @param offset the position of the first digit
+     * @param min the smallest accepted value
+     * @param max the largest accepted value
+     * @return true if both characters are digits and the number is within the bounds
+     */
+    private static boolean isNumberInRange(String date, int offset, int min, int max) {
+        if (!isDigit(date.charAt(offset)) || !isDigit(date.charAt(offset + 1))) {
+            return false;
+        }
+        int value = twoDigits(date, offset);
+        return value >= min && value <= max;
+    }
+
+    private static int twoDigits(String date, int offset) {
+        return (date.charAt(offset) - '0') * 10 + (date.charAt(offset + 1) - '0');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
 }
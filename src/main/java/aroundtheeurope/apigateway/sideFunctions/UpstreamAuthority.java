@@ -0,0 +1,24 @@
+package aroundtheeurope.apigateway.sideFunctions;
+
+import java.net.URI;
+
+/**
+ * Identifies an upstream by scheme, host and port, so any URI of the upstream maps to the same key
+ * whether or not it spells out the default port.
+ */
+public class UpstreamAuthority {
+
+    /**
+     * Gives the authority key of the upstream a URI points to.
+     *
+     * @param uri any URI of the upstream
+     * @return the authority key
+     */
+    public static String of(URI uri) {
+        int port = uri.getPort();
+        if (port == -1) {
+            port = "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+        }
+        return uri.getScheme() + "://" + uri.getHost() + ":" + port;
+    }
+}
@@ -0,0 +1,21 @@
+-- Stores a response in the shared response cache and indexes it under its user, unless the user's responses
+-- were invalidated since the response was fetched: a response fetched before an invalidation may predate it.
+--
+-- KEYS[1] the cache entry
+-- KEYS[2] the index of the user's entries
+-- KEYS[3] the user's invalidation generation
+-- ARGV[1] the generation read before the response was fetched, empty if there was none
+-- ARGV[2] the entry: content type and ETag on their own lines, followed by the body
+-- ARGV[3] the TTL of the entry in milliseconds
+-- ARGV[4] the TTL of the index in milliseconds, longer than that of any entry
+--
+-- Returns 1 if the response was stored, 0 if the user's responses were invalidated meanwhile.
+
+if (redis.call('GET', KEYS[3]) or '') ~= ARGV[1] then
+    return 0
+end
+redis.call('SET', KEYS[1], ARGV[2], 'PX', ARGV[3])
+redis.call('SADD', KEYS[2], KEYS[1])
+-- The index must outlive every entry it points to
+redis.call('PEXPIRE', KEYS[2], ARGV[4])
+return 1
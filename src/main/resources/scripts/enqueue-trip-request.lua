@@ -0,0 +1,16 @@
+-- Queues a trip request unless its user already has one queued, and keeps the encoded request for the dispatcher.
+-- Both happen at once, so the dispatcher never sees a queued request without its body.
+--
+-- KEYS[1] the sorted set of the user's queue shard
+-- KEYS[2] the hash of the shard's waiting requests
+-- ARGV[1] the user's ID
+-- ARGV[2] the score of the request, its arrival time in milliseconds plus the policy's delay
+-- ARGV[3] the encoded request
+--
+-- Returns 1 if the request was queued, 0 if the user already had one in the queue.
+
+if redis.call('ZADD', KEYS[1], 'NX', ARGV[2], ARGV[1]) == 0 then
+    return 0
+end
+redis.call('HSET', KEYS[2], ARGV[1], ARGV[3])
+return 1
@@ -0,0 +1,22 @@
+-- Deletes a user's responses from the shared response cache, bumps their invalidation generation so responses
+-- still being fetched are not stored, and notifies the other gateway nodes, all at once.
+-- The user's entries share a hash tag with their index, so they are on the same cluster slot.
+--
+-- KEYS[1] the index of the user's entries
+-- KEYS[2] the user's invalidation generation
+-- ARGV[1] the TTL of the generation in milliseconds, longer than any response takes to fetch
+-- ARGV[2] the invalidation channel
+-- ARGV[3] the user's ID
+--
+-- Returns the number of entries deleted.
+
+local keys = redis.call('SMEMBERS', KEYS[1])
+-- Delete in batches, unpack is limited in the number of values it returns
+for i = 1, #keys, 1000 do
+    redis.call('DEL', unpack(keys, i, math.min(i + 999, #keys)))
+end
+redis.call('DEL', KEYS[1])
+redis.call('INCR', KEYS[2])
+redis.call('PEXPIRE', KEYS[2], ARGV[1])
+redis.call('PUBLISH', ARGV[2], ARGV[3])
+return #keys
@@ -0,0 +1,45 @@
+-- Releases the next trip requests of a queue shard for dispatch, lowest score first.
+-- Released entries stay in the sorted set until the listener is done with them, so cancelled requests are still
+-- recognised and positions still count them, but are rescored below all waiting entries (to their release time
+-- minus an offset) so they keep ranking first. Entries released longer ago than the redispatch timeout are
+-- released again, in case their message was lost. Every release stamps the entry with a new score, which the
+-- message carries, so the listener drops copies of earlier releases.
+--
+-- KEYS[1] the sorted set of the shard
+-- KEYS[2] the hash of the shard's waiting requests
+-- ARGV[1] the maximum number of requests to release
+-- ARGV[2] the offset subtracted from the release time
+-- ARGV[3] the redispatch timeout in milliseconds
+--
+-- Returns the number of requests released again and the score given to the released entries, followed by the
+-- user ID, previous score and encoded request of every released one. The previous score lets the dispatcher put
+-- back entries whose message it failed to send. Requests queued by older gateways have no encoded request
+-- (an empty string), their message is in RabbitMQ.
+
+local limit = tonumber(ARGV[1])
+local offset = tonumber(ARGV[2])
+local redispatchAfter = tonumber(ARGV[3])
+
+-- Redis time is used, so clock skew between gateway nodes does not matter
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local released = now - offset
+
+local stale = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', '(' .. string.format('%d', released - redispatchAfter),
+        'LIMIT', 0, limit)
+local waiting = {}
+if #stale < limit then
+    waiting = redis.call('ZRANGEBYSCORE', KEYS[1], 0, '+inf', 'LIMIT', 0, limit - #stale)
+end
+
+local result = { #stale, released }
+for _, entries in ipairs({ stale, waiting }) do
+    for _, userId in ipairs(entries) do
+        local previous = redis.call('ZSCORE', KEYS[1], userId)
+        redis.call('ZADD', KEYS[1], 'XX', string.format('%d', released), userId)
+        table.insert(result, userId)
+        table.insert(result, previous)
+        table.insert(result, redis.call('HGET', KEYS[2], userId) or '')
+    end
+end
+return result
@@ -0,0 +1,19 @@
+-- Puts released trip requests whose message was not sent back to the scores they had before the release, so they
+-- wait in their place again instead of ranking first until the redispatch timeout. An entry is only put back if it
+-- still has the score of that release: one removed by the listener or released again since is left alone.
+--
+-- KEYS[1] the sorted set of the shard
+-- ARGV[1] the score the release gave the entries
+-- ARGV[2..] the user ID and previous score of every entry to put back
+--
+-- Returns the number of entries put back.
+
+local restored = 0
+for i = 2, #ARGV, 2 do
+    local score = redis.call('ZSCORE', KEYS[1], ARGV[i])
+    if score and tonumber(score) == tonumber(ARGV[1]) then
+        redis.call('ZADD', KEYS[1], 'XX', ARGV[i + 1], ARGV[i])
+        restored = restored + 1
+    end
+end
+return restored
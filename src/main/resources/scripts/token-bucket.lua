@@ -0,0 +1,37 @@
+-- Token bucket shared by all gateway nodes.
+-- Takes up to the requested number of tokens at once, so a node can lease a batch and spend it locally.
+--
+-- KEYS[1] the bucket key
+-- ARGV[1] the bucket capacity
+-- ARGV[2] the refill rate in tokens per second
+-- ARGV[3] the number of tokens requested
+--
+-- Returns the number of tokens granted and, when none were, the milliseconds until the next one is available.
+
+local capacity = tonumber(ARGV[1])
+local rate = tonumber(ARGV[2])
+local requested = tonumber(ARGV[3])
+
+-- Redis time is used, so clock skew between gateway nodes does not matter
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+local bucket = redis.call('HMGET', KEYS[1], 'tokens', 'ts')
+local tokens = tonumber(bucket[1]) or capacity
+local ts = tonumber(bucket[2]) or now
+if now > ts then
+    tokens = math.min(capacity, tokens + (now - ts) * rate / 1000)
+end
+
+local granted = math.min(requested, math.floor(tokens))
+tokens = tokens - granted
+local retryAfter = 0
+if granted == 0 then
+    retryAfter = math.ceil((1 - tokens) * 1000 / rate)
+end
+
+redis.call('HSET', KEYS[1], 'tokens', tostring(tokens), 'ts', tostring(math.max(now, ts)))
+-- An untouched bucket is full again after capacity / rate seconds and can be dropped
+redis.call('PEXPIRE', KEYS[1], math.ceil(capacity * 1000 / rate) + 1000)
+
+return { granted, retryAfter }
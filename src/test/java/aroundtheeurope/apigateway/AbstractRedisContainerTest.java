@@ -0,0 +1,55 @@
+package aroundtheeurope.apigateway;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+/**
+ * Base class for tests running against a real Redis server in a container; skipped if Docker is not available.
+ * The server is started once per test class and flushed before every test.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+public abstract class AbstractRedisContainerTest {
+
+    @Container
+    protected static final GenericContainer<?> REDIS =
+            new GenericContainer<>(DockerImageName.parse("redis:7.2-alpine")).withExposedPorts(6379);
+
+    protected LettuceConnectionFactory connectionFactory;
+    protected StringRedisTemplate redisTemplate;
+
+    @BeforeEach
+    void connectRedis() {
+        connectionFactory = newConnectionFactory();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+        redisTemplate.execute(connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        }, true);
+    }
+
+    @AfterEach
+    void disconnectRedis() {
+        connectionFactory.destroy();
+    }
+
+    /**
+     * Creates another connection factory to the server, as another gateway node would have.
+     * The caller destroys it.
+     *
+     * @return the started connection factory
+     */
+    protected static LettuceConnectionFactory newConnectionFactory() {
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(REDIS.getHost(), REDIS.getMappedPort(6379)));
+        factory.afterPropertiesSet();
+        factory.start();
+        return factory;
+    }
+}
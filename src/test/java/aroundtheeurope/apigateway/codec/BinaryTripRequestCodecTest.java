@@ -0,0 +1,62 @@
+package aroundtheeurope.apigateway.codec;
+
+import aroundtheeurope.apigateway.dto.ForwardedTripRequestDTO;
+import aroundtheeurope.apigateway.dto.TripRequestDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryTripRequestCodecTest {
+
+    private final BinaryTripRequestCodec codec = new BinaryTripRequestCodec();
+
+    @Test
+    void roundTripKeepsAllFields() throws Exception {
+        TripRequestDTO tripRequestDTO = new TripRequestDTO();
+        tripRequestDTO.setOrigin("BTS");
+        tripRequestDTO.setDepartureAt("2024-10-10T00:00:00");
+        tripRequestDTO.setReturnBefore("2024-10-20T00:00:00");
+        tripRequestDTO.setBudget(300.5);
+        tripRequestDTO.setMaxStay(4);
+        tripRequestDTO.setMinStay(2);
+        tripRequestDTO.setSchengenOnly(true);
+        tripRequestDTO.setExcludedAirports(List.of("VIE", "BUD"));
+        tripRequestDTO.setTimeLimitSeconds(60);
+        ForwardedTripRequestDTO request = new ForwardedTripRequestDTO(tripRequestDTO, "user-1");
+
+        ForwardedTripRequestDTO decoded = codec.decode(codec.encode(request));
+
+        assertEquals("user-1", decoded.getUserId());
+        assertEquals("BTS", decoded.getOrigin());
+        assertNull(decoded.getDestination());
+        assertEquals("2024-10-10T00:00:00", decoded.getDepartureAt());
+        assertEquals("2024-10-20T00:00:00", decoded.getReturnBefore());
+        assertEquals(300.5, decoded.getBudget());
+        assertEquals(4, decoded.getMaxStay());
+        assertEquals(2, decoded.getMinStay());
+        assertTrue(decoded.isSchengenOnly());
+        assertEquals(List.of("VIE", "BUD"), decoded.getExcludedAirports());
+        assertEquals(60, decoded.getTimeLimitSeconds());
+    }
+
+    @Test
+    void encodingIsSmallerThanJson() throws Exception {
+        TripRequestDTO tripRequestDTO = new TripRequestDTO();
+        tripRequestDTO.setOrigin("BTS");
+        tripRequestDTO.setDepartureAt("2024-10-10T00:00:00");
+        tripRequestDTO.setBudget(300);
+        ForwardedTripRequestDTO request = new ForwardedTripRequestDTO(tripRequestDTO, "user-1");
+
+        byte[] json = new ObjectMapper().writeValueAsBytes(request);
+
+        assertTrue(codec.encode(request).length < json.length);
+    }
+
+    @Test
+    void rejectsUnknownVersion() {
+        assertThrows(java.io.IOException.class, () -> codec.decode(new byte[]{42}));
+    }
+}
@@ -0,0 +1,143 @@
+package aroundtheeurope.apigateway.load;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Load test fixture that fires many concurrent requests through the gateway
+ * to a stub trip service answering with a fixed latency.
+ * Subclasses select the gateway execution mode. There are five times more requests than Tomcat worker threads, so
+ * the thread-per-request model needs a round of upstream latency per pool's worth of requests, while virtual threads
+ * wait for all of them at once. Each mode publishes its elapsed time and throughput as report entries and in its
+ * assertion messages; compare them on a machine with several cores, with one core both modes are CPU bound.
+ */
+@Tag("load")
+abstract class AbstractGatewayLoadTest {
+
+    static final int TOMCAT_THREADS = 200;
+    private static final int CONCURRENT_REQUESTS = 5 * TOMCAT_THREADS;
+    private static final long UPSTREAM_LATENCY_MS = 200;
+    // The least time the thread-per-request model can take for all requests
+    static final long PLATFORM_THREAD_FLOOR_MS = CONCURRENT_REQUESTS / TOMCAT_THREADS * UPSTREAM_LATENCY_MS;
+    private static final byte[] UPSTREAM_BODY = "[]".getBytes(StandardCharsets.UTF_8);
+
+    // Shared by both execution modes for the lifetime of the test JVM
+    private static final HttpServer upstream = startUpstream();
+
+    @LocalServerPort
+    private int port;
+
+    @DynamicPropertySource
+    static void upstreamProperties(DynamicPropertyRegistry registry) {
+        registry.add("trip-service.url", () -> "http://localhost:" + upstream.getAddress().getPort());
+        registry.add("gateway.http.max-connections", () -> CONCURRENT_REQUESTS);
+        registry.add("trip-service.http.max-connections", () -> CONCURRENT_REQUESTS);
+        registry.add("trip-service.bulkhead.max-concurrent-calls", () -> CONCURRENT_REQUESTS);
+        // All requests come from one client, the limiter would reject most of them
+        registry.add("gateway.rate-limit.enabled", () -> false);
+    }
+
+    @Test
+    void forwardsConcurrentRequests(TestReporter testReporter) {
+        HttpClient client = HttpClient.newBuilder()
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        // Warm up the code paths, so the first mode to run is not measured while it is still being compiled
+        sendConcurrently(client, TOMCAT_THREADS);
+
+        long start = System.nanoTime();
+        sendConcurrently(client, CONCURRENT_REQUESTS);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        long requestsPerSecond = CONCURRENT_REQUESTS * 1000L / Math.max(elapsedMs, 1);
+        testReporter.publishEntry("elapsed-ms", Long.toString(elapsedMs));
+        testReporter.publishEntry("requests-per-second", Long.toString(requestsPerSecond));
+        assertElapsed(elapsedMs, String.format(
+                "%s: %d concurrent requests with %d ms upstream latency took %d ms, %d req/s"
+                        + " (thread-per-request floor with %d Tomcat threads: %d ms)",
+                getClass().getSimpleName(), CONCURRENT_REQUESTS, UPSTREAM_LATENCY_MS, elapsedMs, requestsPerSecond,
+                TOMCAT_THREADS, PLATFORM_THREAD_FLOOR_MS));
+    }
+
+    /**
+     * Checks the time all concurrent requests took against what the execution mode allows.
+     * Either mode runs hundreds of requests at once, far from one after the other.
+     *
+     * @param elapsedMs the time from sending the first request to receiving the last response
+     * @param summary the measurement, for the assertion message
+     */
+    void assertElapsed(long elapsedMs, String summary) {
+        long sequentialMs = CONCURRENT_REQUESTS * UPSTREAM_LATENCY_MS;
+        assertTrue(elapsedMs < sequentialMs / 10, summary);
+    }
+
+    /**
+     * Helper method to send requests all at once and wait until every one was answered successfully.
+     */
+    private void sendConcurrently(HttpClient client, int requests) {
+        List<CompletableFuture<HttpResponse<Void>>> responses = new ArrayList<>(requests);
+        for (int i = 0; i < requests; i++) {
+            HttpRequest request = HttpRequest.newBuilder(
+                    URI.create("http://localhost:" + port + "/gateway/api/v1/trips/" + UUID.randomUUID())
+            ).GET().build();
+            responses.add(client.sendAsync(request, HttpResponse.BodyHandlers.discarding()));
+        }
+        CompletableFuture.allOf(responses.toArray(CompletableFuture[]::new)).join();
+        for (CompletableFuture<HttpResponse<Void>> response : responses) {
+            assertEquals(200, response.join().statusCode());
+        }
+    }
+
+    /**
+     * Starts a stub trip service that sleeps for the configured latency before answering.
+     *
+     * @return the running stub server
+     */
+    private static HttpServer startUpstream() {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), CONCURRENT_REQUESTS);
+            server.createContext("/", exchange -> {
+                try {
+                    Thread.sleep(UPSTREAM_LATENCY_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                // Both execution modes share the stub, which closes idle connections beyond a small limit;
+                // a pooled connection closed that way would fail the next request sent over it
+                exchange.getResponseHeaders().add("Connection", "close");
+                exchange.sendResponseHeaders(200, UPSTREAM_BODY.length);
+                try (OutputStream body = exchange.getResponseBody()) {
+                    body.write(UPSTREAM_BODY);
+                }
+            });
+            server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+            server.start();
+            return server;
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to start stub upstream", e);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package aroundtheeurope.apigateway.load;
+
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Load test of the thread-per-request model, capped by the Tomcat worker pool.
+ */
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {
+                "spring.threads.virtual.enabled=false",
+                "server.tomcat.threads.max=" + AbstractGatewayLoadTest.TOMCAT_THREADS
+        }
+)
+class PlatformThreadGatewayLoadTest extends AbstractGatewayLoadTest {
+
+    @Override
+    void assertElapsed(long elapsedMs, String summary) {
+        super.assertElapsed(elapsedMs, summary);
+        // Requests beyond the worker pool wait for a thread, one round of upstream latency per pool's worth
+        assertTrue(elapsedMs >= PLATFORM_THREAD_FLOOR_MS, summary);
+    }
+}
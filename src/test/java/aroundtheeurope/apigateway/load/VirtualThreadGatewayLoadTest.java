@@ -0,0 +1,13 @@
+package aroundtheeurope.apigateway.load;
+
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Load test of the virtual thread model, where each request runs on its own virtual thread.
+ */
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "spring.threads.virtual.enabled=true"
+)
+class VirtualThreadGatewayLoadTest extends AbstractGatewayLoadTest {
+}
@@ -0,0 +1,185 @@
+package aroundtheeurope.apigateway.loadbalancer;
+
+import aroundtheeurope.apigateway.configuration.PassThroughResponseErrorHandler;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for UpstreamLoadBalancer against several local stub instances of one upstream
+ * with differing latency, errors and health.
+ */
+class UpstreamLoadBalancerTest {
+
+    private static final String LOGICAL_URL = "http://trip-service.local:8080";
+    private static final int CALLS = 200;
+
+    private final RestTemplate restTemplate = new RestTemplate();
+    private final List<StubInstance> stubs = new ArrayList<>();
+
+    UpstreamLoadBalancerTest() {
+        restTemplate.setErrorHandler(new PassThroughResponseErrorHandler());
+    }
+
+    @AfterEach
+    void stopStubs() {
+        stubs.forEach(stub -> stub.server.stop(0));
+    }
+
+    @Test
+    void powerOfTwoChoicesLowersTailLatency() throws IOException {
+        List<String> instances = List.of(
+                stub(5, 200).url(), stub(5, 200).url(), stub(5, 200).url(), stub(80, 200).url());
+
+        long roundRobinP95 = p95LatencyMs(loadBalancer(instances, new RoundRobinStrategy(), ""));
+        long powerOfTwoChoicesP95 = p95LatencyMs(loadBalancer(instances, new PowerOfTwoChoicesStrategy(), ""));
+
+        assertTrue(powerOfTwoChoicesP95 * 2 < roundRobinP95,
+                "Latency-aware routing should avoid the slow instance, p95 " + powerOfTwoChoicesP95
+                        + " ms vs " + roundRobinP95 + " ms with round robin");
+    }
+
+    @Test
+    void ejectsInstanceAfterConsecutiveFailures() throws IOException {
+        StubInstance failing = stub(0, 500);
+        UpstreamLoadBalancer loadBalancer = loadBalancer(
+                List.of(stub(0, 200).url(), failing.url()), new RoundRobinStrategy(), "");
+
+        for (int i = 0; i < 30; i++) {
+            get(loadBalancer, "/api/v1/trips");
+        }
+        assertEquals(3, failing.calls.get(), "The failing instance should be ejected after 3 failed calls");
+    }
+
+    @Test
+    void activeHealthCheckTakesUnhealthyInstanceOutOfRotation() throws IOException {
+        StubInstance healthy = stub(0, 200);
+        StubInstance unhealthy = stub(0, 200);
+        unhealthy.healthStatus = 503;
+        UpstreamLoadBalancer loadBalancer = loadBalancer(
+                List.of(healthy.url(), unhealthy.url()), new RoundRobinStrategy(), "/health");
+
+        loadBalancer.checkHealth().join();
+        for (int i = 0; i < 20; i++) {
+            assertEquals(200, get(loadBalancer, "/api/v1/trips").getStatusCode().value());
+        }
+        assertEquals(0, unhealthy.calls.get());
+        assertEquals(20, healthy.calls.get());
+
+        unhealthy.healthStatus = 200;
+        loadBalancer.checkHealth().join();
+        for (int i = 0; i < 20; i++) {
+            get(loadBalancer, "/api/v1/trips");
+        }
+        assertTrue(unhealthy.calls.get() > 0, "A recovered instance should return to the rotation");
+    }
+
+    @Test
+    void usesAllInstancesWhenNoneIsHealthy() throws IOException {
+        StubInstance first = stub(0, 200);
+        StubInstance second = stub(0, 200);
+        first.healthStatus = 503;
+        second.healthStatus = 503;
+        UpstreamLoadBalancer loadBalancer = loadBalancer(
+                List.of(first.url(), second.url()), new RoundRobinStrategy(), "/health");
+
+        loadBalancer.checkHealth().join();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(200, get(loadBalancer, "/api/v1/trips").getStatusCode().value());
+        }
+        assertEquals(10, first.calls.get() + second.calls.get());
+    }
+
+    private long p95LatencyMs(UpstreamLoadBalancer loadBalancer) {
+        long[] latencies = new long[CALLS];
+        for (int i = 0; i < CALLS; i++) {
+            long start = System.nanoTime();
+            get(loadBalancer, "/api/v1/trips");
+            latencies[i] = (System.nanoTime() - start) / 1_000_000;
+        }
+        Arrays.sort(latencies);
+        return latencies[(int) Math.ceil(CALLS * 0.95) - 1];
+    }
+
+    private ResponseEntity<String> get(UpstreamLoadBalancer loadBalancer, String path) {
+        return loadBalancer.execute(URI.create(LOGICAL_URL + path),
+                target -> restTemplate.getForEntity(target, String.class),
+                response -> response.getStatusCode().is5xxServerError());
+    }
+
+    private static UpstreamLoadBalancer loadBalancer(
+            List<String> instances,
+            LoadBalancingStrategy strategy,
+            String healthCheckPath
+    ) {
+        UpstreamLoadBalancer loadBalancer = new UpstreamLoadBalancer();
+        loadBalancer.register("trip-service", LOGICAL_URL, instances, strategy, 3, Duration.ofSeconds(30),
+                healthCheckPath, Duration.ZERO);
+        return loadBalancer;
+    }
+
+    private StubInstance stub(long latencyMs, int status) throws IOException {
+        StubInstance stub = new StubInstance(latencyMs, status);
+        stubs.add(stub);
+        return stub;
+    }
+
+    /**
+     * A stub upstream instance answering API calls after a fixed latency with a fixed status.
+     */
+    private static class StubInstance {
+
+        private static final byte[] BODY = "[]".getBytes(StandardCharsets.UTF_8);
+
+        private final HttpServer server;
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile int healthStatus = 200;
+
+        StubInstance(long latencyMs, int status) throws IOException {
+            server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.createContext("/api", exchange -> {
+                calls.incrementAndGet();
+                if (latencyMs > 0) {
+                    try {
+                        Thread.sleep(latencyMs);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                respond(exchange, status);
+            });
+            server.createContext("/health", exchange -> respond(exchange, healthStatus));
+            server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+            server.start();
+        }
+
+        String url() {
+            return "http://localhost:" + server.getAddress().getPort();
+        }
+
+        private static void respond(HttpExchange exchange, int status) throws IOException {
+            exchange.sendResponseHeaders(status, BODY.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(BODY);
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package aroundtheeurope.apigateway.logging;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the JSON lines written by AccessLogger.
+ */
+class AccessLoggerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void formatsValidJson() throws Exception {
+        String line = AccessLogger.format(Instant.parse("2026-10-18T12:00:00Z"), "trips", "GET",
+                "/gateway/api/v1/trips", 200, 1024, "localhost:60001", 12_345_678, 13_005_000, "9f86d081884c7d65");
+
+        JsonNode entry = objectMapper.readTree(line);
+
+        assertEquals("2026-10-18T12:00:00Z", entry.get("ts").asText());
+        assertEquals("trips", entry.get("route").asText());
+        assertEquals(200, entry.get("status").asInt());
+        assertEquals(1024, entry.get("bytes").asLong());
+        assertEquals(12.345, entry.get("upstreamMs").asDouble());
+        assertEquals(13.005, entry.get("totalMs").asDouble());
+        assertEquals("9f86d081884c7d65", entry.get("user").asText());
+    }
+
+    @Test
+    void escapesStringsAndWritesMissingValuesAsNull() throws Exception {
+        String line = AccessLogger.format(Instant.EPOCH, null, "GET", "/a\"b\\c\n", 401, 0, null, -1, 500, null);
+
+        JsonNode entry = objectMapper.readTree(line);
+
+        assertEquals("/a\"b\\c\n", entry.get("path").asText());
+        assertTrue(entry.get("route").isNull());
+        assertTrue(entry.get("upstreamMs").isNull());
+        assertEquals(0.0, entry.get("totalMs").asDouble());
+    }
+}
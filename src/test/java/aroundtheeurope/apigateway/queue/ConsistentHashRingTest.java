@@ -0,0 +1,64 @@
+package aroundtheeurope.apigateway.queue;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for ConsistentHashRing spread and stability, and the QueueShards naming built on it.
+ */
+class ConsistentHashRingTest {
+
+    private static final int KEYS = 100_000;
+
+    @Test
+    void spreadsKeysEvenly() {
+        ConsistentHashRing ring = new ConsistentHashRing(4, 128);
+        int[] counts = new int[4];
+        for (int i = 0; i < KEYS; i++) {
+            counts[ring.nodeOf("user-" + i)]++;
+        }
+
+        for (int count : counts) {
+            assertTrue(Math.abs(count - KEYS / 4) < KEYS / 4 * 0.25, "Uneven spread: " + count);
+        }
+    }
+
+    @Test
+    void addingNodeOnlyMovesKeysToIt() {
+        ConsistentHashRing before = new ConsistentHashRing(4, 128);
+        ConsistentHashRing after = new ConsistentHashRing(5, 128);
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = "user-" + i;
+            int oldNode = before.nodeOf(key);
+            int newNode = after.nodeOf(key);
+            if (oldNode != newNode) {
+                assertEquals(4, newNode);
+                moved++;
+            }
+        }
+
+        // About a fifth of the keys belong to the new node
+        assertTrue(Math.abs(moved - KEYS / 5) < KEYS / 5 * 0.25, "Moved " + moved);
+    }
+
+    @Test
+    void rejectsEmptyRing() {
+        assertThrows(IllegalArgumentException.class, () -> new ConsistentHashRing(0, 128));
+    }
+
+    @Test
+    void singleShardKeepsUnshardedQueueName() {
+        QueueShards shards = new QueueShards(1);
+
+        assertEquals(0, shards.shardOf("any-user"));
+        assertEquals("tripRequestQueueSet:{0}", shards.redisKeyOf("any-user"));
+        assertEquals("tripRequestQueueSet:{0}:payloads", shards.payloadKeyOf("any-user"));
+        assertEquals("tripRequestQueue", shards.rabbitQueueOf("any-user"));
+        assertEquals("tripRequestQueueSet:{2}", shards.redisKey(2));
+        assertEquals("tripRequestQueue.2", shards.rabbitQueue(2));
+    }
+}
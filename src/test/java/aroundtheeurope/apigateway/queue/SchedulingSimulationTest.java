@@ -0,0 +1,237 @@
+package aroundtheeurope.apigateway.queue;
+
+import aroundtheeurope.apigateway.dto.ForwardedTripRequestDTO;
+import aroundtheeurope.apigateway.dto.TripRequestDTO;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Simulation of the trip request queue under each scheduling policy, comparing their mean and p95 waiting times.
+ * Every policy's waiting times are published as a report entry of the test.
+ * Requests arrive at random and are dispatched in score order, as the scheduler releases them, to a fixed number
+ * of concurrent searches, each running for a random share of its time limit.
+ * A steady load is followed by one with a burst of expensive searches. Strict shortest-job-first, whose delays
+ * are never capped, shows what the cap costs the short searches and what it saves the long ones.
+ */
+@Tag("simulation")
+class SchedulingSimulationTest {
+
+    private static final int SEARCH_SLOTS = 16;
+    private static final int REQUESTS = 50_000;
+    private static final int BURST_REQUESTS = 150;
+    private static final Duration MAX_DELAY = Duration.ofMinutes(10);
+    private static final int[] TIME_LIMITS = {10, 60, 300};
+    private static final double[] TIME_LIMIT_SHARES = {0.7, 0.2, 0.1};
+    private static final String[] PRIORITY_CLASSES = {"high", "normal", "low"};
+    private static final double[] PRIORITY_CLASS_SHARES = {0.1, 0.7, 0.2};
+
+    private final Map<String, SchedulingPolicy> policies = policies();
+
+    @Test
+    void steadyLoad(TestReporter testReporter) {
+        // Steady load at 85% of the search capacity
+        Map<String, Result> results = simulateAll(workload(new Random(1), 0.85, 0), testReporter);
+
+        Result fifo = results.get("fifo");
+        Result shortestJobFirst = results.get("shortest-job-first");
+        Result priority = results.get("priority");
+        assertTrue(shortestJobFirst.mean(Job::all) < fifo.mean(Job::all), () -> String.format(
+                "Mean wait under shortest-job-first %.1f s, under fifo %.1f s",
+                shortestJobFirst.mean(Job::all), fifo.mean(Job::all)));
+        assertTrue(priority.p95(Job::high) < priority.p95(Job::low), () -> String.format(
+                "p95 wait of high priority requests %.1f s, of low priority requests %.1f s",
+                priority.p95(Job::high), priority.p95(Job::low)));
+    }
+
+    @Test
+    void burstOfExpensiveSearches(TestReporter testReporter) {
+        // Load at 70% of the search capacity with a burst of 300 s searches
+        Map<String, Result> results = simulateAll(workload(new Random(2), 0.7, BURST_REQUESTS), testReporter);
+
+        Result fifo = results.get("fifo");
+        Result shortestJobFirst = results.get("shortest-job-first");
+        Result strict = results.get("strict shortest-job-first");
+        assertTrue(shortestJobFirst.p95(Job::isShort) < fifo.p95(Job::isShort), () -> String.format(
+                "p95 wait of 10 s searches under shortest-job-first %.1f s, under fifo %.1f s",
+                shortestJobFirst.p95(Job::isShort), fifo.p95(Job::isShort)));
+        // Capping the delay bounds how long expensive searches can be passed over
+        assertTrue(shortestJobFirst.max() <= strict.max(), () -> String.format(
+                "Longest wait under shortest-job-first %.1f s, under strict shortest-job-first %.1f s",
+                shortestJobFirst.max(), strict.max()));
+    }
+
+    private static Map<String, SchedulingPolicy> policies() {
+        PriorityClassPolicy priority = new PriorityClassPolicy(
+                Map.of("high", 4.0, "normal", 2.0, "low", 1.0), "normal", Duration.ofMinutes(2));
+        ShortestJobFirstPolicy shortestJobFirst = new ShortestJobFirstPolicy(Duration.ofSeconds(2));
+
+        Map<String, SchedulingPolicy> policies = new LinkedHashMap<>();
+        policies.put("fifo", SchedulingPolicy.FIFO);
+        policies.put("priority", priority.capped(MAX_DELAY));
+        policies.put("shortest-job-first", shortestJobFirst.capped(MAX_DELAY));
+        policies.put("priority, shortest-job-first", SchedulingPolicy.combine(List.of(priority, shortestJobFirst)).capped(MAX_DELAY));
+        policies.put("strict shortest-job-first", new ShortestJobFirstPolicy(Duration.ofDays(1)));
+        return policies;
+    }
+
+    /**
+     * Helper method to run every policy over the same requests and report their waiting times.
+     */
+    private Map<String, Result> simulateAll(List<Job> jobs, TestReporter testReporter) {
+        Map<String, Result> results = new LinkedHashMap<>();
+        policies.forEach((name, policy) -> {
+            Result result = simulate(jobs, policy);
+            results.put(name, result);
+            testReporter.publishEntry(name, String.format(
+                    "waits in s: mean %.1f, p95 %.1f, 10 s p95 %.1f, 300 s p95 %.1f, high p95 %.1f, low p95 %.1f, max %.1f",
+                    result.mean(Job::all), result.p95(Job::all), result.p95(Job::isShort), result.p95(Job::isLong),
+                    result.p95(Job::high), result.p95(Job::low), result.max()));
+        });
+        return results;
+    }
+
+    /**
+     * Helper method to generate requests arriving at random, sized to keep the searches at the given utilisation.
+     * A burst of expensive searches, if any, arrives within ten seconds halfway through.
+     */
+    private static List<Job> workload(Random random, double utilisation, int burstRequests) {
+        double meanSearchMillis = 0;
+        for (int i = 0; i < TIME_LIMITS.length; i++) {
+            meanSearchMillis += TIME_LIMITS[i] * 1000 * TIME_LIMIT_SHARES[i] * 0.65;
+        }
+        double arrivalsPerMilli = utilisation * SEARCH_SLOTS / meanSearchMillis;
+
+        List<Job> jobs = new ArrayList<>(REQUESTS + burstRequests);
+        long arrival = 0;
+        for (int i = 0; i < REQUESTS; i++) {
+            arrival += Math.round(-Math.log(1 - random.nextDouble()) / arrivalsPerMilli);
+            jobs.add(job(random, arrival, TIME_LIMITS[pick(random, TIME_LIMIT_SHARES)]));
+        }
+        long burstStart = arrival / 2;
+        for (int i = 0; i < burstRequests; i++) {
+            jobs.add(job(random, burstStart + random.nextInt(10_000), 300));
+        }
+        jobs.sort(Comparator.comparingLong(Job::arrival));
+        return jobs;
+    }
+
+    private static Job job(Random random, long arrival, int timeLimitSeconds) {
+        TripRequestDTO tripRequestDTO = new TripRequestDTO();
+        tripRequestDTO.setTimeLimitSeconds(timeLimitSeconds);
+        // Searches stop at their time limit, most well before
+        long searchMillis = Math.round(timeLimitSeconds * 1000 * (0.3 + 0.7 * random.nextDouble()));
+        return new Job(arrival, new ForwardedTripRequestDTO(tripRequestDTO, "user"),
+                PRIORITY_CLASSES[pick(random, PRIORITY_CLASS_SHARES)], searchMillis);
+    }
+
+    private static int pick(Random random, double[] shares) {
+        double value = random.nextDouble();
+        for (int i = 0; i < shares.length - 1; i++) {
+            value -= shares[i];
+            if (value < 0) {
+                return i;
+            }
+        }
+        return shares.length - 1;
+    }
+
+    /**
+     * Helper method to dispatch the requests in score order to the first free search slot.
+     *
+     * @param jobs the requests, by arrival time
+     * @param policy the scheduling policy scoring them
+     * @return the waiting time of every request
+     */
+    private static Result simulate(List<Job> jobs, SchedulingPolicy policy) {
+        PriorityQueue<Waiting> waiting = new PriorityQueue<>(
+                Comparator.comparingLong(Waiting::score).thenComparingInt(Waiting::index));
+        PriorityQueue<Long> slotsFreeAt = new PriorityQueue<>();
+        for (int i = 0; i < SEARCH_SLOTS; i++) {
+            slotsFreeAt.add(0L);
+        }
+
+        long[] waits = new long[jobs.size()];
+        int next = 0;
+        for (int dispatched = 0; dispatched < jobs.size(); dispatched++) {
+            long now = slotsFreeAt.poll();
+            if (waiting.isEmpty()) {
+                // The slot idles until the next request arrives
+                now = Math.max(now, jobs.get(next).arrival());
+            }
+            while (next < jobs.size() && jobs.get(next).arrival() <= now) {
+                Job job = jobs.get(next);
+                waiting.add(new Waiting(job.arrival() + policy.delayMillis(job.request(), job.priorityClass()), next));
+                next++;
+            }
+            int index = waiting.poll().index();
+            waits[index] = now - jobs.get(index).arrival();
+            slotsFreeAt.add(now + jobs.get(index).searchMillis());
+        }
+        return new Result(jobs, waits);
+    }
+
+    private record Job(long arrival, ForwardedTripRequestDTO request, String priorityClass, long searchMillis) {
+
+        boolean all() {
+            return true;
+        }
+
+        boolean isShort() {
+            return request.getTimeLimitSeconds() == TIME_LIMITS[0];
+        }
+
+        boolean isLong() {
+            return request.getTimeLimitSeconds() == TIME_LIMITS[TIME_LIMITS.length - 1];
+        }
+
+        boolean high() {
+            return priorityClass.equals("high");
+        }
+
+        boolean low() {
+            return priorityClass.equals("low");
+        }
+    }
+
+    private record Waiting(long score, int index) {
+    }
+
+    private record Result(List<Job> jobs, long[] waits) {
+
+        double mean(Predicate<Job> filter) {
+            return Arrays.stream(select(filter)).average().orElse(0) / 1000;
+        }
+
+        double p95(Predicate<Job> filter) {
+            long[] selected = select(filter);
+            Arrays.sort(selected);
+            return selected.length == 0 ? 0 : selected[(int) Math.ceil(selected.length * 0.95) - 1] / 1000.0;
+        }
+
+        double max() {
+            return Arrays.stream(waits).max().orElse(0) / 1000.0;
+        }
+
+        private long[] select(Predicate<Job> filter) {
+            return IntStream.range(0, waits.length)
+                    .filter(i -> filter.test(jobs.get(i)))
+                    .mapToLong(i -> waits[i])
+                    .toArray();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package aroundtheeurope.apigateway.queue;
+
+import aroundtheeurope.apigateway.AbstractRedisContainerTest;
+import aroundtheeurope.apigateway.dto.ForwardedTripRequestDTO;
+import aroundtheeurope.apigateway.dto.TripRequestDTO;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for TripRequestScheduler's scripts against a real Redis server.
+ * Requests are scored by their time limit, so the dispatch order does not depend on when they arrive.
+ */
+class TripRequestSchedulerTest extends AbstractRedisContainerTest {
+
+    private static final String CONTENT_TYPE = "application/json";
+    private static final SchedulingPolicy BY_TIME_LIMIT =
+            (request, priorityClass) -> request.getTimeLimitSeconds() * 1000L;
+
+    private final QueueShards queueShards = new QueueShards(1);
+
+    @Test
+    void releasesQueuedRequestsInScoreOrderOnce() {
+        TripRequestScheduler scheduler = newScheduler(Duration.ofMinutes(30));
+        assertTrue(scheduler.enqueue(request("user-slow", 300), null, CONTENT_TYPE, body("slow")));
+        assertTrue(scheduler.enqueue(request("user-fast", 10), null, CONTENT_TYPE, body("fast")));
+        assertFalse(scheduler.enqueue(request("user-fast", 10), null, CONTENT_TYPE, body("again")));
+
+        TripRequestScheduler.Released released = scheduler.release(0, 10);
+
+        assertEquals(0, released.redispatched());
+        List<Message> messages = released.messages();
+        assertEquals(2, messages.size());
+        assertArrayEquals(body("fast"), messages.get(0).getBody());
+        assertArrayEquals(body("slow"), messages.get(1).getBody());
+        assertEquals(CONTENT_TYPE, messages.get(0).getMessageProperties().getContentType());
+        // Released entries stay queued, ahead of anything waiting, but are not released again
+        assertEquals(2L, redisTemplate.opsForZSet().zCard(queueShards.redisKey(0)));
+        assertTrue(redisTemplate.opsForZSet().score(queueShards.redisKey(0), "user-fast") < 0);
+        assertTrue(scheduler.release(0, 10).messages().isEmpty());
+    }
+
+    @Test
+    void redispatchesStaleReleasesWithANewScore() throws InterruptedException {
+        TripRequestScheduler scheduler = newScheduler(Duration.ofMillis(1));
+        scheduler.enqueue(request("user-1", 10), null, CONTENT_TYPE, body("request"));
+        Message first = scheduler.release(0, 10).messages().get(0);
+
+        Thread.sleep(20);
+        TripRequestScheduler.Released again = scheduler.release(0, 10);
+
+        assertEquals(1, again.redispatched());
+        Object firstScore = first.getMessageProperties().getHeader(TripRequestScheduler.RELEASED_SCORE_HEADER);
+        Object secondScore = again.messages().get(0).getMessageProperties().getHeader(TripRequestScheduler.RELEASED_SCORE_HEADER);
+        assertNotEquals(firstScore, secondScore);
+        assertEquals(((Number) secondScore).doubleValue(),
+                redisTemplate.opsForZSet().score(queueShards.redisKey(0), "user-1").doubleValue());
+    }
+
+    @Test
+    void restorePutsUnsentRequestsBackInTheirPlace() throws InterruptedException {
+        TripRequestScheduler scheduler = newScheduler(Duration.ofMinutes(30));
+        scheduler.enqueue(request("user-fast", 10), null, CONTENT_TYPE, body("fast"));
+        scheduler.enqueue(request("user-slow", 300), null, CONTENT_TYPE, body("slow"));
+        double waitingScore = redisTemplate.opsForZSet().score(queueShards.redisKey(0), "user-slow");
+
+        TripRequestScheduler.Released released = scheduler.release(0, 10);
+        // Only the first message was sent
+        assertEquals(1, scheduler.restore(0, released, released.requests().subList(1, 2)));
+
+        assertEquals(waitingScore, redisTemplate.opsForZSet().score(queueShards.redisKey(0), "user-slow").doubleValue());
+        assertTrue(redisTemplate.opsForZSet().score(queueShards.redisKey(0), "user-fast") < 0);
+        Thread.sleep(5);
+        List<Message> again = scheduler.release(0, 10).messages();
+        assertEquals(1, again.size());
+        assertArrayEquals(body("slow"), again.get(0).getBody());
+        // An entry released again since is left alone
+        assertEquals(0, scheduler.restore(0, released, released.requests().subList(1, 2)));
+    }
+
+    @Test
+    void removeDropsTheEntryAndItsRequest() {
+        TripRequestScheduler scheduler = newScheduler(Duration.ofMinutes(30));
+        scheduler.enqueue(request("user-1", 10), null, CONTENT_TYPE, body("request"));
+
+        assertTrue(scheduler.remove("user-1"));
+        assertFalse(scheduler.remove("user-1"));
+
+        assertEquals(0L, redisTemplate.opsForZSet().zCard(queueShards.redisKey(0)));
+        assertEquals(0L, redisTemplate.opsForHash().size(queueShards.payloadKey(0)));
+        assertTrue(scheduler.release(0, 10).messages().isEmpty());
+        // The user can queue a new request
+        assertTrue(scheduler.enqueue(request("user-1", 10), null, CONTENT_TYPE, body("request")));
+    }
+
+    private TripRequestScheduler newScheduler(Duration redispatchAfter) {
+        return new TripRequestScheduler(redisTemplate, queueShards, BY_TIME_LIMIT, redispatchAfter);
+    }
+
+    private static ForwardedTripRequestDTO request(String userId, int timeLimitSeconds) {
+        TripRequestDTO tripRequestDTO = new TripRequestDTO();
+        tripRequestDTO.setTimeLimitSeconds(timeLimitSeconds);
+        return new ForwardedTripRequestDTO(tripRequestDTO, userId);
+    }
+
+    private static byte[] body(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,129 @@
+package aroundtheeurope.apigateway.resilience;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for HedgedRequestExecutor with simulated attempts of differing latency and outcome.
+ */
+class HedgedRequestExecutorTest {
+
+    private static final String ROUTE = "trips";
+    private static final long FAST_MS = 5;
+    private static final long SLOW_MS = 2000;
+
+    @Test
+    void hedgesSlowAttemptAndReturnsFasterOne() {
+        HedgedRequestExecutor executor = executor(Set.of(ROUTE), Set.of(), 10);
+        warmUp(executor);
+
+        AtomicInteger attempts = new AtomicInteger();
+        long start = System.nanoTime();
+        String result = executor.execute(ROUTE, () -> {
+            // The first attempt hangs, the hedge answers quickly
+            if (attempts.incrementAndGet() == 1) {
+                sleep(SLOW_MS);
+                return "slow";
+            }
+            sleep(FAST_MS);
+            return "fast";
+        }, "error"::equals);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals("fast", result);
+        assertEquals(2, attempts.get());
+        assertTrue(elapsedMs < SLOW_MS / 2, "The hedge should answer long before the slow attempt, took " + elapsedMs + " ms");
+    }
+
+    @Test
+    void retriesFailedAttempt() {
+        HedgedRequestExecutor executor = executor(Set.of(), Set.of(ROUTE), 10);
+
+        AtomicInteger attempts = new AtomicInteger();
+        String result = executor.execute(ROUTE,
+                () -> attempts.incrementAndGet() == 1 ? "error" : "ok",
+                "error"::equals);
+
+        assertEquals("ok", result);
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    void stopsRetryingWhenBudgetIsExhausted() {
+        HedgedRequestExecutor executor = executor(Set.of(), Set.of(ROUTE), 3);
+
+        AtomicInteger attempts = new AtomicInteger();
+        for (int i = 0; i < 20; i++) {
+            executor.execute(ROUTE, () -> {
+                attempts.incrementAndGet();
+                return "error";
+            }, "error"::equals);
+        }
+
+        // 20 originals, the reserve of 3 retries and one more bought by 10 originals at a ratio of 0.1
+        assertTrue(attempts.get() <= 20 + 3 + 2, "Retries must stay within the budget, made " + attempts.get() + " attempts");
+    }
+
+    @Test
+    void neverRepeatsRefusedCalls() {
+        HedgedRequestExecutor executor = executor(Set.of(ROUTE), Set.of(ROUTE), 10);
+
+        AtomicInteger attempts = new AtomicInteger();
+        assertThrows(UpstreamUnavailableException.class, () -> executor.execute(ROUTE, () -> {
+            attempts.incrementAndGet();
+            throw new UpstreamUnavailableException("trip-service", "circuit breaker is open", 1000);
+        }, result -> false));
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void leavesOtherRoutesAlone() {
+        HedgedRequestExecutor executor = executor(Set.of(ROUTE), Set.of(ROUTE), 10);
+
+        AtomicInteger attempts = new AtomicInteger();
+        String result = executor.execute("queue", () -> {
+            attempts.incrementAndGet();
+            return "error";
+        }, "error"::equals);
+
+        assertEquals("error", result);
+        assertEquals(1, attempts.get());
+    }
+
+    private static HedgedRequestExecutor executor(Set<String> hedgedRoutes, Set<String> retriedRoutes, int budgetReserve) {
+        return new HedgedRequestExecutor(new SimpleMeterRegistry(), hedgedRoutes, retriedRoutes,
+                Duration.ofMillis(20), 2, Duration.ofMillis(1), 0.1, budgetReserve);
+    }
+
+    /**
+     * Runs enough fast calls for the route's p95 to be known, so hedging kicks in.
+     */
+    private static void warmUp(HedgedRequestExecutor executor) {
+        Supplier<String> fast = () -> {
+            sleep(FAST_MS);
+            return "ok";
+        };
+        for (int i = 0; i < 50; i++) {
+            executor.execute(ROUTE, fast, "error"::equals);
+        }
+        // The p95 is refreshed at most once a second
+        sleep(1100);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package aroundtheeurope.apigateway.resilience;
+
+import aroundtheeurope.apigateway.configuration.PassThroughResponseErrorHandler;
+import aroundtheeurope.apigateway.loadbalancer.UpstreamLoadBalancer;
+import aroundtheeurope.apigateway.service.RequestForwardingService;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for the upstream circuit breakers and bulkheads, forwarding through RequestForwardingService
+ * to a local stub service that injects errors and latency.
+ */
+class UpstreamGuardTest {
+
+    private static final long SLOW_RESPONSE_MS = 300;
+    private static final byte[] BODY = "[]".getBytes(StandardCharsets.UTF_8);
+
+    private static final AtomicInteger upstreamCalls = new AtomicInteger();
+    private static HttpServer upstream;
+    private static String upstreamUrl;
+
+    @BeforeAll
+    static void startUpstream() throws IOException {
+        upstream = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        upstream.createContext("/ok", exchange -> respond(exchange, 200, 0));
+        upstream.createContext("/error", exchange -> respond(exchange, 500, 0));
+        upstream.createContext("/slow", exchange -> respond(exchange, 200, SLOW_RESPONSE_MS));
+        upstream.createContext("/slow-body", UpstreamGuardTest::respondWithSlowBody);
+        upstream.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        upstream.start();
+        upstreamUrl = "http://localhost:" + upstream.getAddress().getPort();
+    }
+
+    @AfterAll
+    static void stopUpstream() {
+        upstream.stop(0);
+    }
+
+    @Test
+    void opensCircuitOnErrorsAndFailsFast() {
+        RequestForwardingService forwardingService = forwardingService(
+                circuitBreakerConfig(Duration.ofSeconds(10)), BulkheadConfig.ofDefaults());
+
+        int callsBefore = upstreamCalls.get();
+        for (int i = 0; i < 10; i++) {
+            ResponseEntity<byte[]> response = forwardingService.fetch(new MockHttpServletRequest(), upstreamUrl + "/error");
+            assertEquals(500, response.getStatusCode().value());
+        }
+        assertThrows(UpstreamUnavailableException.class,
+                () -> forwardingService.fetch(new MockHttpServletRequest(), upstreamUrl + "/ok"));
+        assertEquals(10, upstreamCalls.get() - callsBefore, "No call may reach the upstream while the circuit is open");
+    }
+
+    @Test
+    void opensCircuitOnSlowCalls() {
+        RequestForwardingService forwardingService = forwardingService(
+                circuitBreakerConfig(Duration.ofMillis(SLOW_RESPONSE_MS / 2)), BulkheadConfig.ofDefaults());
+
+        for (int i = 0; i < 10; i++) {
+            ResponseEntity<byte[]> response = forwardingService.fetch(new MockHttpServletRequest(), upstreamUrl + "/slow");
+            assertEquals(200, response.getStatusCode().value());
+        }
+        assertThrows(UpstreamUnavailableException.class,
+                () -> forwardingService.fetch(new MockHttpServletRequest(), upstreamUrl + "/slow"));
+    }
+
+    @Test
+    void timesStreamedCallsUpToTheResponseHeaders() {
+        RequestForwardingService forwardingService = forwardingService(
+                circuitBreakerConfig(Duration.ofMillis(SLOW_RESPONSE_MS / 2)), BulkheadConfig.ofDefaults());
+
+        for (int i = 0; i < 11; i++) {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            forwardingService.streamRequest(new MockHttpServletRequest(), response, upstreamUrl + "/slow-body", HttpMethod.GET);
+            assertEquals(200, response.getStatus());
+            assertArrayEquals(BODY, response.getContentAsByteArray());
+        }
+    }
+
+    @Test
+    void keepsCircuitClosedForHealthyUpstream() {
+        RequestForwardingService forwardingService = forwardingService(
+                circuitBreakerConfig(Duration.ofSeconds(10)), BulkheadConfig.ofDefaults());
+
+        for (int i = 0; i < 50; i++) {
+            ResponseEntity<byte[]> response = forwardingService.fetch(new MockHttpServletRequest(), upstreamUrl + "/ok");
+            assertEquals(200, response.getStatusCode().value());
+        }
+    }
+
+    @Test
+    void bulkheadRefusesCallsBeyondConcurrencyLimit() throws Exception {
+        int maxConcurrentCalls = 2;
+        int parallelCalls = 8;
+        RequestForwardingService forwardingService = forwardingService(
+                circuitBreakerConfig(Duration.ofSeconds(10)),
+                BulkheadConfig.custom().maxConcurrentCalls(maxConcurrentCalls).maxWaitDuration(Duration.ZERO).build());
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < parallelCalls; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        forwardingService.fetch(new MockHttpServletRequest(), upstreamUrl + "/slow");
+                        return true;
+                    } catch (UpstreamUnavailableException e) {
+                        return false;
+                    }
+                }));
+            }
+            start.countDown();
+        }
+
+        int succeeded = 0;
+        for (Future<Boolean> result : results) {
+            if (result.get()) {
+                succeeded++;
+            }
+        }
+        assertTrue(succeeded >= 1 && succeeded <= maxConcurrentCalls,
+                "Only " + maxConcurrentCalls + " calls may run at once, " + succeeded + " succeeded");
+    }
+
+    /**
+     * Creates a forwarding service whose upstream guard protects the stub service.
+     */
+    private static RequestForwardingService forwardingService(
+            CircuitBreakerConfig circuitBreakerConfig,
+            BulkheadConfig bulkheadConfig
+    ) {
+        UpstreamGuard upstreamGuard = new UpstreamGuard();
+        upstreamGuard.register("stub", upstreamUrl, circuitBreakerConfig, bulkheadConfig);
+        RestTemplate restTemplate = new RestTemplate();
+        restTemplate.setErrorHandler(new PassThroughResponseErrorHandler());
+        return new RequestForwardingService(restTemplate, upstreamGuard, new UpstreamLoadBalancer(),
+                new HedgedRequestExecutor(new SimpleMeterRegistry(), Set.of(), Set.of(), Duration.ZERO, 1, Duration.ZERO, 0, 1));
+    }
+
+    private static CircuitBreakerConfig circuitBreakerConfig(Duration slowCallDuration) {
+        return CircuitBreakerConfig.custom()
+                .slidingWindowSize(10)
+                .minimumNumberOfCalls(10)
+                .failureRateThreshold(50)
+                .slowCallRateThreshold(50)
+                .slowCallDurationThreshold(slowCallDuration)
+                .waitDurationInOpenState(Duration.ofSeconds(30))
+                .build();
+    }
+
+    /**
+     * Sends the headers at once and the body after the slow response latency, as a long streamed download would.
+     */
+    private static void respondWithSlowBody(HttpExchange exchange) throws IOException {
+        upstreamCalls.incrementAndGet();
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, BODY.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.flush();
+            Thread.sleep(SLOW_RESPONSE_MS);
+            body.write(BODY);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, long latencyMs) throws IOException {
+        upstreamCalls.incrementAndGet();
+        if (latencyMs > 0) {
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, BODY.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(BODY);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package aroundtheeurope.apigateway.routing;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for HeaderPolicy filtering in both directions.
+ */
+class HeaderPolicyTest {
+
+    @Test
+    void stripsHopByHopAndClientManagedHeaders() {
+        MockHttpServletRequest request = request();
+        request.addHeader("Connection", "keep-alive, X-Trace-Hop");
+        request.addHeader("X-Trace-Hop", "1");
+        request.addHeader("Keep-Alive", "timeout=5");
+        request.addHeader("Transfer-Encoding", "chunked");
+        request.addHeader("Content-Length", "42");
+        request.addHeader("Authorization", "Bearer token");
+
+        HttpHeaders headers = HeaderPolicy.DEFAULT.requestHeaders(request);
+
+        for (String name : List.of("Connection", "X-Trace-Hop", "Keep-Alive", "Transfer-Encoding", "Content-Length", "Host", "Authorization")) {
+            assertFalse(headers.containsKey(name), name + " must not be forwarded");
+        }
+        assertEquals("application/json", headers.getFirst("Accept"));
+    }
+
+    @Test
+    void keepsEveryValueOfRepeatedHeaders() {
+        MockHttpServletRequest request = request();
+        request.addHeader("X-Tag", "a");
+        request.addHeader("X-Tag", "b");
+
+        assertEquals(List.of("a", "b"), HeaderPolicy.DEFAULT.requestHeaders(request).get("X-Tag"));
+    }
+
+    @Test
+    void appliesRouteAllowAndDenyLists() {
+        MockHttpServletRequest request = request();
+        request.addHeader("Cookie", "session=1");
+        request.addHeader("X-Debug", "true");
+
+        HttpHeaders denied = new HeaderPolicy(null, List.of("cookie")).requestHeaders(request);
+        HttpHeaders allowed = new HeaderPolicy(List.of("X-DEBUG"), null).requestHeaders(request);
+
+        assertFalse(denied.containsKey("Cookie"));
+        assertTrue(denied.containsKey("X-Debug"));
+        assertEquals("true", allowed.getFirst("X-Debug"));
+        assertNull(allowed.getFirst("Accept"));
+        // Describing the client is not subject to the allow list
+        assertEquals("203.0.113.7", allowed.getFirst("X-Forwarded-For"));
+    }
+
+    @Test
+    void extendsForwardedHeaders() {
+        MockHttpServletRequest request = request();
+        request.addHeader("X-Forwarded-For", "198.51.100.1");
+        request.addHeader("Forwarded", "for=198.51.100.1");
+
+        HttpHeaders headers = HeaderPolicy.DEFAULT.requestHeaders(request);
+
+        assertEquals("198.51.100.1, 203.0.113.7", headers.getFirst("X-Forwarded-For"));
+        assertEquals("for=198.51.100.1, for=203.0.113.7;proto=http;host=\"gateway.example:8080\"", headers.getFirst("Forwarded"));
+        assertEquals("gateway.example:8080", headers.getFirst("X-Forwarded-Host"));
+        assertEquals("http", headers.getFirst("X-Forwarded-Proto"));
+    }
+
+    @Test
+    void stripsHopByHopResponseHeaders() {
+        HttpHeaders upstream = new HttpHeaders();
+        upstream.add("Connection", "close");
+        upstream.add("Transfer-Encoding", "chunked");
+        upstream.add("Content-Length", "120");
+        upstream.add("Content-Type", "application/json");
+
+        MockHttpServletResponse streamed = new MockHttpServletResponse();
+        HeaderPolicy.copyResponseHeaders(upstream, streamed);
+        HttpHeaders buffered = HeaderPolicy.responseHeaders(upstream);
+
+        assertNull(streamed.getHeader("Connection"));
+        assertNull(streamed.getHeader("Transfer-Encoding"));
+        assertEquals("120", streamed.getHeader("Content-Length"));
+        assertFalse(buffered.containsKey("Content-Length"));
+        assertEquals("application/json", buffered.getFirst("Content-Type"));
+    }
+
+    private static MockHttpServletRequest request() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/gateway/api/v1/trips");
+        request.setRemoteAddr("203.0.113.7");
+        request.setServerPort(8080);
+        request.addHeader("Host", "gateway.example:8080");
+        request.addHeader("Accept", "application/json");
+        return request;
+    }
+}
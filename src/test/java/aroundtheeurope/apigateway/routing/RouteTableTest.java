@@ -0,0 +1,88 @@
+package aroundtheeurope.apigateway.routing;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for RouteTable matching, precedence and path rewriting.
+ */
+class RouteTableTest {
+
+    private static final Map<String, String> UPSTREAMS = Map.of(
+            "identity-service", "http://identity:60002",
+            "trip-service", "http://trips:60001"
+    );
+    private static final String UUID = "5f0c1c0e-8c4e-4d0a-9a43-2f6a0d8f4b1e";
+
+    private final RouteTable routeTable = new RouteTable(List.of(
+            route("login", "POST", "/gateway/api/v1/login", "identity-service", "/api/v1/login", false),
+            route("trips", "GET", "/gateway/api/v1/trips", "trip-service", "/api/v1/trips", true),
+            route("preview", "GET", "/gateway/api/v1/trips/preview", "trip-service", "/api/v1/trips/preview", true),
+            route("results", "GET", "/gateway/api/v1/trips/{requestId:[0-9a-f-]{36}}", "trip-service", "/api/v1/trips/{requestId}", true),
+            route("legs", "GET", "/gateway/api/v1/trips/{requestId}/legs/{leg}", "trip-service", "/api/v1/legs/{leg}/of/{requestId}", true)
+    ), UPSTREAMS::get);
+
+    @Test
+    void matchesLiteralRoute() {
+        RouteMatch match = routeTable.match("GET", "/gateway/api/v1/trips");
+
+        assertEquals("trips", match.route().id());
+        assertEquals("http://trips:60001/api/v1/trips", match.targetUrl());
+    }
+
+    @Test
+    void prefersLiteralOverVariableSegment() {
+        assertEquals("preview", routeTable.match("GET", "/gateway/api/v1/trips/preview").route().id());
+        assertEquals("results", routeTable.match("GET", "/gateway/api/v1/trips/" + UUID).route().id());
+    }
+
+    @Test
+    void rewritesVariablesInAnyOrder() {
+        RouteMatch match = routeTable.match("GET", "/gateway/api/v1/trips/" + UUID + "/legs/2");
+
+        assertEquals("http://trips:60001/api/v1/legs/2/of/" + UUID, match.targetUrl());
+    }
+
+    @Test
+    void leavesUnmatchedRequestsToControllers() {
+        // Constraint not met, e.g. a controller endpoint next to the variable
+        assertNull(routeTable.match("GET", "/gateway/api/v1/trips/position"));
+        // Path known, method not
+        assertNull(routeTable.match("POST", "/gateway/api/v1/trips"));
+        assertNull(routeTable.match("GET", "/gateway/api/v1/trips/"));
+        assertNull(routeTable.match("GET", "/actuator/health"));
+    }
+
+    @Test
+    void tellsPublicRoutes() {
+        assertTrue(routeTable.isPublic("POST", "/gateway/api/v1/login"));
+        assertFalse(routeTable.isPublic("GET", "/gateway/api/v1/trips"));
+        assertFalse(routeTable.isPublic("GET", "/gateway/api/v1/unknown"));
+    }
+
+    @Test
+    void rejectsInvalidRoutes() {
+        assertThrows(IllegalArgumentException.class, () -> new RouteTable(List.of(
+                route("a", "GET", "/a", "trip-service", "/a", true),
+                route("b", "GET", "/a", "trip-service", "/b", true)
+        ), UPSTREAMS::get));
+        assertThrows(IllegalArgumentException.class, () -> new RouteTable(List.of(
+                route("a", "GET", "/a", "unknown-service", "/a", true)
+        ), UPSTREAMS::get));
+        assertThrows(IllegalArgumentException.class, () -> new RouteTable(List.of(
+                route("a", "GET", "/a/{id}", "trip-service", "/a/{other}", true)
+        ), UPSTREAMS::get));
+    }
+
+    private static RouteDefinition route(String id, String method, String path, String upstream, String rewrite, boolean authenticated) {
+        return new RouteDefinition(id, method, path, upstream, rewrite, false, authenticated, null, null, null);
+    }
+}
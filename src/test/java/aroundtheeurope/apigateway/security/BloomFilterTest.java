@@ -0,0 +1,111 @@
+package aroundtheeurope.apigateway.security;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for BloomFilter, filled with random token IDs up to the capacity it is sized for.
+ */
+class BloomFilterTest {
+
+    private static final int CAPACITY = 100_000;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final int PROBES = 200_000;
+    private static final int THREADS = 8;
+
+    @Test
+    void neverForgetsAnAddedValue() {
+        BloomFilter filter = new BloomFilter(CAPACITY, FALSE_POSITIVE_RATE);
+        List<String> added = randomIds(CAPACITY);
+        added.forEach(filter::put);
+
+        for (String value : added) {
+            assertTrue(filter.mightContain(value), value);
+        }
+    }
+
+    @Test
+    void keepsToTheFalsePositiveRateAtCapacity() {
+        BloomFilter filter = new BloomFilter(CAPACITY, FALSE_POSITIVE_RATE);
+        randomIds(CAPACITY).forEach(filter::put);
+
+        int falsePositives = 0;
+        for (String value : randomIds(PROBES)) {
+            if (filter.mightContain(value)) {
+                falsePositives++;
+            }
+        }
+        // Generous margin over the configured rate, the observed rate varies a little with the random IDs
+        double rate = (double) falsePositives / PROBES;
+        assertTrue(rate < FALSE_POSITIVE_RATE * 1.5, "false positive rate " + rate);
+    }
+
+    @Test
+    void emptyFilterContainsNothing() {
+        BloomFilter filter = new BloomFilter(CAPACITY, FALSE_POSITIVE_RATE);
+
+        for (String value : randomIds(1000)) {
+            assertFalse(filter.mightContain(value));
+        }
+    }
+
+    @Test
+    void concurrentAddsAreNotLost() throws Exception {
+        BloomFilter filter = new BloomFilter(CAPACITY, FALSE_POSITIVE_RATE);
+        List<List<String>> addedByThread = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            addedByThread.add(randomIds(CAPACITY / THREADS));
+        }
+        // Readers run alongside the writers, an ID must be found as soon as its put returned
+        AtomicBoolean missed = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        try {
+            for (List<String> added : addedByThread) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    for (String value : added) {
+                        filter.put(value);
+                        if (!filter.mightContain(value)) {
+                            missed.set(true);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertFalse(missed.get());
+        for (List<String> added : addedByThread) {
+            for (String value : added) {
+                assertTrue(filter.mightContain(value), value);
+            }
+        }
+    }
+
+    private static List<String> randomIds(int count) {
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(UUID.randomUUID().toString());
+        }
+        return ids;
+    }
+}
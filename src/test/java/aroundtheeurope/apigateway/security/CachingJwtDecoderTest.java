@@ -0,0 +1,84 @@
+package aroundtheeurope.apigateway.security;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.core.OAuth2Error;
+import org.springframework.security.oauth2.core.OAuth2TokenValidatorResult;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtValidationException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for CachingJwtDecoder with a delegate counting how often tokens are actually decoded.
+ */
+class CachingJwtDecoderTest {
+
+    private final AtomicInteger decodings = new AtomicInteger();
+    private final Set<String> revokedTokens = ConcurrentHashMap.newKeySet();
+
+    @Test
+    void decodesAReusedTokenOnce() {
+        CachingJwtDecoder decoder = newDecoder(Duration.ofMinutes(5));
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("user-1", decoder.decode("token-1").getSubject());
+        }
+        assertEquals(1, decodings.get());
+    }
+
+    @Test
+    void decodesAgainAfterAnEviction() {
+        CachingJwtDecoder decoder = newDecoder(Duration.ofMinutes(5));
+        decoder.decode("token-1");
+
+        decoder.evict("token-1");
+        decoder.decode("token-1");
+
+        assertEquals(2, decodings.get());
+    }
+
+    @Test
+    void keepsTokensNoLongerThanTheMaximumTtl() throws InterruptedException {
+        // The token itself is valid for an hour, another node's eviction must still reach this one sooner
+        CachingJwtDecoder decoder = newDecoder(Duration.ofMillis(100));
+        decoder.decode("token-1");
+
+        Thread.sleep(200);
+        decoder.decode("token-1");
+
+        assertEquals(2, decodings.get());
+    }
+
+    @Test
+    void rejectsARevokedTokenServedFromTheCache() {
+        CachingJwtDecoder decoder = newDecoder(Duration.ofMinutes(5));
+        decoder.decode("token-1");
+
+        revokedTokens.add("token-1");
+
+        assertThrows(JwtValidationException.class, () -> decoder.decode("token-1"));
+        assertEquals(1, decodings.get());
+    }
+
+    private CachingJwtDecoder newDecoder(Duration maxTtl) {
+        JwtDecoder delegate = token -> {
+            decodings.incrementAndGet();
+            return Jwt.withTokenValue(token)
+                    .header("alg", "HS256")
+                    .subject("user-1")
+                    .expiresAt(Instant.now().plus(Duration.ofHours(1)))
+                    .build();
+        };
+        return new CachingJwtDecoder(delegate, jwt -> revokedTokens.contains(jwt.getTokenValue())
+                ? OAuth2TokenValidatorResult.failure(new OAuth2Error("invalid_token", "Token revoked", null))
+                : OAuth2TokenValidatorResult.success(), 100, maxTtl);
+    }
+}
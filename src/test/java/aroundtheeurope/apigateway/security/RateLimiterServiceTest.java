@@ -0,0 +1,104 @@
+package aroundtheeurope.apigateway.security;
+
+import aroundtheeurope.apigateway.AbstractRedisContainerTest;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for RateLimiterService against the token bucket script in a real Redis server.
+ * Each service instance stands for a gateway node.
+ */
+class RateLimiterServiceTest extends AbstractRedisContainerTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void rejectsCallsBeyondTheCapacity() {
+        RateLimiterService limiter = newNode(redisTemplate, meterRegistry);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.tryAcquire(RateLimiterService.ROUTE_QUEUE, "user-1"));
+        }
+        long retryAfter = limiter.tryAcquire(RateLimiterService.ROUTE_QUEUE, "user-1");
+
+        // One token every ten seconds
+        assertTrue(retryAfter > 9000 && retryAfter <= 10_000, "retry after " + retryAfter);
+        assertEquals(0, limiter.tryAcquire(RateLimiterService.ROUTE_QUEUE, "user-2"));
+    }
+
+    @Test
+    void nodesShareTheBucket() {
+        RateLimiterService node1 = newNode(redisTemplate, meterRegistry);
+        RateLimiterService node2 = newNode(redisTemplate, new SimpleMeterRegistry());
+
+        int allowed = 0;
+        for (int i = 0; i < 10; i++) {
+            RateLimiterService node = i % 2 == 0 ? node1 : node2;
+            if (node.tryAcquire(RateLimiterService.ROUTE_QUEUE, "user-1") == 0) {
+                allowed++;
+            }
+        }
+
+        assertEquals(5, allowed);
+    }
+
+    @Test
+    void spendsLeasedTokensWithoutCallingRedis() {
+        RateLimiterService limiter = newNode(redisTemplate, meterRegistry);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, limiter.tryAcquire(RateLimiterService.ROUTE_DEFAULT, "user-1"));
+        }
+        assertEquals(1, redisCalls(meterRegistry));
+
+        limiter.tryAcquire(RateLimiterService.ROUTE_DEFAULT, "user-1");
+        assertEquals(2, redisCalls(meterRegistry));
+        // The bucket of 100 tokens gave out two leases of 10, and refilled a little meanwhile
+        double tokens = Double.parseDouble(redisTemplate.<String, String>opsForHash()
+                .get("gateway:rate-limit:default:user-1", "tokens"));
+        assertTrue(tokens >= 80 && tokens < 90, "tokens " + tokens);
+    }
+
+    @Test
+    void limitsLocallyWithoutWaitingOnRedisWhileItIsDown() {
+        LettuceConnectionFactory unreachable = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", 1));
+        unreachable.afterPropertiesSet();
+        try {
+            RateLimiterService limiter = newNode(new StringRedisTemplate(unreachable), meterRegistry);
+
+            for (int i = 0; i < 5; i++) {
+                assertEquals(0, limiter.tryAcquire(RateLimiterService.ROUTE_QUEUE, "user-1"));
+            }
+            assertTrue(limiter.tryAcquire(RateLimiterService.ROUTE_QUEUE, "user-1") > 0);
+            assertEquals(0, limiter.tryAcquire(RateLimiterService.ROUTE_QUEUE, "user-2"));
+            // Only the first call went to Redis, the others were limited by the node alone
+            assertEquals(1, redisCalls(meterRegistry));
+        } finally {
+            unreachable.destroy();
+        }
+    }
+
+    private static RateLimiterService newNode(StringRedisTemplate template, MeterRegistry meterRegistry) {
+        RateLimiterService limiter = new RateLimiterService(template, meterRegistry,
+                10, 0.5, 1,
+                5, 0.1, 1,
+                100, 20, 10,
+                Duration.ofMinutes(1), Duration.ofMinutes(1), 1000);
+        ReflectionTestUtils.setField(limiter, "enabled", true);
+        return limiter;
+    }
+
+    private static double redisCalls(MeterRegistry meterRegistry) {
+        return meterRegistry.counter("gateway.rate-limit.redis.calls").count();
+    }
+}
@@ -0,0 +1,132 @@
+package aroundtheeurope.apigateway.service;
+
+import aroundtheeurope.apigateway.queue.QueueShards;
+import io.lettuce.core.RedisURI;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Tests for QueueMembershipCache against a Redis server on localhost:6379; skipped if none is running.
+ * Another client changes the queue behind the cache's back, as another gateway node would.
+ */
+class QueueMembershipCacheTest {
+
+    private static final int CHECKS = 100;
+
+    private final QueueShards queueShards =
+            new QueueShards("test:tripRequestQueueSet:" + UUID.randomUUID(), "test:tripRequestQueue", 1);
+    private final String queueKey = queueShards.redisKey(0);
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private LettuceConnectionFactory connectionFactory;
+    private StringRedisTemplate otherNode;
+    private QueueMembershipCache cache;
+
+    @BeforeEach
+    void setUp() {
+        assumeTrue(redisAvailable(), "No Redis server on localhost:6379");
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", 6379));
+        connectionFactory.afterPropertiesSet();
+        otherNode = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (cache != null) {
+            cache.close();
+        }
+        if (connectionFactory != null) {
+            otherNode.delete(queueKey);
+            connectionFactory.destroy();
+        }
+    }
+
+    @Test
+    void servesRepeatedChecksLocallyUntilRedisInvalidatesThem() throws InterruptedException {
+        cache = newCache(true, Duration.ofMillis(500));
+        assumeTrue(cache.isTracking(), "Redis server does not support client tracking");
+        otherNode.opsForZSet().add(queueKey, "user-1", 1);
+
+        for (int i = 0; i < CHECKS; i++) {
+            assertTrue(cache.isQueued("user-1"));
+        }
+        assertEquals(1, loads());
+
+        otherNode.opsForZSet().remove(queueKey, "user-1");
+        long deadline = System.nanoTime() + Duration.ofSeconds(2).toNanos();
+        while (cache.peek("user-1") != null && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertNull(cache.peek("user-1"), "the removal must invalidate the cached membership");
+        assertFalse(cache.isQueued("user-1"));
+        assertEquals(2, loads());
+    }
+
+    @Test
+    void trustsEntriesOnlyForTheirTtlWithoutTracking() throws InterruptedException {
+        cache = newCache(false, Duration.ofMillis(200));
+        otherNode.opsForZSet().add(queueKey, "user-1", 1);
+
+        for (int i = 0; i < CHECKS; i++) {
+            assertTrue(cache.isQueued("user-1"));
+        }
+        assertEquals(1, loads());
+
+        otherNode.opsForZSet().remove(queueKey, "user-1");
+        // Without tracking the removal goes unnoticed until the entry expires
+        assertEquals(Boolean.TRUE, cache.peek("user-1"));
+        Thread.sleep(300);
+        assertNull(cache.peek("user-1"));
+        assertFalse(cache.isQueued("user-1"));
+    }
+
+    @Test
+    void alwaysRechecksUsersCachedAsNotQueued() {
+        cache = newCache(false, Duration.ofSeconds(10));
+        assertFalse(cache.isQueued("user-1"));
+
+        otherNode.opsForZSet().add(queueKey, "user-1", 1);
+
+        assertEquals(Boolean.FALSE, cache.peek("user-1"));
+        assertTrue(cache.isQueued("user-1"));
+        assertEquals(2, loads());
+    }
+
+    private QueueMembershipCache newCache(boolean tracking, Duration fallbackTtl) {
+        QueueMembershipCache queueMembershipCache = new QueueMembershipCache(otherNode, meterRegistry,
+                queueShards,
+                RedisURI.create("localhost", 6379), tracking, fallbackTtl, Duration.ofSeconds(60), 1000);
+        queueMembershipCache.start();
+        return queueMembershipCache;
+    }
+
+    private double loads() {
+        return meterRegistry.counter("gateway.queue-cache.loads").count();
+    }
+
+    private static boolean redisAvailable() {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress("localhost", 6379), 200);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package aroundtheeurope.apigateway.service;
+
+import aroundtheeurope.apigateway.AbstractRedisContainerTest;
+import aroundtheeurope.apigateway.queue.QueueShards;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Tests for migrating the JDK-serialized trip request queue against a real Redis server.
+ * Its entries must end up in the queue shards, the only keys the listeners and the dispatcher read.
+ */
+class RedisKeyMigrationQueueTest extends AbstractRedisContainerTest {
+
+    private final JdkSerializationRedisSerializer jdkSerializer = new JdkSerializationRedisSerializer();
+    private final QueueShards queueShards = new QueueShards(4);
+
+    @Test
+    void movesTheSerializedQueueIntoTheShards() {
+        List<String> userIds = List.of("user-1", "user-2", "user-3", "user-4", "user-5", "user-6");
+        redisTemplate.execute(connection -> {
+            for (int i = 0; i < userIds.size(); i++) {
+                connection.zSetCommands().zAdd(jdkSerializer.serialize(QueueShards.REDIS_KEY), 1000.0 + i,
+                        jdkSerializer.serialize(userIds.get(i)));
+            }
+            return null;
+        }, true);
+
+        new RedisKeyMigration(redisTemplate, queueShards, true).run();
+
+        for (int i = 0; i < userIds.size(); i++) {
+            String userId = userIds.get(i);
+            assertEquals(1000.0 + i, redisTemplate.opsForZSet().score(queueShards.redisKeyOf(userId), userId).doubleValue());
+        }
+        long migrated = 0;
+        for (int shard = 0; shard < queueShards.count(); shard++) {
+            migrated += redisTemplate.opsForZSet().zCard(queueShards.redisKey(shard));
+        }
+        assertEquals(userIds.size(), migrated);
+        assertFalse(redisTemplate.hasKey(QueueShards.REDIS_KEY));
+        Boolean serializedKeyExists = redisTemplate.execute(connection ->
+                connection.keyCommands().exists(jdkSerializer.serialize(QueueShards.REDIS_KEY)), true);
+        assertFalse(serializedKeyExists);
+    }
+}
@@ -0,0 +1,29 @@
+package aroundtheeurope.apigateway.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests for decoding keys written by the former JDK-serializing RedisTemplate.
+ */
+class RedisKeyMigrationTest {
+
+    private final JdkSerializationRedisSerializer jdkSerializer = new JdkSerializationRedisSerializer();
+
+    @Test
+    void decodesSerializedStrings() {
+        assertEquals("tripRequestQueueSet", RedisKeyMigration.decodeJdkString(jdkSerializer.serialize("tripRequestQueueSet")));
+        assertEquals("žluťoučký", RedisKeyMigration.decodeJdkString(jdkSerializer.serialize("žluťoučký")));
+    }
+
+    @Test
+    void ignoresEverythingElse() {
+        assertNull(RedisKeyMigration.decodeJdkString("tripRequestQueueSet".getBytes(StandardCharsets.UTF_8)));
+        assertNull(RedisKeyMigration.decodeJdkString(jdkSerializer.serialize(42L)));
+    }
+}
@@ -0,0 +1,116 @@
+package aroundtheeurope.apigateway.service;
+
+import aroundtheeurope.apigateway.AbstractRedisContainerTest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for ResponseCacheService with the shared tier in a real Redis server.
+ * Each service instance stands for a gateway node; invalidation messages between them are not delivered.
+ */
+class ResponseCacheServiceTest extends AbstractRedisContainerTest {
+
+    private static final String TARGET_URL = "http://trip-service/api/v1/trips";
+
+    private RequestForwardingService upstream;
+    private ResponseCacheService cache;
+
+    @BeforeEach
+    void setUp() {
+        upstream = mock(RequestForwardingService.class);
+        cache = newNode(upstream);
+    }
+
+    @Test
+    void fetchFinishingAfterAnInvalidationIsNotCached() {
+        when(upstream.fetch(any(), anyString(), anyString())).thenAnswer(invocation -> {
+            // The user's request finishes while their old trip list is being fetched
+            cache.invalidateUser("user-1");
+            return ok("old");
+        }).thenReturn(ok("new"));
+
+        assertEquals("old", body(get("user-1")));
+        assertEquals("new", body(get("user-1")));
+        assertEquals("new", body(get("user-1")));
+        verify(upstream, times(2)).fetch(any(), anyString(), anyString());
+    }
+
+    @Test
+    void sharedTierKeepsBinaryBodiesIntact() {
+        byte[] body = new byte[256];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) i;
+        }
+        when(upstream.fetch(any(), anyString(), anyString()))
+                .thenReturn(ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM).body(body));
+        get("user-1");
+
+        RequestForwardingService otherUpstream = mock(RequestForwardingService.class);
+        ResponseCacheService otherNode = newNode(otherUpstream);
+        ResponseEntity<?> response = otherNode.getOrForward(request(), new MockHttpServletResponse(),
+                ResponseCacheService.ROUTE_TRIPS, "user-1", TARGET_URL);
+
+        assertArrayEquals(body, (byte[]) response.getBody());
+        assertEquals(MediaType.APPLICATION_OCTET_STREAM, response.getHeaders().getContentType());
+        verify(otherUpstream, never()).fetch(any(), anyString(), anyString());
+    }
+
+    @Test
+    void invalidationEvictsOnlyTheUsersResponses() {
+        when(upstream.fetch(any(), anyString(), eq(ResponseCacheService.ROUTE_TRIPS))).thenReturn(ok("trips"));
+        get("user-1");
+        get("user-2");
+
+        cache.invalidateUser("user-1");
+        get("user-1");
+        get("user-2");
+
+        verify(upstream, times(3)).fetch(any(), anyString(), anyString());
+    }
+
+    private ResponseCacheService newNode(RequestForwardingService requestForwardingService) {
+        ResponseCacheService service = new ResponseCacheService(requestForwardingService, redisTemplate,
+                mock(RedisMessageListenerContainer.class), new SimpleMeterRegistry(), new ResponseCompressor(6, 2048),
+                100, Duration.ofMinutes(1), Duration.ofMinutes(1), Duration.ofMinutes(1), Duration.ofMinutes(10));
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "sharedTierEnabled", true);
+        return service;
+    }
+
+    private ResponseEntity<?> get(String userId) {
+        return cache.getOrForward(request(), new MockHttpServletResponse(), ResponseCacheService.ROUTE_TRIPS, userId, TARGET_URL);
+    }
+
+    private static MockHttpServletRequest request() {
+        return new MockHttpServletRequest("GET", "/gateway/api/v1/trips");
+    }
+
+    private static ResponseEntity<byte[]> ok(String body) {
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String body(ResponseEntity<?> response) {
+        return new String((byte[]) response.getBody(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,76 @@
+package aroundtheeurope.apigateway.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for ResponseCompressor encoding and Accept-Encoding negotiation.
+ */
+class ResponseCompressorTest {
+
+    private final ResponseCompressor responseCompressor = new ResponseCompressor(6, 1024);
+
+    @Test
+    void producesValidGzip() throws IOException {
+        byte[] body = tripList(200);
+
+        // Twice, so the second run uses a pooled deflater
+        responseCompressor.gzip(body, "application/json");
+        byte[] compressed = responseCompressor.gzip(body, "application/json");
+
+        assertTrue(compressed.length < body.length / 4, "Repetitive JSON should shrink well, got " + compressed.length + " bytes");
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            assertArrayEquals(body, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void skipsBodiesNotWorthCompressing() {
+        assertNull(responseCompressor.gzip(tripList(1), "application/json"));
+        assertNull(responseCompressor.gzip(tripList(200), "image/png"));
+        assertNull(responseCompressor.gzip(tripList(200), null));
+    }
+
+    @Test
+    void negotiatesGzip() {
+        assertTrue(ResponseCompressor.acceptsGzip("gzip, deflate, br"));
+        assertTrue(ResponseCompressor.acceptsGzip("br;q=1.0, gzip;q=0.8"));
+        assertTrue(ResponseCompressor.acceptsGzip("*"));
+        assertFalse(ResponseCompressor.acceptsGzip("gzip;q=0"));
+        assertTrue(ResponseCompressor.acceptsGzip("*;q=0, gzip"));
+        assertFalse(ResponseCompressor.acceptsGzip("*, gzip;q=0"));
+        assertFalse(ResponseCompressor.acceptsGzip("br, *;q=0"));
+        assertFalse(ResponseCompressor.acceptsGzip("br"));
+        assertFalse(ResponseCompressor.acceptsGzip(null));
+    }
+
+    @Test
+    void derivesGzipETag() {
+        assertEquals("\"abc-gzip\"", ResponseCompressor.gzipETag("\"abc\""));
+    }
+
+    private static byte[] tripList(int trips) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < trips; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"origin\":\"BTS\",\"destination\":\"VIE\",\"departureAt\":\"2026-10-")
+                    .append(10 + i % 20)
+                    .append("T06:30:00\",\"price\":")
+                    .append(19 + i % 50)
+                    .append(".99,\"currency\":\"EUR\"}");
+        }
+        return json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,98 @@
+package aroundtheeurope.apigateway.service;
+
+import aroundtheeurope.apigateway.AbstractRedisContainerTest;
+import aroundtheeurope.apigateway.codec.BinaryTripRequestCodec;
+import aroundtheeurope.apigateway.codec.JsonTripRequestCodec;
+import aroundtheeurope.apigateway.codec.TripRequestCodecs;
+import aroundtheeurope.apigateway.dto.ForwardedTripRequestDTO;
+import aroundtheeurope.apigateway.dto.TripRequestDTO;
+import aroundtheeurope.apigateway.queue.QueuePositions;
+import aroundtheeurope.apigateway.queue.QueueShards;
+import aroundtheeurope.apigateway.queue.SchedulingPolicy;
+import aroundtheeurope.apigateway.queue.TripRequestScheduler;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for TripRequestService enqueueing against a real Redis server, so parallel requests of one user race
+ * on the scheduler's enqueue script rather than on a stand-in for it.
+ */
+class TripRequestServiceTest extends AbstractRedisContainerTest {
+
+    private static final int PARALLEL_ENQUEUES = 64;
+
+    private final QueueShards queueShards = new QueueShards(1);
+    private TripRequestService tripRequestService;
+
+    @BeforeEach
+    void setUp() {
+        TripRequestScheduler tripRequestScheduler = new TripRequestScheduler(redisTemplate, queueShards,
+                SchedulingPolicy.FIFO, Duration.ofMinutes(30));
+        JsonTripRequestCodec jsonCodec = new JsonTripRequestCodec(new ObjectMapper());
+        TripRequestCodecs codecs = new TripRequestCodecs(List.of(new BinaryTripRequestCodec(), jsonCodec), jsonCodec, "binary");
+        tripRequestService = new TripRequestService(codecs, mock(QueueMembershipCache.class), queueShards,
+                mock(QueuePositions.class), tripRequestScheduler);
+    }
+
+    @Test
+    void parallelEnqueuesForOneUserAcceptExactlyOne() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(PARALLEL_ENQUEUES);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<ResponseEntity<String>>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < PARALLEL_ENQUEUES; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return tripRequestService.queueTripRequest(request("user-1"), "user-1", null);
+                }));
+            }
+            start.countDown();
+
+            int accepted = 0;
+            int conflicts = 0;
+            for (Future<ResponseEntity<String>> result : results) {
+                int status = result.get().getStatusCode().value();
+                if (status == 202) {
+                    accepted++;
+                } else if (status == 409) {
+                    conflicts++;
+                }
+            }
+
+            assertEquals(1, accepted);
+            assertEquals(PARALLEL_ENQUEUES - 1, conflicts);
+            assertEquals(1L, redisTemplate.opsForZSet().zCard(queueShards.redisKey(0)));
+            assertEquals(1L, redisTemplate.opsForHash().size(queueShards.payloadKey(0)));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void differentUsersAreAllAccepted() {
+        assertEquals(202, tripRequestService.queueTripRequest(request("user-1"), "user-1", null).getStatusCode().value());
+        assertEquals(202, tripRequestService.queueTripRequest(request("user-2"), "user-2", null).getStatusCode().value());
+        assertEquals(409, tripRequestService.queueTripRequest(request("user-1"), "user-1", null).getStatusCode().value());
+    }
+
+    private static ForwardedTripRequestDTO request(String userId) {
+        TripRequestDTO tripRequestDTO = new TripRequestDTO();
+        tripRequestDTO.setOrigin("BTS");
+        tripRequestDTO.setDepartureAt("2024-10-10T00:00:00");
+        tripRequestDTO.setBudget(300);
+        return new ForwardedTripRequestDTO(tripRequestDTO, userId);
+    }
+}
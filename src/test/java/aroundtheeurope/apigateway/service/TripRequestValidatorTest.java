@@ -0,0 +1,65 @@
+package aroundtheeurope.apigateway.service;
+
+import aroundtheeurope.apigateway.dto.TripRequestDTO;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TripRequestValidatorTest {
+
+    private final TripRequestValidator validator = new TripRequestValidator();
+
+    @Test
+    void normalizesSupportedDateShapes() {
+        assertEquals("2024-10-10T00:00:00", TripRequestValidator.normalizeDate("2024-10-10"));
+        assertEquals("2024-10-10T08:30:00", TripRequestValidator.normalizeDate("2024-10-10T08:30"));
+        assertEquals("2024-10-10T08:30:15", TripRequestValidator.normalizeDate("2024-10-10T08:30:15"));
+        assertEquals("2024-10-10T08:30:15.250", TripRequestValidator.normalizeDate("2024-10-10T08:30:15.250"));
+        assertEquals("2024-02-29T00:00:00", TripRequestValidator.normalizeDate("2024-02-29"));
+    }
+
+    @Test
+    void rejectsInvalidDates() {
+        assertNull(TripRequestValidator.normalizeDate("2023-02-29"));
+        assertNull(TripRequestValidator.normalizeDate("2024-04-31"));
+        assertNull(TripRequestValidator.normalizeDate("2024-13-01"));
+        assertNull(TripRequestValidator.normalizeDate("2024-10-10T24:00:00"));
+        assertNull(TripRequestValidator.normalizeDate("2024-10-10 08:30:15"));
+        assertNull(TripRequestValidator.normalizeDate("10/10/2024"));
+    }
+
+    @Test
+    void rejectsReturnBeforeDeparture() {
+        TripRequestDTO request = request();
+        request.setReturnBefore("2024-10-01");
+
+        assertNull(validator.validateAndSetDefaults(request));
+    }
+
+    @Test
+    void rejectsMinStayAboveMaxStay() {
+        TripRequestDTO request = request();
+        request.setMinStay(5);
+        request.setMaxStay(2);
+
+        assertNull(validator.validateAndSetDefaults(request));
+    }
+
+    @Test
+    void appliesDefaults() {
+        TripRequestDTO validated = validator.validateAndSetDefaults(request());
+
+        assertNotNull(validated);
+        assertEquals("2024-10-10T00:00:00", validated.getDepartureAt());
+        assertEquals("3000-01-01T00:00:00", validated.getReturnBefore());
+        assertEquals("BTS", validated.getDestination());
+    }
+
+    private static TripRequestDTO request() {
+        TripRequestDTO request = new TripRequestDTO();
+        request.setOrigin("BTS");
+        request.setDepartureAt("2024-10-10");
+        request.setBudget(300);
+        return request;
+    }
+}